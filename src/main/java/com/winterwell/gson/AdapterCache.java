@@ -0,0 +1,192 @@
+package com.winterwell.gson;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.winterwell.gson.reflect.TypeToken;
+
+/**
+ * The adapter cache inside a {@link FactoryChain}, following an {@link AdapterCachePolicy}.
+ * Lookups are lock-free. Eviction sweeps are synchronized, but only happen once per 10% of maxSize inserts.
+ * <p>
+ * Weak mode: adapters for types from "foreign" classloaders are kept in a map attached (via ClassValue) to 
+ * a class from that loader. The JVM drops the map with the class, even though the adapters point back at it.
+ */
+final class AdapterCache {
+
+	private static final ClassLoader SYSTEM = ClassLoader.getSystemClassLoader();
+	private static final ClassLoader PLATFORM = ClassLoader.getPlatformClassLoader();
+	private static final ClassLoader OURS = AdapterCache.class.getClassLoader();
+
+	static final class Entry {
+		final TypeAdapter<?> adapter;
+		/**
+		 * nano-time for lru, or a (racy) count for lfu
+		 */
+		volatile long score;
+
+		Entry(TypeAdapter<?> adapter) {
+			this.adapter = adapter;
+		}
+	}
+
+	private final AdapterCachePolicy policy;
+
+	private final ConcurrentHashMap<TypeToken<?>, Entry> strong = new ConcurrentHashMap<TypeToken<?>, Entry>();
+
+	/**
+	 * null unless weak
+	 */
+	private final ClassValue<ConcurrentHashMap<TypeToken<?>, Entry>> anchored;
+
+	/**
+	 * The anchored maps, for eviction sweeps. Weak, so as not to pin them.
+	 */
+	private final Queue<WeakReference<ConcurrentHashMap<TypeToken<?>, Entry>>> segments 
+		= new ConcurrentLinkedQueue<WeakReference<ConcurrentHashMap<TypeToken<?>, Entry>>>();
+
+	private final AtomicInteger size = new AtomicInteger();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	AdapterCache(AdapterCachePolicy policy) {
+		this.policy = policy == null ? AdapterCachePolicy.UNBOUNDED : policy;
+		anchored = this.policy.weakClassLoaders ? new ClassValue<ConcurrentHashMap<TypeToken<?>, Entry>>() {
+			@Override
+			protected ConcurrentHashMap<TypeToken<?>, Entry> computeValue(Class<?> type) {
+				ConcurrentHashMap<TypeToken<?>, Entry> seg = new ConcurrentHashMap<TypeToken<?>, Entry>();
+				segments.add(new WeakReference<ConcurrentHashMap<TypeToken<?>, Entry>>(seg));
+				return seg;
+			}
+		} : null;
+	}
+
+	AdapterCachePolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * A counted lookup
+	 */
+	TypeAdapter<?> get(TypeToken<?> type) {
+		Entry e = segment(type).get(type);
+		if (e == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		if (policy.maxSize != 0) {
+			e.score = policy.lfu ? e.score + 1 : System.nanoTime();
+		}
+		return e.adapter;
+	}
+
+	/**
+	 * An uncounted lookup
+	 */
+	TypeAdapter<?> peek(TypeToken<?> type) {
+		Entry e = segment(type).get(type);
+		return e == null ? null : e.adapter;
+	}
+
+	void put(TypeToken<?> type, TypeAdapter<?> adapter) {
+		Entry e = new Entry(adapter);
+		e.score = policy.lfu ? 1 : System.nanoTime();
+		Entry old = segment(type).put(type, e);
+		if (old == null && size.incrementAndGet() > policy.maxSize && policy.maxSize != 0) {
+			evict();
+		}
+	}
+
+	AdapterCacheStats getStats() {
+		return new AdapterCacheStats(hits.sum(), misses.sum(), evictions.sum(), size.get());
+	}
+
+	private synchronized void evict() {
+		if (size.get() <= policy.maxSize) {
+			return; // another thread got here first
+		}
+		// gather everything (and forget dead segments)
+		List<Object[]> all = new ArrayList<Object[]>(size.get());
+		gather(strong, all);
+		Iterator<WeakReference<ConcurrentHashMap<TypeToken<?>, Entry>>> it = segments.iterator();
+		while (it.hasNext()) {
+			ConcurrentHashMap<TypeToken<?>, Entry> seg = it.next().get();
+			if (seg == null) it.remove();
+			else gather(seg, all);
+		}
+		int target = policy.maxSize - policy.maxSize / 10;
+		int excess = all.size() - target;
+		if (excess > 0) {
+			all.sort((a, b) -> Long.compare(((Entry) a[2]).score, ((Entry) b[2]).score));
+			for (int i = 0; i < excess; i++) {
+				Object[] row = all.get(i);
+				if (((Map) row[0]).remove(row[1], row[2])) {
+					evictions.increment();
+				}
+			}
+		}
+		size.set(Math.min(all.size(), target));
+	}
+
+	private static void gather(ConcurrentHashMap<TypeToken<?>, Entry> seg, List<Object[]> all) {
+		for (Map.Entry<TypeToken<?>, Entry> e : seg.entrySet()) {
+			all.add(new Object[] { seg, e.getKey(), e.getValue() });
+		}
+	}
+
+	private ConcurrentHashMap<TypeToken<?>, Entry> segment(TypeToken<?> type) {
+		if (anchored == null) {
+			return strong;
+		}
+		Class<?> anchor = anchor(type.getType());
+		return anchor == null ? strong : anchored.get(anchor);
+	}
+
+	/**
+	 * @return a class from type (e.g. one of its type-arguments) whose classloader might be unloaded, or null
+	 */
+	static Class<?> anchor(Type type) {
+		if (type instanceof Class) {
+			Class<?> c = (Class<?>) type;
+			while (c.isArray()) c = c.getComponentType();
+			ClassLoader cl = c.getClassLoader();
+			return cl == null || cl == SYSTEM || cl == PLATFORM || cl == OURS ? null : c;
+		}
+		if (type instanceof ParameterizedType) {
+			ParameterizedType pt = (ParameterizedType) type;
+			Class<?> a = anchor(pt.getRawType());
+			if (a != null) return a;
+			for (Type arg : pt.getActualTypeArguments()) {
+				a = anchor(arg);
+				if (a != null) return a;
+			}
+			return pt.getOwnerType() == null ? null : anchor(pt.getOwnerType());
+		}
+		if (type instanceof GenericArrayType) {
+			return anchor(((GenericArrayType) type).getGenericComponentType());
+		}
+		if (type instanceof WildcardType) {
+			WildcardType wt = (WildcardType) type;
+			for (Type b : wt.getLowerBounds()) {
+				Class<?> a = anchor(b);
+				if (a != null) return a;
+			}
+			return anchor(wt.getUpperBounds()[0]);
+		}
+		return null; // type variables
+	}
+}
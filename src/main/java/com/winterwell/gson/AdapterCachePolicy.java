@@ -0,0 +1,72 @@
+package com.winterwell.gson;
+
+/**
+ * How a Gson keeps the adapters it has made. See {@link GsonBuilder#setAdapterCachePolicy(AdapterCachePolicy)}.
+ * Immutable.
+ * <p>
+ * The default is {@link #UNBOUNDED}: keep everything, which is right for a fixed set of model classes.
+ * Use a bounded policy if you see an open-ended set of (e.g. parameterized) types, and 
+ * {@link #weakClassLoaders()} if classloaders come and go (e.g. a plugin host) -- otherwise the cache 
+ * will pin them.
+ */
+public final class AdapterCachePolicy {
+
+	public static final AdapterCachePolicy UNBOUNDED = new AdapterCachePolicy(0, false, false);
+
+	/**
+	 * 0 for unbounded
+	 */
+	final int maxSize;
+	final boolean lfu;
+	final boolean weakClassLoaders;
+
+	private AdapterCachePolicy(int maxSize, boolean lfu, boolean weakClassLoaders) {
+		if (maxSize < 0) throw new IllegalArgumentException("maxSize: "+maxSize);
+		this.maxSize = maxSize;
+		this.lfu = lfu;
+		this.weakClassLoaders = weakClassLoaders;
+	}
+
+	/**
+	 * Evict the least-recently-used adapters when over maxSize.
+	 * Eviction is in batches (down to 90% of maxSize), so the size can briefly go over. 
+	 */
+	public static AdapterCachePolicy lru(int maxSize) {
+		return new AdapterCachePolicy(maxSize, false, false);
+	}
+
+	/**
+	 * Evict the least-frequently-used adapters when over maxSize. Use counts are approximate.
+	 */
+	public static AdapterCachePolicy lfu(int maxSize) {
+		return new AdapterCachePolicy(maxSize, true, false);
+	}
+
+	/**
+	 * @return a copy of this policy, which stores adapters for types from other classloaders (i.e. not 
+	 * the system/platform loaders, or the one which loaded Gson) against those classes -- so they are 
+	 * dropped when their classloader is unloaded.
+	 */
+	public AdapterCachePolicy weakClassLoaders() {
+		return new AdapterCachePolicy(maxSize, lfu, true);
+	}
+
+	@Override
+	public int hashCode() {
+		return maxSize * 31 + (lfu ? 2 : 0) + (weakClassLoaders ? 1 : 0);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (obj == null || getClass() != obj.getClass()) return false;
+		AdapterCachePolicy other = (AdapterCachePolicy) obj;
+		return maxSize == other.maxSize && lfu == other.lfu && weakClassLoaders == other.weakClassLoaders;
+	}
+
+	@Override
+	public String toString() {
+		return "AdapterCachePolicy[" + (maxSize == 0 ? "unbounded" : (lfu ? "lfu:" : "lru:") + maxSize)
+				+ (weakClassLoaders ? " weak" : "") + "]";
+	}
+}
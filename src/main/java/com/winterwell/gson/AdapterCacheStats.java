@@ -0,0 +1,30 @@
+package com.winterwell.gson;
+
+/**
+ * A snapshot of adapter cache counters. See {@link Gson#getAdapterCacheStats()}.
+ * <p>
+ * Gsons which share a cache (see {@link GsonBuilder#setShareAdapterCache(boolean)}) share counters. 
+ * Counters restart when a late registration swaps in a fresh cache. 
+ */
+public final class AdapterCacheStats {
+
+	public final long hits;
+	public final long misses;
+	public final long evictions;
+	/**
+	 * Approximate: includes entries for unloaded classloaders until the next eviction sweep.
+	 */
+	public final int size;
+
+	AdapterCacheStats(long hits, long misses, long evictions, int size) {
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.size = size;
+	}
+
+	@Override
+	public String toString() {
+		return "AdapterCacheStats[hits:" + hits + " misses:" + misses + " evictions:" + evictions + " size:" + size + "]";
+	}
+}
@@ -0,0 +1,76 @@
+package com.winterwell.gson;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link Gson#classForClass}: a thread-safe map, private to one Gson, which tells its Gson
+ * when it is edited -- so a Gson that shares an adapter cache (see {@link GsonBuilder#create()})
+ * can first move onto its own, as the shared adapters resolve classes via the prototype's mapping.
+ * <p>
+ * Edit via put / remove / clear (or the default Map methods, which use them).
+ * The entrySet() / keySet() / values() views are read-only.
+ *
+ * @author daniel
+ */
+final class ClassMapping extends AbstractMap<String, Class> {
+
+	private final ConcurrentHashMap<String, Class> map = new ConcurrentHashMap<String, Class>();
+	/**
+	 * null until set (so the initial fill doesn't trigger it)
+	 */
+	private Runnable onEdit;
+
+	ClassMapping(Map<String, Class> init) {
+		if (init != null) map.putAll(init);
+	}
+
+	void setOnEdit(Runnable onEdit) {
+		this.onEdit = onEdit;
+	}
+
+	private void edit() {
+		if (onEdit != null) onEdit.run();
+	}
+
+	@Override
+	public Class get(Object key) {
+		return map.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return map.containsKey(key);
+	}
+
+	@Override
+	public int size() {
+		return map.size();
+	}
+
+	@Override
+	public Class put(String key, Class value) {
+		edit();
+		return map.put(key, value);
+	}
+
+	@Override
+	public Class remove(Object key) {
+		edit();
+		return map.remove(key);
+	}
+
+	@Override
+	public void clear() {
+		edit();
+		map.clear();
+	}
+
+	@Override
+	public Set<Map.Entry<String, Class>> entrySet() {
+		return Collections.unmodifiableMap(map).entrySet();
+	}
+}
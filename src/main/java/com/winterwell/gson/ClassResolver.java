@@ -0,0 +1,142 @@
+package com.winterwell.gson;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class-property value -&gt; Class (and adapter), for {@link Gson#getClass(String)}.
+ * Polymorphic feeds repeat a few class names many times, so cache them -- including failures, so 
+ * a missing class isn't re-searched for on every object. 
+ * Thread-safe. The cache is shared by Gsons which share an adapter cache.
+ */
+final class ClassResolver {
+
+	/**
+	 * Stop negative-caching after this many, so junk input can't grow the cache without limit.
+	 */
+	private static final int MAX_NEGATIVES = 1000;
+
+	static final class Resolved {
+		/**
+		 * null if it failed
+		 */
+		final Class type;
+		/**
+		 * Why it failed. Kept as text, not an exception, as a cached failure is reported many times
+		 * (and each report should get its own stack trace) -- see {@link #error()}.
+		 */
+		private final String failure;
+		private final Throwable failureCause;
+		/**
+		 * true if this came from {@link Gson#classForClass}
+		 */
+		final boolean mapped;
+		/**
+		 * The adapter, and the chain it came from (so late registration invalidates it).
+		 */
+		volatile Object[] chainAdapter;
+
+		Resolved(Class type, ClassNotFoundException error, boolean mapped) {
+			this.type = type;
+			this.failure = error==null? null : error.getMessage();
+			this.failureCause = error==null? null : error.getCause();
+			this.mapped = mapped;
+		}
+
+		/**
+		 * @return a new exception (not a shared one with a stale stack trace), or null if it succeeded
+		 */
+		ClassNotFoundException error() {
+			if (type != null) return null;
+			return new ClassNotFoundException(failure, failureCause);
+		}
+	}
+
+	private final ConcurrentHashMap<String, Resolved> cache;
+	private final AtomicInteger negatives;
+	private final Map<String, Class> classForClass;
+	/**
+	 * null => allow all
+	 */
+	private final String[] allow;
+	/**
+	 * If true, don't hold on to classes from other classloaders (see {@link AdapterCachePolicy#weakClassLoaders()})
+	 */
+	private final boolean weak;
+
+	ClassResolver(Map<String, Class> classForClass, List<String> allowlist, AdapterCachePolicy policy) {
+		this.classForClass = classForClass;
+		this.allow = allowlist == null ? null : allowlist.toArray(new String[allowlist.size()]);
+		this.weak = policy != null && policy.weakClassLoaders;
+		this.cache = new ConcurrentHashMap<String, Resolved>();
+		this.negatives = new AtomicInteger();
+	}
+
+	/**
+	 * A resolver for another Gson's copy of the mapping, which shares shared's cache.
+	 * Safe as resolve() checks each cache hit against the mapping.
+	 */
+	ClassResolver(ClassResolver shared, Map<String, Class> classForClass) {
+		this.classForClass = classForClass;
+		this.allow = shared.allow;
+		this.weak = shared.weak;
+		this.cache = shared.cache;
+		this.negatives = shared.negatives;
+	}
+
+	/**
+	 * @param name
+	 * @return never null (check {@link Resolved#type})
+	 */
+	Resolved resolve(String name) {
+		// user-defined mappings always win (and can be edited later)
+		Class mapped = classForClass.get(name);
+		Resolved r = cache.get(name);
+		if (r != null && (mapped == null ? ! r.mapped : r.type == mapped)) {
+			return r;
+		}
+		if (mapped != null) {
+			r = new Resolved(mapped, null, true);
+		} else if ( ! isAllowed(name)) {
+			r = new Resolved(null, new ClassNotFoundException(name + " is not in the class allowlist"), false);
+		} else {
+			try {
+				r = new Resolved(Class.forName(name), null, false);
+			} catch (ClassNotFoundException e) {
+				r = new Resolved(null, e, false);
+			}
+		}
+		if (r.type == null) {
+			if (negatives.incrementAndGet() > MAX_NEGATIVES) return r;
+		} else if (weak && AdapterCache.anchor(r.type) != null) {
+			return r;
+		}
+		cache.put(name, r);
+		return r;
+	}
+
+	private boolean isAllowed(String name) {
+		if (allow == null) return true;
+		for (String prefix : allow) {
+			if (name.startsWith(prefix)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param r A successful resolution
+	 * @return adapter for r.type
+	 */
+	TypeAdapter<?> adapter(Gson gson, Resolved r) {
+		FactoryChain chain = gson.chain;
+		Object[] ca = r.chainAdapter;
+		if (ca != null && ca[0] == chain) {
+			return (TypeAdapter<?>) ca[1];
+		}
+		TypeAdapter<?> adapter = gson.getAdapter(r.type);
+		r.chainAdapter = new Object[] { chain, adapter };
+		return adapter;
+	}
+}
@@ -0,0 +1,144 @@
+package com.winterwell.gson;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of a {@link GsonBuilder}'s settings, for sharing prototype Gsons.
+ * <p>
+ * Plain values (strings, numbers, booleans, enums) are held as-is. Everything else -- classes,
+ * types, adapters, factories -- is held weakly, so the (static) prototype cache never pins a
+ * classloader. Their hashCode is taken once, here: if an object's state (and so hash) changes later,
+ * fingerprints holding it stop matching, rather than matching with a stale hash.
+ * <p>
+ * User-registered objects (adapters, factories, instance creators...) are marked with {@link #byIdentity(Object)}
+ * and only match themselves -- so a Gson never gets another builder's (possibly mutable) adapter.
+ *
+ * @author daniel
+ */
+final class ConfigFingerprint {
+
+	private final Object settings;
+	private final int hash;
+
+	ConfigFingerprint(List<Object> settings) {
+		this.settings = freeze(settings);
+		this.hash = this.settings.hashCode();
+	}
+
+	/**
+	 * @return a marker for {@link ConfigFingerprint#ConfigFingerprint(List)}: x matches only itself
+	 */
+	static Object byIdentity(Object x) {
+		return new ById(x);
+	}
+
+	private static final class ById {
+		final Object x;
+
+		ById(Object x) {
+			this.x = x;
+		}
+	}
+
+	private static Object freeze(Object x) {
+		if (x instanceof ById) {
+			return new Weak(((ById) x).x, true);
+		}
+		if (x == null || x instanceof String || x instanceof Number || x instanceof Boolean
+				|| x instanceof Character) {
+			return x;
+		}
+		// NB: an enum from a plugin's classloader would pin it, so only trust our own
+		if (x instanceof Enum && ((Enum) x).getDeclaringClass().getClassLoader() == ConfigFingerprint.class.getClassLoader()) {
+			return x;
+		}
+		if (x instanceof List) {
+			List<Object> list = new ArrayList<Object>();
+			for (Object e : (List<?>) x) {
+				list.add(freeze(e));
+			}
+			return Collections.unmodifiableList(list);
+		}
+		if (x instanceof Map) {
+			Map<Object, Object> map = new HashMap<Object, Object>();
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) x).entrySet()) {
+				map.put(freeze(e.getKey()), freeze(e.getValue()));
+			}
+			return Collections.unmodifiableMap(map);
+		}
+		return new Weak(x, false);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if ( ! (obj instanceof ConfigFingerprint)) return false;
+		ConfigFingerprint other = (ConfigFingerprint) obj;
+		return hash == other.hash && settings.equals(other.settings);
+	}
+
+	/**
+	 * @return false if anything it refers to has been garbage collected
+	 */
+	boolean isLive() {
+		return isLive(settings);
+	}
+
+	private static boolean isLive(Object x) {
+		if (x instanceof Weak) return ((Weak) x).get() != null;
+		if (x instanceof List) {
+			for (Object e : (List<?>) x) {
+				if ( ! isLive(e)) return false;
+			}
+		} else if (x instanceof Map) {
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) x).entrySet()) {
+				if ( ! isLive(e.getKey()) || ! isLive(e.getValue())) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A weak reference with the referent's equality -- as of when it was made -- or its identity.
+	 */
+	private static final class Weak extends WeakReference<Object> {
+		private final int hash;
+		private final boolean identity;
+
+		Weak(Object referent, boolean identity) {
+			super(referent);
+			this.identity = identity;
+			this.hash = identity? System.identityHashCode(referent) : referent.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if ( ! (obj instanceof Weak)) return false;
+			Weak other = (Weak) obj;
+			if (hash != other.hash || identity != other.identity) return false;
+			Object a = get();
+			Object b = other.get();
+			if (a == null || b == null) return false;
+			if (identity) return a == b;
+			if (a == b) return a.hashCode() == hash;
+			// both must still be in the state they were fingerprinted in
+			return a.hashCode() == hash && b.hashCode() == hash && a.equals(b);
+		}
+	}
+}
@@ -25,6 +25,8 @@ import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
 
+import com.winterwell.gson.internal.ISO8601;
+
 /**
  * This type adapter supports three subclasses of date: Date, Timestamp, and
  * java.sql.Date.
@@ -39,6 +41,8 @@ final class DefaultDateTypeAdapter implements JsonSerializer<Date>, JsonDeserial
   private final DateFormat enUsFormat;
   private final DateFormat localFormat;
   private final DateFormat iso8601Format;
+  /** DateFormat isn't thread safe -- so each thread gets its own copies, rather than locking */
+  private final ThreadLocal<DateFormat[]> formats;
 
   DefaultDateTypeAdapter() {
     this(DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US),
@@ -63,15 +67,15 @@ final class DefaultDateTypeAdapter implements JsonSerializer<Date>, JsonDeserial
     this.localFormat = localFormat;
     this.iso8601Format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
     this.iso8601Format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    this.formats = ThreadLocal.withInitial(() -> new DateFormat[] {
+        (DateFormat) enUsFormat.clone(), (DateFormat) localFormat.clone(), (DateFormat) iso8601Format.clone()});
   }
 
-  // These methods need to be synchronized since JDK DateFormat classes are not thread-safe
+  // JDK DateFormat classes are not thread-safe, hence the per-thread copies
   // See issue 162
   public JsonElement serialize(Date src, Type typeOfSrc, JsonSerializationContext context) {
-    synchronized (localFormat) {
-      String dateFormatAsString = enUsFormat.format(src);
-      return new JsonPrimitive(dateFormatAsString);
-    }
+    String dateFormatAsString = formats.get()[0].format(src);
+    return new JsonPrimitive(dateFormatAsString);
   }
 
   public Date deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
@@ -92,20 +96,25 @@ final class DefaultDateTypeAdapter implements JsonSerializer<Date>, JsonDeserial
   }
 
   private Date deserializeToDate(JsonElement json) {
-    synchronized (localFormat) {
-      try {
-        return localFormat.parse(json.getAsString());
-      } catch (ParseException ignored) {
-      }
-      try {
-        return enUsFormat.parse(json.getAsString());
-      } catch (ParseException ignored) {
-      }
-      try {
-        return iso8601Format.parse(json.getAsString());
-      } catch (ParseException e) {
-        throw new JsonSyntaxException(json.getAsString(), e);
-      }
+    String s = json.getAsString();
+    DateFormat[] fs = formats.get();
+    // the user's format (if set) takes precedence
+    try {
+      return fs[1].parse(s);
+    } catch (ParseException ignored) {
+    }
+    long ut = ISO8601.parseMillis(s);
+    if (ut != ISO8601.NOT_HANDLED) {
+      return new Date(ut);
+    }
+    try {
+      return fs[0].parse(s);
+    } catch (ParseException ignored) {
+    }
+    try {
+      return fs[2].parse(s);
+    } catch (ParseException e) {
+      throw new JsonSyntaxException(s, e);
     }
   }
 
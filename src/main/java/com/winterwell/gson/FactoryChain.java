@@ -0,0 +1,158 @@
+package com.winterwell.gson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.winterwell.gson.Gson.FutureTypeAdapter;
+import com.winterwell.gson.reflect.TypeToken;
+
+/**
+ * An immutable snapshot of a Gson's factories, together with the adapters made from them.
+ * <p>
+ * Late registration (see {@link Gson#registerTypeAdapter(java.lang.reflect.Type, Object)}) 
+ * swaps in a whole new chain, with a new generation and an empty cache. So readers never lock, 
+ * and never see a half-edited list. Adapters made under an older generation -- including ones
+ * which captured the old adapter for a field -- are dropped along with their chain. 
+ */
+final class FactoryChain {
+
+	final List<TypeAdapterFactory> factories;
+
+	/**
+	 * The Gson which builds the adapters in this chain (and which they reference). 
+	 * Other Gsons can share the chain, in which case they hand cache-misses to the owner. 
+	 */
+	final Gson owner;
+
+	/**
+	 * Increments with each late edit.
+	 */
+	final int generation;
+
+	/**
+	 * Lock-free: cache hits never block. 
+	 */
+	final AdapterCache cache;
+
+	/**
+	 * Adapters which some thread is currently creating. Other threads wait for (or proxy to) 
+	 * these rather than duplicating the work.
+	 */
+	final ConcurrentMap<TypeToken<?>, FutureTypeAdapter<?>> pending = new ConcurrentHashMap<TypeToken<?>, FutureTypeAdapter<?>>();
+
+	/**
+	 * raw class -&gt; positions (ascending) of the {@link KeyedTypeAdapterFactory}s which list it.
+	 */
+	private final Map<Class<?>, int[]> exactIndex;
+
+	/**
+	 * Positions (ascending) of the factories which are not keyed by an exact class: 
+	 * generic factories, and hierarchy factories.
+	 */
+	private final int[] fallback;
+
+	/**
+	 * Parallel to {@link #factories}: the hierarchy class of a fallback factory, or null if 
+	 * it is generic (might match anything).
+	 */
+	private final Class<?>[] hierarchyOf;
+
+	FactoryChain(Gson owner, List<TypeAdapterFactory> factories, int generation, AdapterCachePolicy cachePolicy) {
+		this.owner = owner;
+		this.cache = new AdapterCache(cachePolicy);
+		this.factories = Collections.unmodifiableList(new ArrayList<TypeAdapterFactory>(factories));
+		this.generation = generation;
+		// build the index
+		int n = this.factories.size();
+		hierarchyOf = new Class<?>[n];
+		Map<Class<?>, List<Integer>> exact = new HashMap<Class<?>, List<Integer>>();
+		List<Integer> other = new ArrayList<Integer>();
+		for (int i = 0; i < n; i++) {
+			TypeAdapterFactory f = this.factories.get(i);
+			if ( ! (f instanceof KeyedTypeAdapterFactory)) {
+				other.add(i);
+				continue;
+			}
+			KeyedTypeAdapterFactory kf = (KeyedTypeAdapterFactory) f;
+			for (Class<?> raw : kf.getRawTypes()) {
+				List<Integer> is = exact.get(raw);
+				if (is == null) {
+					is = new ArrayList<Integer>(2);
+					exact.put(raw, is);
+				}
+				// a factory might list the same class twice (e.g. newFactory(int.class, int.class, ..))
+				if (is.isEmpty() || is.get(is.size() - 1) != i) is.add(i);
+			}
+			Class<?> h = kf.getHierarchyType();
+			if (h != null) {
+				hierarchyOf[i] = h;
+				other.add(i);
+			}
+		}
+		exactIndex = new HashMap<Class<?>, int[]>(exact.size() * 2);
+		for (Map.Entry<Class<?>, List<Integer>> e : exact.entrySet()) {
+			exactIndex.put(e.getKey(), toArray(e.getValue()));
+		}
+		fallback = toArray(other);
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		int[] arr = new int[list.size()];
+		for (int i = 0; i < arr.length; i++) arr[i] = list.get(i);
+		return arr;
+	}
+
+	/**
+	 * @param rawType
+	 * @return The factories which might match rawType, in chain order -- so precedence is 
+	 * exactly as if every factory was tried. Gives a fresh list: the caller can keep it.
+	 */
+	List<TypeAdapterFactory> candidates(Class<?> rawType) {
+		int[] exact = exactIndex.get(rawType);
+		if (exact == null) exact = EMPTY;
+		List<TypeAdapterFactory> list = new ArrayList<TypeAdapterFactory>(exact.length + fallback.length);
+		// merge the two ascending position lists
+		int i = 0, j = 0;
+		while (i < exact.length || j < fallback.length) {
+			int pos;
+			if (j == fallback.length || (i < exact.length && exact[i] < fallback[j])) {
+				pos = exact[i++];
+			} else {
+				pos = fallback[j++];
+				// a factory can be keyed both ways -- don't list it twice
+				if (i < exact.length && exact[i] == pos) i++;
+				else {
+					Class<?> h = hierarchyOf[pos];
+					if (h != null && ! h.isAssignableFrom(rawType)) continue;
+				}
+			}
+			list.add(factories.get(pos));
+		}
+		return list;
+	}
+
+	private static final int[] EMPTY = new int[0];
+
+	/**
+	 * @param newOwner The Gson which is editing the chain. 
+	 * @param first These go at the front of the chain, in the order given. 
+	 * @return a new chain. This chain is not modified.
+	 */
+	FactoryChain withFirst(Gson newOwner, TypeAdapterFactory... first) {
+		List<TypeAdapterFactory> list = new ArrayList<TypeAdapterFactory>(factories.size() + first.length);
+		list.addAll(Arrays.asList(first));
+		list.addAll(factories);
+		return new FactoryChain(newOwner, list, generation + 1, cache.getPolicy());
+	}
+
+	@Override
+	public String toString() {
+		return "FactoryChain[gen:" + generation + " " + factories + "]";
+	}
+}
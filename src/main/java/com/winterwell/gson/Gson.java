@@ -16,6 +16,7 @@
 
 package com.winterwell.gson;
 
+import java.io.BufferedReader;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.Reader;
@@ -24,17 +25,24 @@ import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
 import com.winterwell.gson.internal.$Gson$Preconditions;
 import com.winterwell.gson.internal.ConstructorConstructor;
@@ -45,6 +53,8 @@ import com.winterwell.gson.internal.bind.ArrayTypeAdapter;
 import com.winterwell.gson.internal.bind.CollectionTypeAdapterFactory;
 import com.winterwell.gson.internal.bind.DateTypeAdapter;
 import com.winterwell.gson.internal.bind.EnumMapTypeAdapter;
+import com.winterwell.gson.internal.bind.IReflectiveTypeAdapter;
+import com.winterwell.gson.internal.bind.JavaTimeTypeAdapters;
 import com.winterwell.gson.internal.bind.JsonAdapterAnnotationTypeAdapterFactory;
 import com.winterwell.gson.internal.bind.JsonTreeReader;
 import com.winterwell.gson.internal.bind.JsonTreeWriter;
@@ -52,16 +62,18 @@ import com.winterwell.gson.internal.bind.LBRow;
 import com.winterwell.gson.internal.bind.LateBinding;
 import com.winterwell.gson.internal.bind.MapTypeAdapterFactory;
 import com.winterwell.gson.internal.bind.ObjectTypeAdapter;
+import com.winterwell.gson.internal.bind.PrimitiveArrayTypeAdapters;
 import com.winterwell.gson.internal.bind.ReflectiveTypeAdapterFactory;
 import com.winterwell.gson.internal.bind.SqlDateTypeAdapter;
 import com.winterwell.gson.internal.bind.TimeTypeAdapter;
+import com.winterwell.gson.internal.bind.TokenBuffer;
+import com.winterwell.gson.internal.bind.TokenBufferWriter;
 import com.winterwell.gson.internal.bind.TypeAdapters;
 import com.winterwell.gson.reflect.TypeToken;
 import com.winterwell.gson.stream.JsonReader;
 import com.winterwell.gson.stream.JsonToken;
 import com.winterwell.gson.stream.JsonWriter;
 import com.winterwell.gson.stream.MalformedJsonException;
-import com.winterwell.utils.io.FileUtils;
 import com.winterwell.utils.log.KErrorPolicy;
 import com.winterwell.utils.web.ISerializeJson;
 
@@ -132,14 +144,16 @@ public class Gson implements ISerializeJson {
 	 * @return a "json object" copy of src
 	 */
 	public Map toJsonObject(Object src) {
-		String json = toJson(src);
+		if (src == null) return null;
 		// Don't use a flexi-gson convertor! Because we don't want to interpret class info.
-		return Gson.fromJSON(json);
+		return convert2(SAFE_GSON, src, src.getClass(), Map.class);
 	}
 
 	
 	/**
 	 * Allows for LATE setting of an adapter. 
+	 * This is thread-safe: the factory chain is copied, and the new chain swapped in 
+	 * (which also drops all the cached adapters, as they may depend on type).
 	 * @deprecated You should use {@link GsonBuilder#registerTypeAdapter(Type, Object)} instead. 
 	 * @param type
 	 * @param typeAdapter
@@ -154,16 +168,38 @@ public class Gson implements ISerializeJson {
 //		      instanceCreators.put(type, (InstanceCreator) typeAdapter);
 //		    }
 		    TypeToken<?> typeToken = TypeToken.get(type);
+		    List<TypeAdapterFactory> first = new ArrayList<TypeAdapterFactory>(2);
+		    // NB: the old code did add(0) for each, so the TypeAdapter one comes first
+		    if (typeAdapter instanceof TypeAdapter<?>) {
+		      first.add(TypeAdapters.newFactory(typeToken, (TypeAdapter)typeAdapter));
+		    }
 		    if (typeAdapter instanceof JsonSerializer<?> || typeAdapter instanceof JsonDeserializer<?>) {		      
-		      factories.add(0,TreeTypeAdapter.newFactoryWithMatchRawType(typeToken, typeAdapter));
+		      first.add(TreeTypeAdapter.newFactoryWithMatchRawType(typeToken, typeAdapter));
 		    }
-		    if (typeAdapter instanceof TypeAdapter<?>) {
-		      factories.add(0,TypeAdapters.newFactory(typeToken, (TypeAdapter)typeAdapter));
+		    if ( ! first.isEmpty()) {
+		    	addFactoriesFirst(first.toArray(new TypeAdapterFactory[0]));
 		    }
-		    typeTokenCache.remove(typeToken);
 		    return this;
 		  }
 	 
+	/**
+	 * If the chain is shared (see GsonBuilder#create()), switch to an unshared copy -- whose adapters
+	 * will reference this Gson (e.g. for its {@link #classForClass}), not the prototype.
+	 */
+	private synchronized void unshareChain() {
+		if (chain.owner != this) {
+			chain = chain.withFirst(this);
+		}
+	}
+
+	/**
+	 * Copy-on-write edit of the factory chain. Writers synchronise; readers do not.
+	 */
+	private synchronized void addFactoriesFirst(TypeAdapterFactory... first) {
+		// NB: if the chain was shared (see GsonBuilder#create()), this Gson now has its own.
+		chain = chain.withFirst(this, first);
+	}
+
 	/**
 	 * What version is this? And what version was it branched from?
 	 * The format is W(Winterwell version)_G(original Google version).
@@ -184,12 +220,13 @@ public class Gson implements ISerializeJson {
 	 * lookup would stack overflow. We cheat by returning a proxy type adapter.
 	 * The proxy is wired up once the initial adapter has been created.
 	 */
-	private final ThreadLocal<Map<TypeToken<?>, FutureTypeAdapter<?>>> calls = new ThreadLocal<Map<TypeToken<?>, FutureTypeAdapter<?>>>();
-
-	private final Map<TypeToken<?>, TypeAdapter<?>> typeTokenCache = Collections
-			.synchronizedMap(new HashMap<TypeToken<?>, TypeAdapter<?>>());
+	private final ThreadLocal<Map<TypeToken<?>, FutureTypeAdapter<?>>> calls = ThreadLocal
+			.withInitial(HashMap::new);
 
-	private final List<TypeAdapterFactory> factories;
+	/**
+	 * The factories and the adapter cache. Immutable list, swapped (never edited) on late registration.
+	 */
+	volatile FactoryChain chain;
 	private final ConstructorConstructor constructorConstructor;
 
 	private final boolean serializeNulls;
@@ -216,8 +253,28 @@ public class Gson implements ISerializeJson {
 
 	/**
 	 * See GsonBuilder.setClassMapping()
+	 * Each Gson has its own copy. Thread-safe. Edits take effect immediately -- 
+	 * NB: editing a Gson which shares an adapter cache (see {@link GsonBuilder#create()}) 
+	 * moves it onto its own cache, so the edit does not affect the other Gsons.
+	 */
+	public final Map<String,Class> classForClass;
+
+	/**
+	 * Caches class-property lookups. The cache is shared by Gsons which share an adapter cache 
+	 * (it checks {@link #classForClass} on each lookup, so per-Gson edits are safe).
+	 */
+	private final ClassResolver classResolver;
+
+	/**
+	 * See GsonBuilder.registerTypeId(). Read-only.
 	 */
-	public final Map<String,Class> classForClass = new HashMap();
+	private final Map<Class<?>, String> typeIdForClass;
+
+	private final boolean classPropertyOnlyForSubtypes;
+
+	private final boolean compactUntypedReads;
+
+	private final boolean lazyJsonElements;
 
 	/**
 	 * How do we handle circular references? never null. HACK Should not be
@@ -232,7 +289,7 @@ public class Gson implements ISerializeJson {
 	 */
 	private KErrorPolicy classErrorPolicy = KErrorPolicy.THROW_EXCEPTION;
 
-	private List<Function<String, String>> preprocessors;
+	private List<StreamPreprocessor> preprocessors;
 
 
 	/**
@@ -251,6 +308,36 @@ public class Gson implements ISerializeJson {
 		return classProperty;
 	}
 
+	/**
+	 * @param klass
+	 * @return The short id to write as the class-property value, or null to use the class name. 
+	 * @see GsonBuilder#registerTypeId(Class, String)
+	 */
+	public String getTypeId(Class<?> klass) {
+		return typeIdForClass.get(klass);
+	}
+
+	/**
+	 * @see GsonBuilder#setClassPropertyOnlyForSubtypes(boolean)
+	 */
+	public boolean isClassPropertyOnlyForSubtypes() {
+		return classPropertyOnlyForSubtypes;
+	}
+
+	/**
+	 * @see GsonBuilder#setCompactUntypedReads(boolean)
+	 */
+	public boolean isCompactUntypedReads() {
+		return compactUntypedReads;
+	}
+
+	/**
+	 * @see GsonBuilder#setLazyJsonElements(boolean)
+	 */
+	public boolean isLazyJsonElements() {
+		return lazyJsonElements;
+	}
+
 	/**
 	 * Constructs a Gson object with default configuration. The default
 	 * configuration has the following settings:
@@ -306,7 +393,13 @@ public class Gson implements ISerializeJson {
 				false,
 				Collections.<TypeAdapterFactory> emptyList(), 
 				Collections.EMPTY_MAP, 
-				null
+				null,
+				AdapterCachePolicy.UNBOUNDED,
+				null,
+				null,
+				false,
+				false,
+				false
 				);
 	}
 
@@ -316,6 +409,9 @@ public class Gson implements ISerializeJson {
 	 * @param classForClass 
 	 * @param preprocessors 
 	 * @param loopChecking
+	 * @param cachePolicy 
+	 * @param classAllowlist null for allow-all
+	 * @param typeIdForClass Can be null. The reverse mappings must be in classForClass.
 	 */
 	Gson(final Excluder excluder, final FieldNamingStrategy fieldNamingPolicy,
 			final Map<Type, InstanceCreator<?>> instanceCreators,
@@ -327,16 +423,24 @@ public class Gson implements ISerializeJson {
 			String classProperty, KLoopPolicy loopPolicy,
 			boolean lenientReader,
 			List<TypeAdapterFactory> typeAdapterFactories, Map<String, Class> classForClass, 
-			List<Function<String, String>> preprocessors)
+			List<StreamPreprocessor> preprocessors, AdapterCachePolicy cachePolicy,
+			List<String> classAllowlist, Map<Class<?>, String> typeIdForClass,
+			boolean classPropertyOnlyForSubtypes, boolean compactUntypedReads,
+			boolean lazyJsonElements)
     {
 		this.constructorConstructor = new ConstructorConstructor(
 				instanceCreators, classProperty);
+		this.classForClass = new ClassMapping(classForClass);
 		this.serializeNulls = serializeNulls;
 		this.generateNonExecutableJson = generateNonExecutableGson;
 		this.htmlSafe = htmlSafe;
 		this.prettyPrinting = prettyPrinting;
 		this.classProperty = classProperty;
-		if (classForClass!=null) this.classForClass.putAll(classForClass);
+		this.classResolver = new ClassResolver(this.classForClass, classAllowlist, cachePolicy);
+		this.typeIdForClass = typeIdForClass==null? Collections.<Class<?>, String>emptyMap() : Collections.unmodifiableMap(new HashMap<Class<?>, String>(typeIdForClass));
+		this.classPropertyOnlyForSubtypes = classPropertyOnlyForSubtypes;
+		this.compactUntypedReads = compactUntypedReads;
+		this.lazyJsonElements = lazyJsonElements;
 		this.loopPolicy = loopPolicy == null ? KLoopPolicy.NO_CHECKS
 				: loopPolicy;
 		this.lenientReader = lenientReader;
@@ -345,7 +449,8 @@ public class Gson implements ISerializeJson {
 		List<TypeAdapterFactory> factories = new ArrayList<TypeAdapterFactory>();
 
 		// built-in type adapters that cannot be overridden
-		factories.add(TypeAdapters.JSON_ELEMENT_FACTORY);
+		factories.add(TypeAdapters.RAW_JSON_FACTORY);
+		factories.add(lazyJsonElements? TypeAdapters.JSON_ELEMENT_LAZY_FACTORY : TypeAdapters.JSON_ELEMENT_FACTORY);
 
 		// (Winterwell ^DBW) This map-making default factory kicks in a bit too often.
 		// Switch it off in favour of ReflectiveTypeAdapterFactory if we're using @class properties
@@ -390,12 +495,14 @@ public class Gson implements ISerializeJson {
 		factories.add(TimeTypeAdapter.FACTORY);
 		factories.add(SqlDateTypeAdapter.FACTORY);
 		factories.add(TypeAdapters.TIMESTAMP_FACTORY);
+		factories.add(JavaTimeTypeAdapters.FACTORY);
+		factories.add(PrimitiveArrayTypeAdapters.factory(serializeSpecialFloatingPointValues, false, false));
 		factories.add(ArrayTypeAdapter.FACTORY);
 		factories.add(TypeAdapters.ENUM_FACTORY);
         // (Winterwell ^DBW)
         if (classProperty!=null) {
             // special support for EnumMap only makes sense if we can also store the class info
-            factories.add(TypeAdapters.newFactory(EnumMap.class, new EnumMapTypeAdapter(this)));
+            factories.add(EnumMapTypeAdapter.FACTORY);
         }
 		factories.add(TypeAdapters.CLASS_FACTORY);
 
@@ -415,11 +522,37 @@ public class Gson implements ISerializeJson {
 		factories.add(new ReflectiveTypeAdapterFactory(constructorConstructor,
 				fieldNamingPolicy, excluder, classProperty));
 
-		this.factories = 
-				// allow for late editing :(
-//				Collections.unmodifiableList(
-						factories;
-//						);
+		// NB: late editing is via copy-on-write, see registerTypeAdapter()
+		this.chain = new FactoryChain(this, factories, 0, cachePolicy);
+	}
+
+	/**
+	 * A Gson which shares the prototype's settings, factory chain and adapter cache.
+	 * See GsonBuilder#create()
+	 * @param prototype This should not be handed out (so its chain is never edited). 
+	 * @param loopPolicy
+	 */
+	Gson(Gson prototype, KLoopPolicy loopPolicy) {
+		this.constructorConstructor = prototype.constructorConstructor;
+		this.serializeNulls = prototype.serializeNulls;
+		this.generateNonExecutableJson = prototype.generateNonExecutableJson;
+		this.htmlSafe = prototype.htmlSafe;
+		this.prettyPrinting = prototype.prettyPrinting;
+		this.classProperty = prototype.classProperty;
+		// copy-on-create, so edits to one Gson's mapping don't leak into the others
+		ClassMapping mapping = new ClassMapping(prototype.classForClass);
+		mapping.setOnEdit(this::unshareChain);
+		this.classForClass = mapping;
+		this.classResolver = new ClassResolver(prototype.classResolver, mapping);
+		this.typeIdForClass = prototype.typeIdForClass;
+		this.classPropertyOnlyForSubtypes = prototype.classPropertyOnlyForSubtypes;
+		this.compactUntypedReads = prototype.compactUntypedReads;
+		this.lazyJsonElements = prototype.lazyJsonElements;
+		Gson.loopPolicy = loopPolicy == null ? KLoopPolicy.NO_CHECKS
+				: loopPolicy;
+		this.lenientReader = prototype.lenientReader;
+		this.preprocessors = prototype.preprocessors;
+		this.chain = prototype.chain;
 	}
 
 	private TypeAdapter<Double> doubleAdapter(
@@ -514,19 +647,24 @@ public class Gson implements ISerializeJson {
 	 */
 	@SuppressWarnings("unchecked")
 	public <T> TypeAdapter<T> getAdapter(TypeToken<T> type) {
-		TypeAdapter<?> cached = typeTokenCache.get(type);
+		// one snapshot for the whole call
+		FactoryChain chain = this.chain;
+		TypeAdapter<?> cached = chain.cache.get(type);
 		if (cached != null) {
 			return (TypeAdapter<T>) cached;
 		}
+		// NB: for a shared chain, the owner makes the adapters
+		return chain.owner.getAdapter2(type, chain);
+	}
 
-		Map<TypeToken<?>, FutureTypeAdapter<?>> threadCalls = calls.get();
-		boolean requiresThreadLocalCleanup = false;
-		if (threadCalls == null) {
-			threadCalls = new HashMap<TypeToken<?>, FutureTypeAdapter<?>>();
-			calls.set(threadCalls);
-			requiresThreadLocalCleanup = true;
-		}
+	/**
+	 * The cache-miss path of {@link #getAdapter(TypeToken)}
+	 * @param chain this.chain (this is the chain's owner)
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> TypeAdapter<T> getAdapter2(TypeToken<T> type, FactoryChain chain) {
 
+		Map<TypeToken<?>, FutureTypeAdapter<?>> threadCalls = calls.get();
 		// the key and value type parameters always agree
 		FutureTypeAdapter<T> ongoingCall = (FutureTypeAdapter<T>) threadCalls
 				.get(type);
@@ -534,25 +672,50 @@ public class Gson implements ISerializeJson {
 			return ongoingCall;
 		}
 
-		try {
-			FutureTypeAdapter<T> call = new FutureTypeAdapter<T>();
-			threadCalls.put(type, call);
+		// Is another thread already making this adapter?
+		boolean topLevel = threadCalls.isEmpty();
+		FutureTypeAdapter<T> call = new FutureTypeAdapter<T>(this, type);
+		FutureTypeAdapter<T> rival = (FutureTypeAdapter<T>) chain.pending
+				.putIfAbsent(type, call);
+		if (rival != null) {
+			if ( ! topLevel) {
+				// We're part-way through building some other adapter, so waiting could deadlock 
+				// (e.g. thread 1 builds A which needs B, whilst thread 2 builds B which needs A).
+				// Return the proxy -- it is wired up when the other thread finishes.
+				return rival;
+			}
+			TypeAdapter<T> done = rival.await();
+			// null => the other thread failed -- try for ourselves (which will probably fail too)
+			return done != null ? done : getAdapter(type);
+		}
 
-			for (TypeAdapterFactory factory : factories) {
+		threadCalls.put(type, call);
+		try {
+			// did another thread finish this between our cache check and putIfAbsent?
+			TypeAdapter<?> cached = chain.cache.peek(type);
+			if (cached != null) {
+				call.setDelegate((TypeAdapter<T>) cached);
+				return (TypeAdapter<T>) cached;
+			}
+			// only try the factories which could match (same order as the full chain)
+			for (TypeAdapterFactory factory : chain.candidates(type.getRawType())) {
 				TypeAdapter<T> candidate = factory.create(this, type);
 				if (candidate != null) {
+					// NB: if the chain was swapped meanwhile, this goes into the old (discarded) cache
+					chain.cache.put(type, candidate);
 					call.setDelegate(candidate);
-					typeTokenCache.put(type, candidate);
 					return candidate;
 				}
 			}
 			throw new IllegalArgumentException("GSON cannot handle " + type);
+		} catch (RuntimeException | Error ex) {
+			// remove before failing, so anyone released by fail() can retry afresh
+			chain.pending.remove(type, call);
+			call.fail();
+			throw ex;
 		} finally {
 			threadCalls.remove(type);
-
-			if (requiresThreadLocalCleanup) {
-				calls.remove();
-			}
+			chain.pending.remove(type, call);
 		}
 	}
 
@@ -625,7 +788,7 @@ public class Gson implements ISerializeJson {
 			TypeToken<T> type) {
 		boolean skipPastFound = false;
 
-		for (TypeAdapterFactory factory : factories) {
+		for (TypeAdapterFactory factory : chain.factories) {
 			if (!skipPastFound) {
 				if (factory == skipPast) {
 					skipPastFound = true;
@@ -888,7 +1051,7 @@ public class Gson implements ISerializeJson {
 	 * Returns a new JSON writer configured for this GSON and with the
 	 * non-execute prefix if that is configured.
 	 */
-	private JsonWriter newJsonWriter(Writer writer) throws IOException {
+	JsonWriter newJsonWriter(Writer writer) throws IOException {
 		if (generateNonExecutableJson) {
 			writer.write(JSON_NON_EXECUTABLE_PREFIX);
 		}
@@ -900,6 +1063,124 @@ public class Gson implements ISerializeJson {
 		return jsonWriter;
 	}
 
+	/**
+	 * Like {@link #newJsonWriter(Writer)}, but also with the settings that 
+	 * {@link #toJson(Object, Type, JsonWriter)} would apply -- so no save/restore is needed.
+	 */
+	JsonWriter newJsonWriterForToJson(Writer writer) throws IOException {
+		JsonWriter jsonWriter = newJsonWriter(writer);
+		jsonWriter.setLenient(true);
+		jsonWriter.setHtmlSafe(htmlSafe);
+		return jsonWriter;
+	}
+
+	/**
+	 * A prebound writer for type -- the adapter and writer settings are resolved once, which saves 
+	 * per-call overhead for hot types.
+	 * 
+	 * @param type Objects of exactly this class use the prebound adapter. Sub-classes are handled as 
+	 * by {@link #toJson(Object)}.
+	 * @return an immutable thread-safe writer
+	 */
+	public <T> TypedWriter<T> writerFor(Class<T> type) {
+		return new TypedWriter<T>(this, type, type);
+	}
+
+	/**
+	 * A prebound writer for type -- the adapter and writer settings are resolved once. 
+	 * Output is as for {@link #toJson(Object, Type)}.
+	 * @return an immutable thread-safe writer
+	 */
+	public <T> TypedWriter<T> writerFor(Type type) {
+		return new TypedWriter<T>(this, type, null);
+	}
+
+	/**
+	 * A prebound reader for type -- the adapter is resolved once.
+	 * @return an immutable thread-safe reader
+	 */
+	public <T> TypedReader<T> readerFor(Class<T> type) {
+		return new TypedReader<T>(this, type);
+	}
+
+	/**
+	 * A prebound reader for type -- the adapter is resolved once.
+	 * Input is as for {@link #fromJson(Reader, Type)}.
+	 * @return an immutable thread-safe reader
+	 */
+	public <T> TypedReader<T> readerFor(Type type) {
+		return new TypedReader<T>(this, type);
+	}
+
+	/**
+	 * @return hit/miss/eviction counts for the adapter cache. See {@link GsonBuilder#setAdapterCachePolicy(AdapterCachePolicy)}
+	 */
+	public AdapterCacheStats getAdapterCacheStats() {
+		return chain.cache.getStats();
+	}
+
+	/**
+	 * Resolve adapters now, rather than on first use -- e.g. before a server takes traffic.
+	 * This recurses into field, element and type-argument types. It cannot guess at subclasses
+	 * which only turn up via the class property, so list those too.
+	 * @param types
+	 * @return what got warmed, and what failed or will use Unsafe construction. Failures are reported, not thrown.
+	 */
+	public WarmUpReport warmUp(Collection<? extends Type> types) {
+		return warmUp(types, false);
+	}
+
+	/**
+	 * As {@link #warmUp(Collection)}
+	 * @param parallel If true, walk from the root types in parallel (using the common fork-join pool).
+	 */
+	public WarmUpReport warmUp(Collection<? extends Type> types, boolean parallel) {
+		WarmUpReport report = new WarmUpReport();
+		Set<Type> seen = ConcurrentHashMap.newKeySet();
+		(parallel? types.parallelStream() : types.stream()).forEach(t -> warmUp2(t, seen, report));
+		return report;
+	}
+
+	private void warmUp2(Type root, Set<Type> seen, WarmUpReport report) {
+		ArrayDeque<Type> todo = new ArrayDeque<Type>();
+		todo.add(root);
+		while ( ! todo.isEmpty()) {
+			Type type = todo.pop();
+			if (type instanceof WildcardType) {
+				todo.push(((WildcardType) type).getUpperBounds()[0]);
+				continue;
+			}
+			if (type instanceof TypeVariable || ! seen.add(type)) {
+				continue;
+			}
+			if (type instanceof ParameterizedType) {
+				todo.addAll(Arrays.asList(((ParameterizedType) type).getActualTypeArguments()));
+			} else if (type instanceof GenericArrayType) {
+				todo.add(((GenericArrayType) type).getGenericComponentType());
+			} else if (type instanceof Class && ((Class) type).isArray()) {
+				todo.add(((Class) type).getComponentType());
+			}
+			TypeAdapter<?> adapter;
+			try {
+				adapter = getAdapter(TypeToken.get(type));
+			} catch(Throwable ex) {
+				report.failed.put(type, ex);
+				continue;
+			}
+			report.warmed.add(type);
+			if (adapter instanceof IReflectiveTypeAdapter) {
+				IReflectiveTypeAdapter ra = (IReflectiveTypeAdapter) adapter;
+				report.reflective.add(type);
+				if (ra.getConstructor().isUnsafe()) {
+					report.unsafe.add(type);
+				}
+				for (TypeToken<?> ft : ra.getFieldTypes()) {
+					todo.add(ft.getType());
+				}
+			}
+		}
+	}
+
 	/**
 	 * Writes the JSON for {@code jsonElement} to {@code writer}.
 	 * 
@@ -1063,25 +1344,41 @@ public class Gson implements ISerializeJson {
 	 *             if json is not a valid representation for an object of type
 	 * @since 1.2
 	 */
-	@SuppressWarnings("unchecked")
 	public <T> T fromJson(Reader json, Type typeOfT) throws JsonIOException,
 			JsonSyntaxException {
+		return fromJson2(json, typeOfT, null);
+	}
+
+	/**
+	 * @param adapter Can be null, in which case it is looked up from typeOfT
+	 */
+	<T> T fromJson2(Reader json, Type typeOfT, TypeAdapter<T> adapter) throws JsonIOException,
+			JsonSyntaxException {
 		// preprocessor?
 		if (preprocessors!=null) {
-			// bleurgh - have to unstream
-			String sjson = FileUtils.read(json);
-			for(Function<String, String> preprocessor : preprocessors) {
-				sjson = preprocessor.apply(sjson);
+			// NB: string preprocessors unstream here
+			for(StreamPreprocessor preprocessor : preprocessors) {
+				json = preprocessor.wrap(json);
+			}
+			// look-ahead for the class property needs mark()
+			if ( ! json.markSupported()) {
+				json = new BufferedReader(json);
 			}
-			StringReader json2 = new StringReader(sjson);
-			json = json2;
 		}
 		JsonReader jsonReader = new JsonReader(json);
 		if (lenientReader) {
 			jsonReader.setLenient(true);
 		}
-		T object = (T) fromJson(jsonReader, typeOfT);
-		
+		T object = fromJson2(jsonReader, typeOfT, adapter);
+		resolveLateBindings(jsonReader);
+		assertFullConsumption(object, jsonReader);
+		return object;
+	}
+
+	/**
+	 * JSOG: fill in the references which pointed forward.
+	 */
+	private void resolveLateBindings(JsonReader jsonReader) {
 		try {
 			for(LBRow lbs : jsonReader.getLateBindings()) {
 				Object obj = lbs.obj;
@@ -1109,9 +1406,6 @@ public class Gson implements ISerializeJson {
 		} catch(Exception ex) {
 			throw new JsonSyntaxException("Bad JSOG id/ref: "+ex, ex);
 		}
-		
-		assertFullConsumption(object, jsonReader);
-		return object;
 	}
 
 	private static void assertFullConsumption(Object obj, JsonReader reader) {
@@ -1138,9 +1432,17 @@ public class Gson implements ISerializeJson {
 	 * @throws JsonSyntaxException
 	 *             if json is not a valid representation for an object of type
 	 */
-	@SuppressWarnings("unchecked")
 	public <T> T fromJson(JsonReader reader, Type typeOfT)
 			throws JsonIOException, JsonSyntaxException {
+		return fromJson2(reader, typeOfT, null);
+	}
+
+	/**
+	 * @param typeAdapter Can be null, in which case it is looked up from typeOfT
+	 */
+	@SuppressWarnings("unchecked")
+	<T> T fromJson2(JsonReader reader, Type typeOfT, TypeAdapter<T> typeAdapter)
+			throws JsonIOException, JsonSyntaxException {
 		boolean isEmpty = true;
 		boolean oldLenient = reader.isLenient();
 		reader.setLenient(true);
@@ -1152,8 +1454,10 @@ public class Gson implements ISerializeJson {
 				return null;
 			}
 			isEmpty = false;
-			TypeToken<T> typeToken = (TypeToken<T>) TypeToken.get(typeOfT);
-			TypeAdapter<T> typeAdapter = getAdapter(typeToken);
+			if (typeAdapter==null) {
+				TypeToken<T> typeToken = (TypeToken<T>) TypeToken.get(typeOfT);
+				typeAdapter = getAdapter(typeToken);
+			}
 			T object = typeAdapter.read(reader);
 			return object;
 		} catch (EOFException e) {
@@ -1246,30 +1550,83 @@ public class Gson implements ISerializeJson {
 		return (T) fromJson(new JsonTreeReader(json), typeOfT);
 	}
 
+	/**
+	 * A proxy for an adapter which is still being made -- by this thread (a recursive type) or
+	 * by another thread.
+	 */
 	static class FutureTypeAdapter<T> extends TypeAdapter<T> {
-		private TypeAdapter<T> delegate;
+		private volatile TypeAdapter<T> delegate;
+		private final Thread owner = Thread.currentThread();
+		private final CountDownLatch done = new CountDownLatch(1);
+		/**
+		 * true if the owner's creation failed -- then users of this proxy (e.g. a dependent adapter 
+		 * which got cached) retry via getAdapter().
+		 */
+		private volatile boolean failed;
+		private final Gson gson;
+		private final TypeToken<T> type;
+
+		FutureTypeAdapter(Gson gson, TypeToken<T> type) {
+			this.gson = gson;
+			this.type = type;
+		}
 
 		public void setDelegate(TypeAdapter<T> typeAdapter) {
 			if (delegate != null) {
 				throw new AssertionError();
 			}
 			delegate = typeAdapter;
+			done.countDown();
 		}
 
-		@Override
-		public T read(JsonReader in) throws IOException {
-			if (delegate == null) {
+		/**
+		 * Adapter creation failed. Release anyone waiting.
+		 */
+		void fail() {
+			failed = true;
+			done.countDown();
+		}
+
+		/**
+		 * Block until the owning thread has finished.
+		 * @return the adapter, or null if creation failed
+		 */
+		TypeAdapter<T> await() {
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new JsonIOException(e);
+			}
+			return delegate;
+		}
+
+		private TypeAdapter<T> delegate() {
+			TypeAdapter<T> d = delegate;
+			if (d != null) {
+				return d;
+			}
+			// The owner can't wait on itself
+			if ( ! failed && owner == Thread.currentThread()) {
 				throw new IllegalStateException();
 			}
-			return delegate.read(in);
+			d = await();
+			if (d == null) {
+				// creation failed -- try again (which throws if it fails again)
+				d = gson.getAdapter(type);
+				delegate = d;
+			}
+			return d;
+		}
+
+		@Override
+		public T read(JsonReader in) throws IOException {
+			return delegate().read(in);
 		}
 
 		@Override
 		public void write(JsonWriter out, T value) throws IOException {
-			if (delegate == null) {
-				throw new IllegalStateException();
-			}
-			delegate.write(out, value);
+			delegate().write(out, value);
 		}
 	}
 
@@ -1277,7 +1634,7 @@ public class Gson implements ISerializeJson {
 	public String toString() {
 		return new StringBuilder("{serializeNulls:").append(serializeNulls)
 				.append(",classProperty:").append(classProperty)
-				.append(",factories:").append(factories)
+				.append(",factories:").append(chain.factories)
 				.append(",instanceCreators:").append(constructorConstructor)
 				.append("}").toString();
 	}
@@ -1328,9 +1685,31 @@ public class Gson implements ISerializeJson {
 
 	@Override
 	public <X> X convert(Map mapFromJson, Class<X> klass) {
-		// inefficient, but should work
-		String json = toJson(mapFromJson);
-		X obj = fromJson(json, klass);
+		return convert2(this, mapFromJson, mapFromJson.getClass(), klass);
+	}
+
+	/**
+	 * A deep copy of obj, made by writing it out and reading it back -- via an in-memory token buffer, 
+	 * so no json text. So it copies exactly what json would (e.g. not transient fields).
+	 * @param obj Can be null
+	 * @return a copy
+	 */
+	public <T> T deepCopy(T obj) {
+		if (obj == null) return null;
+		return (T) convert2(this, obj, obj.getClass(), obj.getClass());
+	}
+
+	/**
+	 * Write src with this Gson, then read it back with reader -- piping adapter write() to read() 
+	 * through a {@link TokenBuffer}, rather than via a String. 
+	 * Preprocessors do not apply (there is no text).
+	 */
+	private <X> X convert2(Gson reader, Object src, Type srcType, Type typeOfT) {
+		TokenBufferWriter w = new TokenBufferWriter();
+		toJson(src, srcType, w);
+		JsonReader r = w.getBuffer().reader(null);
+		X obj = reader.fromJson2(r, typeOfT, null);
+		reader.resolveLateBindings(r);
 		return obj;
 	}
 
@@ -1376,16 +1755,23 @@ public class Gson implements ISerializeJson {
 	 * @return
 	 */
 	public Class getClass(String _class) {
-		// user defined type mapping?
-		// See GsonBuilder.setClassMapping() 
-		Class typeOfT = classForClass.get(_class);		
-		if (typeOfT!=null) return typeOfT;
-		try {
-			typeOfT = Class.forName(_class);
-			return typeOfT;
-		} catch (ClassNotFoundException e) {
-			return KErrorPolicy.process(classErrorPolicy, e);
-		}		
+		// user defined type mapping? (see GsonBuilder.setClassMapping()) or Class.forName() -- cached
+		ClassResolver.Resolved r = classResolver.resolve(_class);
+		if (r.type!=null) return r.type;
+		return KErrorPolicy.process(classErrorPolicy, r.error());
+	}
+
+	/**
+	 * As {@link #getAdapter(Class)} for {@link #getClass(String)}, but cached by name.
+	 * Can return null on error!
+	 * @param _class A class-property value
+	 */
+	public TypeAdapter<?> getAdapterForClassName(String _class) {
+		ClassResolver.Resolved r = classResolver.resolve(_class);
+		if (r.type==null) {
+			return KErrorPolicy.process(classErrorPolicy, r.error());
+		}
+		return classResolver.adapter(this, r);
 	}
 	
 	public static class OneJsonDeserializationContext implements JsonDeserializationContext {
@@ -16,23 +16,30 @@
 
 package com.winterwell.gson;
 
+import java.io.StringReader;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Type;
 import java.sql.Timestamp;
 import java.text.DateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
 
 import com.winterwell.gson.StandardAdapters.LenientLongAdapter;
 import com.winterwell.gson.internal.$Gson$Preconditions;
+import com.winterwell.gson.internal.CompactList;
+import com.winterwell.gson.internal.CompactMap;
 import com.winterwell.gson.internal.Excluder;
+import com.winterwell.gson.internal.bind.PrimitiveArrayTypeAdapters;
 import com.winterwell.gson.internal.bind.TypeAdapters;
 import com.winterwell.gson.reflect.TypeToken;
 import com.winterwell.gson.stream.JsonReader;
+import com.winterwell.utils.io.FileUtils;
 import com.winterwell.utils.time.Time;
 
 /**
@@ -92,7 +99,38 @@ public class GsonBuilder {
   private KLoopPolicy loopPolicy = KLoopPolicy.QUIET_NULL;
   private boolean lenientReader;
   private Map<String, Class> classForClass;
-private List<Function<String, String>> preprocessors;
+  /** String preprocessors are adapted to buffering StreamPreprocessors, to keep registration order */
+  private List<StreamPreprocessor> preprocessors;
+  /** What has been registered, in order -- part of the fingerprint for sharing adapter caches */
+  private final List<Object> registrations = new ArrayList<Object>();
+  private boolean shareAdapterCache = true;
+  private AdapterCachePolicy adapterCachePolicy = AdapterCachePolicy.UNBOUNDED;
+  /** null => allow all */
+  private List<String> classAllowlist;
+  private Map<Class<?>, String> typeIds;
+  private boolean classPropertyOnlyForSubtypes;
+  private boolean base64Bytes;
+  private boolean compactUntypedReads;
+  private boolean base64Numbers;
+  private boolean lazyJsonElements;
+
+  /**
+   * Prototype Gsons, keyed by config fingerprint. The prototypes are never handed out, so their 
+   * factory chains can't be edited. A small LRU, as configs with one-off adapter objects (which only 
+   * have identity equality) will never match.
+   * <p>
+   * Nothing here is strongly held: the fingerprints only weakly reference classes and adapters, and 
+   * a prototype is kept alive by the Gsons sharing its chain (see FactoryChain#owner) -- so this never 
+   * pins a classloader.
+   */
+  private static final Map<ConfigFingerprint, WeakReference<Gson>> prototypes = Collections.synchronizedMap(
+		  new LinkedHashMap<ConfigFingerprint, WeakReference<Gson>>(16, 0.75f, true) {
+			  private static final long serialVersionUID = 1L;
+			  @Override
+			  protected boolean removeEldestEntry(Map.Entry<ConfigFingerprint, WeakReference<Gson>> eldest) {
+				  return size() > 32;
+			  }
+		  });
 
   /**
    * Creates a GsonBuilder instance that can be used to build Gson with various configuration
@@ -106,14 +144,29 @@ private List<Function<String, String>> preprocessors;
   /**
    * DW edit: allow pre-processing of the input.
    *  
-   * Efficiency note: Setting this will mean you can't stream the reader
+   * Efficiency note: Setting this will mean you can't stream the reader. 
+   * See {@link #registerStreamPreprocessor(StreamPreprocessor)}
    */
   public GsonBuilder registerStringPreprocessor(java.util.function.Function<String, String> _preprocessor) {
-	  if (preprocessors==null) preprocessors = new ArrayList();
-	  if (preprocessors.contains(_preprocessor)) {
-		  throw new IllegalStateException("Duplicate register of preprocessor "+_preprocessor);
+	  return registerPreprocessor2(_preprocessor, 
+			  in -> new StringReader(_preprocessor.apply(FileUtils.read(in))));
+  }
+
+  /**
+   * Pre-process the input as it is read. Preprocessors run in registration order 
+   * (mixed in with string preprocessors).
+   */
+  public GsonBuilder registerStreamPreprocessor(StreamPreprocessor _preprocessor) {
+	  return registerPreprocessor2(_preprocessor, _preprocessor);
+  }
+
+  private GsonBuilder registerPreprocessor2(Object registered, StreamPreprocessor sp) {
+	  if (registrations.contains(registered)) {
+		  throw new IllegalStateException("Duplicate register of preprocessor "+registered);
 	  }
-	  this.preprocessors.add(_preprocessor);
+	  if (preprocessors==null) preprocessors = new ArrayList();
+	  preprocessors.add(sp);
+	  registrations.add(registered);
 	  return this;
   }
 
@@ -483,6 +536,7 @@ private List<Function<String, String>> preprocessors;
     if (typeAdapter instanceof TypeAdapter<?>) {
       factories.add(TypeAdapters.newFactory(TypeToken.get(type), (TypeAdapter)typeAdapter));
     }
+    registrations.add(Arrays.asList("type", type, typeAdapter));
     return this;
   }
 
@@ -496,6 +550,7 @@ private List<Function<String, String>> preprocessors;
    */
   public GsonBuilder registerTypeAdapterFactory(TypeAdapterFactory factory) {
     factories.add(factory);
+    registrations.add(factory);
     return this;
   }
 
@@ -525,6 +580,7 @@ private List<Function<String, String>> preprocessors;
     if (typeAdapter instanceof TypeAdapter<?>) {
       factories.add(TypeAdapters.newTypeHierarchyFactory(baseType, (TypeAdapter)typeAdapter));
     }
+    registrations.add(Arrays.asList("hierarchy", baseType, typeAdapter));
     return this;
   }
 
@@ -553,28 +609,134 @@ private List<Function<String, String>> preprocessors;
     return this;
   }
 
+  /**
+   * Write byte[] as a base64 string, instead of a json array of numbers (which is about 4x bigger).
+   * Reading accepts either form, whatever this setting.
+   * 
+   * @param numericArraysToo If true, int[], long[], float[] and double[] are also written as 
+   * base64 (of their big-endian bytes). Smaller and exact, but not human-readable.
+   */
+  public GsonBuilder setBase64Arrays(boolean numericArraysToo) {
+    this.base64Bytes = true;
+    this.base64Numbers = numericArraysToo;
+    return this;
+  }
+
+  /**
+   * Read JsonElement-typed fields (and JsonElement top-level values) lazily: objects and arrays
+   * are captured as text, and only parsed on access -- see {@link JsonParser#parseLazy(String)}.
+   * Untouched values are written back verbatim, which suits store-and-forward of opaque sections.
+   * <p>
+   * For a section that is never looked at, a {@link RawJson} field is cheaper still.
+   */
+  public GsonBuilder setLazyJsonElements(boolean lazy) {
+    this.lazyJsonElements = lazy;
+    return this;
+  }
+
   /**
    * Creates a {@link Gson} instance based on the current configuration. This method is free of
    * side-effects to this {@code GsonBuilder} instance and hence can be called multiple times.
+   * <p>
+   * Instances with equivalent settings share one adapter cache and factory chain (unless
+   * switched off by {@link #setShareAdapterCache(boolean)}), so short-lived Gsons are cheap. 
+   * Settings are equivalent if they are equal and the registered adapters, factories etc are 
+   * the same objects. 
    *
    * @return an instance of Gson configured with the options currently set in this builder
    */
   public Gson create() {
-	  // always add this RawJson serialisrer. Hack by DW
-	  registerTypeAdapter(RawJson.class, new RawJsonSerializer());
-	
+    if ( ! shareAdapterCache) {
+    	return create2();
+    }
+    ConfigFingerprint fingerprint = new ConfigFingerprint(getFingerprint());
+    WeakReference<Gson> ref = prototypes.get(fingerprint);
+    Gson prototype = ref == null? null : ref.get();
+    if (prototype == null) {
+    	prototype = create2();
+    	synchronized (prototypes) {
+    		// drop entries whose prototype or settings have been collected
+    		prototypes.entrySet().removeIf(e -> e.getValue().get() == null || ! e.getKey().isLive());
+    		prototypes.put(fingerprint, new WeakReference<Gson>(prototype));
+    	}
+    }
+    return new Gson(prototype, loopPolicy);
+  }
+
+  private Gson create2() {
     List<TypeAdapterFactory> factories = new ArrayList<TypeAdapterFactory>();
     factories.addAll(this.factories);
+	// always add this RawJson serialisrer. Hack by DW
+    // NB: added last, so after the reverse() it comes first
+    factories.add(TreeTypeAdapter.newFactoryWithMatchRawType(TypeToken.get(RawJson.class), new RawJsonSerializer()));
     Collections.reverse(factories);
     factories.addAll(this.hierarchyFactories);
     addTypeAdaptersForDate(datePattern, dateStyle, timeStyle, factories);
+    if (base64Bytes || base64Numbers) {
+      factories.add(PrimitiveArrayTypeAdapters.factory(serializeSpecialFloatingPointValues, base64Bytes, base64Numbers));
+    }
 
     return new Gson(excluder, fieldNamingPolicy, instanceCreators,
         serializeNulls, complexMapKeySerialization,
         generateNonExecutableJson, escapeHtmlChars, prettyPrinting,
         serializeSpecialFloatingPointValues, longSerializationPolicy, 
         classProperty, loopPolicy, lenientReader,
-        factories, classForClass, preprocessors);
+        factories, classForClass, preprocessors, adapterCachePolicy, classAllowlist, typeIds,
+        classPropertyOnlyForSubtypes, compactUntypedReads, lazyJsonElements);
+  }
+
+  /**
+   * @return All the settings. Equal fingerprints => equivalent Gsons.
+   * @see ConfigFingerprint which snapshots this
+   */
+  private List<Object> getFingerprint() {
+	return Arrays.asList(excluder, longSerializationPolicy, fieldNamingPolicy,
+		serializeNulls, datePattern, dateStyle, timeStyle, complexMapKeySerialization, 
+		serializeSpecialFloatingPointValues, escapeHtmlChars, prettyPrinting, generateNonExecutableJson,
+		classProperty, loopPolicy, lenientReader, adapterCachePolicy, classAllowlist, classPropertyOnlyForSubtypes,
+		base64Bytes, base64Numbers, compactUntypedReads, lazyJsonElements,
+		classForClass==null? Collections.emptyMap() : new HashMap<>(classForClass),
+		typeIds==null? Collections.emptyMap() : new HashMap<Class<?>, String>(typeIds),
+		getRegistrationsFingerprint());
+  }
+
+  /**
+   * @return registrations, with the user's objects (adapters, factories, preprocessors) to be compared 
+   * by identity -- they may be mutable, and must not leak into another builder's Gson.
+   */
+  private List<Object> getRegistrationsFingerprint() {
+	List<Object> fp = new ArrayList<Object>(registrations.size());
+	for (Object r : registrations) {
+		if (r instanceof List) {
+			// [kind, type, adapter]
+			List<?> kta = (List<?>) r;
+			fp.add(Arrays.asList(kta.get(0), kta.get(1), ConfigFingerprint.byIdentity(kta.get(2))));
+		} else {
+			fp.add(ConfigFingerprint.byIdentity(r));
+		}
+	}
+	return fp;
+  }
+
+  /**
+   * @param share true by default. If true, Gsons from equivalent builders share an adapter cache.
+   * Set false if you want a Gson that is fully independent from the start. 
+   * (A sharing Gson gets its own cache anyway once edited, e.g. by registerTypeAdapter() or a 
+   * {@link Gson#classForClass} edit.)
+   */
+  public GsonBuilder setShareAdapterCache(boolean share) {
+	  this.shareAdapterCache = share;
+	  return this;
+  }
+
+  /**
+   * @param policy Default: {@link AdapterCachePolicy#UNBOUNDED}. Use e.g. 
+   * <code>AdapterCachePolicy.lru(1000).weakClassLoaders()</code> for a long-lived Gson in a plugin host.
+   * See {@link Gson#getAdapterCacheStats()}.
+   */
+  public GsonBuilder setAdapterCachePolicy(AdapterCachePolicy policy) {
+	  this.adapterCachePolicy = $Gson$Preconditions.checkNotNull(policy);
+	  return this;
   }
 
   private void addTypeAdaptersForDate(String datePattern, int dateStyle, int timeStyle,
@@ -632,6 +794,12 @@ private List<Function<String, String>> preprocessors;
 		return this;
 	}
 
+	/**
+	 * One for all safe() builders, so their Gsons can share an adapter cache (which compares adapters 
+	 * by identity). Never handed out or edited.
+	 */
+	private static final StandardAdapters.TimeTypeAdapter SAFE_TIME_ADAPTER = new StandardAdapters.TimeTypeAdapter();
+
 	/**
 	 * Make a GsonBuilder with a safe (but not vanilla) set of defaults
 	 * @return
@@ -641,10 +809,78 @@ private List<Function<String, String>> preprocessors;
 			.setLenientReader(true)				
 			.serializeSpecialFloatingPointValues()
 			.setDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'")
-			.registerTypeAdapter(Time.class, new StandardAdapters.TimeTypeAdapter())
+			.registerTypeAdapter(Time.class, SAFE_TIME_ADAPTER)
 			.setClassProperty(null).setLoopPolicy(KLoopPolicy.QUIET_NULL);
 	}
 
+	/**
+	 * If true, only write the class property where the reader could not otherwise know the class: 
+	 * i.e. skip it when an object's class is exactly the declared type of its field, list-element or map-value. 
+	 * Top-level objects always get it. 
+	 * <p>
+	 * Smaller json -- but reading back needs the declared types, so untyped reads (e.g. to a Map) will see 
+	 * plain maps for those objects. Default: false. 
+	 * @return this
+	 */
+	public GsonBuilder setClassPropertyOnlyForSubtypes(boolean onlyForSubtypes) {
+		this.classPropertyOnlyForSubtypes = onlyForSubtypes;
+		return this;
+	}
+
+	/**
+	 * If true, untyped reads (e.g. {@link Gson#fromJson(String)}, or Object fields) make a 
+	 * {@link CompactMap} for each json object, and a {@link CompactList} for each array 
+	 * (which holds all-number arrays as a double[]). These use about half the heap of the default 
+	 * LinkedTreeMap / HashMap / ArrayList -- worth it if the results are kept, e.g. in a cache.
+	 * Both are insertion-ordered and mutable. Default: false.
+	 * @return this
+	 */
+	public GsonBuilder setCompactUntypedReads(boolean compact) {
+		this.compactUntypedReads = compact;
+		return this;
+	}
+
+	/**
+	 * Restrict which classes the class property can ask for. Recommended if the json is from an untrusted source.
+	 * Can be called repeatedly to add more.
+	 * @param prefixes e.g. "com.example.model." Class names must start with one of these.
+	 * Classes set by {@link #setClassMapping(String, Class)} are always allowed. 
+	 * @return this
+	 */
+	public GsonBuilder setClassAllowlist(String... prefixes) {
+		if (classAllowlist==null) classAllowlist = new ArrayList<String>();
+		classAllowlist.addAll(Arrays.asList(prefixes));
+		return this;
+	}
+
+	/**
+	 * Write a short id instead of the class name as the class-property value -- e.g. "@class":"7". 
+	 * Reading maps it back (as {@link #setClassMapping(String, Class)}). Classes without an id are 
+	 * written with their name as usual.
+	 * @param klass
+	 * @param id Must be unique. Avoid ids which could be class names.
+	 * @return this
+	 */
+	public GsonBuilder registerTypeId(Class<?> klass, String id) {
+		Class<?> old = classForClass==null? null : classForClass.get(id);
+		if (old != null && old != klass) {
+			throw new IllegalArgumentException("Type id "+id+" is already used for "+old);
+		}
+		if (typeIds==null) typeIds = new HashMap<Class<?>, String>();
+		String oldId = typeIds.put(klass, id);
+		if (oldId != null && classForClass.get(oldId) == klass) {
+			classForClass.remove(oldId);
+		}
+		return setClassMapping(id, klass);
+	}
+
+	/**
+	 * As {@link #registerTypeId(Class, String)}. The id is written as a (short) string.
+	 */
+	public GsonBuilder registerTypeId(Class<?> klass, int id) {
+		return registerTypeId(klass, Integer.toString(id));
+	}
+
 	public GsonBuilder setClassMapping(String classNameInJson, Class class1) {
 		if (classForClass==null) classForClass = new HashMap();
 		classForClass.put(classNameInJson, class1);
@@ -19,19 +19,42 @@ package com.winterwell.gson;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * A class representing an array type in Json. An array is a list of {@link JsonElement}s each of
  * which can be of a different type. This is an ordered list, meaning that the order in which
  * elements are added is preserved.
+ * <p>
+ * An array built by {@link #addNumber(Number)} stores its numbers in a long[] or double[], and makes
+ * the {@link JsonPrimitive}s on demand. It switches (once) to a list of elements if anything else
+ * is added, or it is edited.
  *
  * @author Inderjeet Singh
  * @author Joel Leitch
  */
 public final class JsonArray extends JsonElement implements Iterable<JsonElement> {
-  private final List<JsonElement> elements;
+  /** Largest magnitude for which every integer is exactly a double */
+  private static final long MAX_EXACT_DOUBLE = 1L << 53;
+
+  /** null while this is a numeric array */
+  private List<JsonElement> elements;
+  /** Numeric storage: at most one of longs and doubles is non-null */
+  private long[] longs;
+  private double[] doubles;
+  /** For doubles: bit i set if element i was an integer (so it is written without a ".0") */
+  private long[] integral;
+  /** For numeric storage */
+  private int size;
+  /**
+   * Lazy mode (see {@link JsonParser#parseLazy(String)}): the elements are parsed from here on first access.
+   * Volatile, and cleared only once the storage is filled, so concurrent readers see a complete array.
+   */
+  private volatile LazyJsonTape tape;
+  private int tapeIndex;
 
   /**
    * Creates an empty JsonArray.
@@ -40,24 +63,240 @@ public final class JsonArray extends JsonElement implements Iterable<JsonElement
     elements = new ArrayList<JsonElement>();
   }
 
+  JsonArray(LazyJsonTape tape, int tapeIndex) {
+    this();
+    this.tape = tape;
+    this.tapeIndex = tapeIndex;
+  }
+
+  private void materialize() {
+    if (tape != null) {
+      materialize2();
+    }
+  }
+
+  private synchronized void materialize2() {
+    LazyJsonTape t = tape;
+    if (t == null) return; // another thread got here first
+    // fill a scratch array, as add() on this would recurse
+    JsonArray parsed = new JsonArray();
+    t.fill(tapeIndex, parsed);
+    elements = parsed.elements;
+    longs = parsed.longs;
+    doubles = parsed.doubles;
+    integral = parsed.integral;
+    size = parsed.size;
+    tape = null;
+  }
+
+  /**
+   * @return the source json, if this is a lazy node whose elements have not been accessed. Else null.
+   * @see JsonParser#parseLazy(String)
+   */
+  public String getUnparsedJson() {
+    LazyJsonTape t = tape;
+    return t == null ? null : t.text(tapeIndex);
+  }
+
   @Override
   JsonArray deepCopy() {
+    LazyJsonTape t = tape;
+    if (t != null) {
+      // the tape is immutable, so can be shared
+      return new JsonArray(t, tapeIndex);
+    }
     JsonArray result = new JsonArray();
+    if (elements == null) {
+      // the elements are made on demand, so copying the storage is a deep copy
+      result.elements = null;
+      result.size = size;
+      result.longs = longs == null ? null : longs.clone();
+      result.doubles = doubles == null ? null : doubles.clone();
+      result.integral = integral == null ? null : integral.clone();
+      return result;
+    }
     for (JsonElement element : elements) {
       result.add(element.deepCopy());
     }
     return result;
   }
 
+  /**
+   * Adds a number. If every element is added this way, they are stored without a
+   * {@link JsonPrimitive} each, in a long[] or double[]. The values and the json written are
+   * unchanged, but {@link #get(int)} returns a new (equal) JsonPrimitive each call.
+   * <p>
+   * Numbers which could not be written back exactly from a long or double (e.g. a Float, a
+   * BigDecimal, or a parsed "1e5") switch this array to a list of elements.
+   *
+   * Named addNumber, not add, so that add(null) stays unambiguous.
+   *
+   * @param number Can be null
+   */
+  public void addNumber(Number number) {
+    materialize();
+    if (number == null) {
+      add(JsonNull.INSTANCE);
+      return;
+    }
+    if (elements != null) {
+      if ( ! elements.isEmpty()) {
+        elements.add(new JsonPrimitive(number));
+        return;
+      }
+      // start numeric storage
+      elements = null;
+    }
+    if ( ! addNumeric(number)) {
+      toElements();
+      elements.add(new JsonPrimitive(number));
+    }
+  }
+
+  /**
+   * @return false if number cannot be stored as a long or double and written back exactly
+   */
+  private boolean addNumeric(Number number) {
+    boolean isInteger;
+    long lv = 0;
+    double dv = 0;
+    if (number instanceof Long || number instanceof Integer || number instanceof Short
+        || number instanceof Byte) {
+      isInteger = true;
+      lv = number.longValue();
+    } else if (number instanceof Double) {
+      isInteger = false;
+      dv = number.doubleValue();
+    } else if (number instanceof Float || number instanceof BigInteger
+        || number instanceof BigDecimal) {
+      return false;
+    } else {
+      // e.g. a LazilyParsedNumber from the parser: keep it only if we'd write the same text
+      String text = number.toString();
+      isInteger = isPlainInteger(text);
+      try {
+        if (isInteger) {
+          lv = Long.parseLong(text);
+        } else {
+          dv = Double.parseDouble(text);
+          if ( ! Double.toString(dv).equals(text)) return false;
+        }
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+    if (isInteger && doubles == null) {
+      if (longs == null) {
+        longs = new long[8];
+      } else if (size == longs.length) {
+        longs = Arrays.copyOf(longs, size + (size >> 1) + 1);
+      }
+      longs[size++] = lv;
+      return true;
+    }
+    if (longs != null && ! longsToDoubles()) {
+      return false;
+    }
+    if (isInteger) {
+      if (lv > MAX_EXACT_DOUBLE || lv < -MAX_EXACT_DOUBLE) return false;
+      dv = lv;
+    }
+    if (doubles == null) {
+      doubles = new double[8];
+      integral = new long[1];
+    } else if (size == doubles.length) {
+      doubles = Arrays.copyOf(doubles, size + (size >> 1) + 1);
+      integral = Arrays.copyOf(integral, (doubles.length + 63) >> 6);
+    }
+    if (isInteger) integral[size >> 6] |= 1L << size;
+    doubles[size++] = dv;
+    return true;
+  }
+
+  /**
+   * An integer with no leading zeroes, and not "-0"
+   */
+  private static boolean isPlainInteger(String text) {
+    int start = text.startsWith("-") ? 1 : 0;
+    int n = text.length() - start;
+    if (n == 0 || n > 19 || (text.charAt(start) == '0' && (n > 1 || start == 1))) return false;
+    for (int i = start; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c < '0' || c > '9') return false;
+    }
+    return true;
+  }
+
+  /**
+   * A fraction has arrived: move the longs over, if they are all exact as doubles.
+   */
+  private boolean longsToDoubles() {
+    for (int i = 0; i < size; i++) {
+      if (longs[i] > MAX_EXACT_DOUBLE || longs[i] < -MAX_EXACT_DOUBLE) return false;
+    }
+    doubles = new double[longs.length];
+    integral = new long[(longs.length + 63) >> 6];
+    for (int i = 0; i < size; i++) {
+      doubles[i] = longs[i];
+      integral[i >> 6] |= 1L << i;
+    }
+    longs = null;
+    return true;
+  }
+
+  /**
+   * Switch from numeric storage to a list of elements
+   */
+  private void toElements() {
+    if (elements != null) return;
+    List<JsonElement> list = new ArrayList<JsonElement>(Math.max(size, 10));
+    for (int i = 0; i < size; i++) {
+      list.add(numberAt(i));
+    }
+    elements = list;
+    longs = null;
+    doubles = null;
+    integral = null;
+    size = 0;
+  }
+
+  private JsonPrimitive numberAt(int i) {
+    if (longs != null) {
+      return new JsonPrimitive(longs[i]);
+    }
+    double d = doubles[i];
+    if ((integral[i >> 6] & (1L << i)) != 0) {
+      return new JsonPrimitive((long) d);
+    }
+    return new JsonPrimitive(d);
+  }
+
+  /**
+   * Drop spare capacity -- for trees which will be kept.
+   */
+  public void trimToSize() {
+    materialize();
+    if (elements instanceof ArrayList) {
+      ((ArrayList) elements).trimToSize();
+    } else if (longs != null) {
+      longs = Arrays.copyOf(longs, size);
+    } else if (doubles != null) {
+      doubles = Arrays.copyOf(doubles, size);
+      integral = Arrays.copyOf(integral, (size + 63) >> 6);
+    }
+  }
+
   /**
    * Adds the specified element to self.
    *
    * @param element the element that needs to be added to the array.
    */
   public void add(JsonElement element) {
+    materialize();
     if (element == null) {
       element = JsonNull.INSTANCE;
     }
+    toElements();
     elements.add(element);
   }
 
@@ -67,7 +306,23 @@ public final class JsonArray extends JsonElement implements Iterable<JsonElement
    * @param array the array whose elements need to be added to the array.
    */
   public void addAll(JsonArray array) {
-    elements.addAll(array.elements);
+    materialize();
+    array.materialize();
+    if (array.elements == null && (elements == null || elements.isEmpty())) {
+      // stay numeric
+      for (int i = 0, n = array.size; i < n; i++) {
+        addNumber(array.numberAt(i).getAsNumber());
+      }
+      return;
+    }
+    toElements();
+    if (array.elements == null) {
+      for (int i = 0, n = array.size; i < n; i++) {
+        elements.add(array.numberAt(i));
+      }
+    } else {
+      elements.addAll(array.elements);
+    }
   }
 
   /**
@@ -79,6 +334,8 @@ public final class JsonArray extends JsonElement implements Iterable<JsonElement
    * @throws IndexOutOfBoundsException if the specified index is outside the array bounds
    */
   public JsonElement set(int index, JsonElement element) {
+    materialize();
+    toElements();
     return elements.set(index, element);
   }
 
@@ -90,6 +347,8 @@ public final class JsonArray extends JsonElement implements Iterable<JsonElement
    * @since 2.3
    */
   public boolean remove(JsonElement element) {
+    materialize();
+    toElements();
     return elements.remove(element);
   }
 
@@ -103,6 +362,8 @@ public final class JsonArray extends JsonElement implements Iterable<JsonElement
    * @since 2.3
    */
   public JsonElement remove(int index) {
+    materialize();
+    toElements();
     return elements.remove(index);
   }
 
@@ -113,7 +374,15 @@ public final class JsonArray extends JsonElement implements Iterable<JsonElement
    * @since 2.3
    */
   public boolean contains(JsonElement element) {
-    return elements.contains(element);
+    materialize();
+    if (elements != null) {
+      return elements.contains(element);
+    }
+    if (element == null || ! element.isJsonPrimitive()) return false;
+    for (int i = 0; i < size; i++) {
+      if (numberAt(i).equals(element)) return true;
+    }
+    return false;
   }
 
   /**
@@ -122,7 +391,8 @@ public final class JsonArray extends JsonElement implements Iterable<JsonElement
    * @return the number of elements in the array.
    */
   public int size() {
-    return elements.size();
+    materialize();
+    return elements == null ? size : elements.size();
   }
 
   /**
@@ -132,7 +402,30 @@ public final class JsonArray extends JsonElement implements Iterable<JsonElement
    * @return an iterator to navigate the elements of the array.
    */
   public Iterator<JsonElement> iterator() {
-    return elements.iterator();
+    materialize();
+    if (elements != null) {
+      return elements.iterator();
+    }
+    return new Iterator<JsonElement>() {
+      int next;
+      boolean canRemove;
+
+      public boolean hasNext() {
+        return next < size();
+      }
+
+      public JsonElement next() {
+        if (next >= size()) throw new NoSuchElementException();
+        canRemove = true;
+        return get(next++);
+      }
+
+      public void remove() {
+        if ( ! canRemove) throw new IllegalStateException();
+        canRemove = false;
+        JsonArray.this.remove(--next);
+      }
+    };
   }
 
   /**
@@ -144,7 +437,14 @@ public final class JsonArray extends JsonElement implements Iterable<JsonElement
    * {@link #size()} of the array.
    */
   public JsonElement get(int i) {
-    return elements.get(i);
+    materialize();
+    if (elements != null) {
+      return elements.get(i);
+    }
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+    }
+    return numberAt(i);
   }
 
   /**
@@ -157,8 +457,8 @@ public final class JsonArray extends JsonElement implements Iterable<JsonElement
    */
   @Override
   public Number getAsNumber() {
-    if (elements.size() == 1) {
-      return elements.get(0).getAsNumber();
+    if (size() == 1) {
+      return get(0).getAsNumber();
     }
     throw new IllegalStateException();
   }
@@ -173,8 +473,8 @@ public final class JsonArray extends JsonElement implements Iterable<JsonElement
    */
   @Override
   public String getAsString() {
-    if (elements.size() == 1) {
-      return elements.get(0).getAsString();
+    if (size() == 1) {
+      return get(0).getAsString();
     }
     throw new IllegalStateException();
   }
@@ -189,8 +489,8 @@ public final class JsonArray extends JsonElement implements Iterable<JsonElement
    */
   @Override
   public double getAsDouble() {
-    if (elements.size() == 1) {
-      return elements.get(0).getAsDouble();
+    if (size() == 1) {
+      return get(0).getAsDouble();
     }
     throw new IllegalStateException();
   }
@@ -206,8 +506,8 @@ public final class JsonArray extends JsonElement implements Iterable<JsonElement
    */
   @Override
   public BigDecimal getAsBigDecimal() {
-    if (elements.size() == 1) {
-      return elements.get(0).getAsBigDecimal();
+    if (size() == 1) {
+      return get(0).getAsBigDecimal();
     }
     throw new IllegalStateException();
   }
@@ -223,8 +523,8 @@ public final class JsonArray extends JsonElement implements Iterable<JsonElement
    */
   @Override
   public BigInteger getAsBigInteger() {
-    if (elements.size() == 1) {
-      return elements.get(0).getAsBigInteger();
+    if (size() == 1) {
+      return get(0).getAsBigInteger();
     }
     throw new IllegalStateException();
   }
@@ -239,8 +539,8 @@ public final class JsonArray extends JsonElement implements Iterable<JsonElement
    */
   @Override
   public float getAsFloat() {
-    if (elements.size() == 1) {
-      return elements.get(0).getAsFloat();
+    if (size() == 1) {
+      return get(0).getAsFloat();
     }
     throw new IllegalStateException();
   }
@@ -255,8 +555,8 @@ public final class JsonArray extends JsonElement implements Iterable<JsonElement
    */
   @Override
   public long getAsLong() {
-    if (elements.size() == 1) {
-      return elements.get(0).getAsLong();
+    if (size() == 1) {
+      return get(0).getAsLong();
     }
     throw new IllegalStateException();
   }
@@ -271,24 +571,24 @@ public final class JsonArray extends JsonElement implements Iterable<JsonElement
    */
   @Override
   public int getAsInt() {
-    if (elements.size() == 1) {
-      return elements.get(0).getAsInt();
+    if (size() == 1) {
+      return get(0).getAsInt();
     }
     throw new IllegalStateException();
   }
 
   @Override
   public byte getAsByte() {
-    if (elements.size() == 1) {
-      return elements.get(0).getAsByte();
+    if (size() == 1) {
+      return get(0).getAsByte();
     }
     throw new IllegalStateException();
   }
 
   @Override
   public char getAsCharacter() {
-    if (elements.size() == 1) {
-      return elements.get(0).getAsCharacter();
+    if (size() == 1) {
+      return get(0).getAsCharacter();
     }
     throw new IllegalStateException();
   }
@@ -303,8 +603,8 @@ public final class JsonArray extends JsonElement implements Iterable<JsonElement
    */
   @Override
   public short getAsShort() {
-    if (elements.size() == 1) {
-      return elements.get(0).getAsShort();
+    if (size() == 1) {
+      return get(0).getAsShort();
     }
     throw new IllegalStateException();
   }
@@ -319,20 +619,42 @@ public final class JsonArray extends JsonElement implements Iterable<JsonElement
    */
   @Override
   public boolean getAsBoolean() {
-    if (elements.size() == 1) {
-      return elements.get(0).getAsBoolean();
+    if (size() == 1) {
+      return get(0).getAsBoolean();
     }
     throw new IllegalStateException();
   }
 
   @Override
   public boolean equals(Object o) {
-    return (o == this) || (o instanceof JsonArray && ((JsonArray) o).elements.equals(elements));
+    if (o == this) return true;
+    if ( ! (o instanceof JsonArray)) return false;
+    JsonArray other = (JsonArray) o;
+    materialize();
+    other.materialize();
+    if (elements != null && other.elements != null) {
+      return elements.equals(other.elements);
+    }
+    int n = size();
+    if (n != other.size()) return false;
+    for (int i = 0; i < n; i++) {
+      if ( ! get(i).equals(other.get(i))) return false;
+    }
+    return true;
   }
 
   @Override
   public int hashCode() {
-    return elements.hashCode();
+    materialize();
+    if (elements != null) {
+      return elements.hashCode();
+    }
+    // as List.hashCode()
+    int h = 1;
+    for (int i = 0; i < size; i++) {
+      h = 31 * h + numberAt(i).hashCode();
+    }
+    return h;
   }
 
 
@@ -22,7 +22,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import com.winterwell.gson.internal.LinkedTreeMap;
+import com.winterwell.gson.internal.CompactMap;
 
 /**
  * A class representing an object type in Json. An object consists of name-value pairs where names
@@ -33,8 +33,52 @@ import com.winterwell.gson.internal.LinkedTreeMap;
  * @author Joel Leitch
  */
 public final class JsonObject extends JsonElement {
-  private final LinkedTreeMap<String, JsonElement> members =
-      new LinkedTreeMap<String, JsonElement>();
+  /** insertion-ordered, without a node per member */
+  private final CompactMap<String, JsonElement> members =
+      new CompactMap<String, JsonElement>();
+  /**
+   * Lazy mode (see {@link JsonParser#parseLazy(String)}): the members are parsed from here on first access.
+   * Volatile, and cleared only once members is filled, so concurrent readers see a complete object.
+   */
+  private volatile LazyJsonTape tape;
+  private int tapeIndex;
+
+  /**
+   * Creates an empty JsonObject.
+   */
+  public JsonObject() {
+  }
+
+  JsonObject(LazyJsonTape tape, int tapeIndex) {
+    this.tape = tape;
+    this.tapeIndex = tapeIndex;
+  }
+
+  private CompactMap<String, JsonElement> members() {
+    if (tape != null) {
+      materialize();
+    }
+    return members;
+  }
+
+  private synchronized void materialize() {
+    LazyJsonTape t = tape;
+    if (t == null) return; // another thread got here first
+    // fill a scratch object, as add() on this would recurse
+    JsonObject parsed = new JsonObject();
+    t.fill(tapeIndex, parsed);
+    members.putAll(parsed.members);
+    tape = null;
+  }
+
+  /**
+   * @return the source json, if this is a lazy node whose members have not been accessed. Else null.
+   * @see JsonParser#parseLazy(String)
+   */
+  public String getUnparsedJson() {
+    LazyJsonTape t = tape;
+    return t == null ? null : t.text(tapeIndex);
+  }
 
 
   	/**
@@ -77,8 +121,13 @@ public final class JsonObject extends JsonElement {
   
   @Override
   JsonObject deepCopy() {
+    LazyJsonTape t = tape;
+    if (t != null) {
+      // the tape is immutable, so can be shared
+      return new JsonObject(t, tapeIndex);
+    }
     JsonObject result = new JsonObject();
-    for (Map.Entry<String, JsonElement> entry : members.entrySet()) {
+    for (Map.Entry<String, JsonElement> entry : members().entrySet()) {
       result.add(entry.getKey(), entry.getValue().deepCopy());
     }
     return result;
@@ -89,25 +138,29 @@ public final class JsonObject extends JsonElement {
    * can be an arbitrary JsonElement, thereby allowing you to build a full tree of JsonElements
    * rooted at this node.
    *
-   * @param property name of the member.
+   * @param property name of the member. Must not be null.
    * @param value the member object.
    */
   public void add(String property, JsonElement value) {
+    if (property == null) {
+      throw new NullPointerException("property == null");
+    }
     if (value == null) {
       value = JsonNull.INSTANCE;
     }
-    members.put(property, value);
+    members().put(property, value);
   }
 
   /**
-   * Removes the {@code property} from this {@link JsonObject}.
+   * Removes the {@code property} from this {@link JsonObject}. This is O(number of members), as
+   * the members are kept in arrays.
    *
    * @param property name of the member that should be removed.
    * @return the {@link JsonElement} object that is being removed.
    * @since 1.3
    */
   public JsonElement remove(String property) {
-    return members.remove(property);
+    return members().remove(property);
   }
 
   /**
@@ -164,6 +217,13 @@ public final class JsonObject extends JsonElement {
     return value == null ? JsonNull.INSTANCE : new JsonPrimitive(value);
   }
 
+  /**
+   * Drop spare capacity -- for trees which will be kept.
+   */
+  public void trimToSize() {
+    members().trimToSize();
+  }
+
   /**
    * Returns a set of members of this object. The set is ordered, and the order is in which the
    * elements were added.
@@ -171,7 +231,7 @@ public final class JsonObject extends JsonElement {
    * @return a set of members of this object.
    */
   public Set<Map.Entry<String, JsonElement>> entrySet() {
-    return members.entrySet();
+    return members().entrySet();
   }
 
   /**
@@ -181,7 +241,7 @@ public final class JsonObject extends JsonElement {
    * @return true if there is a member with the specified name, false otherwise.
    */
   public boolean has(String memberName) {
-    return members.containsKey(memberName);
+    return members().containsKey(memberName);
   }
 
   /**
@@ -191,7 +251,7 @@ public final class JsonObject extends JsonElement {
    * @return the member matching the name. Null if no such member exists.
    */
   public JsonElement get(String memberName) {
-    return members.get(memberName);
+    return members().get(memberName);
   }
 
   /**
@@ -201,7 +261,7 @@ public final class JsonObject extends JsonElement {
    * @return the JsonPrimitive corresponding to the specified member.
    */
   public JsonPrimitive getAsJsonPrimitive(String memberName) {
-    return (JsonPrimitive) members.get(memberName);
+    return (JsonPrimitive) members().get(memberName);
   }
 
   /**
@@ -211,7 +271,7 @@ public final class JsonObject extends JsonElement {
    * @return the JsonArray corresponding to the specified member.
    */
   public JsonArray getAsJsonArray(String memberName) {
-    return (JsonArray) members.get(memberName);
+    return (JsonArray) members().get(memberName);
   }
 
   /**
@@ -221,17 +281,17 @@ public final class JsonObject extends JsonElement {
    * @return the JsonObject corresponding to the specified member.
    */
   public JsonObject getAsJsonObject(String memberName) {
-    return (JsonObject) members.get(memberName);
+    return (JsonObject) members().get(memberName);
   }
 
   @Override
   public boolean equals(Object o) {
     return (o == this) || (o instanceof JsonObject
-        && ((JsonObject) o).members.equals(members));
+        && ((JsonObject) o).members().equals(members()));
   }
 
   @Override
   public int hashCode() {
-    return members.hashCode();
+    return members().hashCode();
   }
 }
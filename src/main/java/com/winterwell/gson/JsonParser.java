@@ -33,6 +33,21 @@ import com.winterwell.gson.stream.MalformedJsonException;
  */
 public final class JsonParser {
 
+  private final boolean compact;
+
+  public JsonParser() {
+    this(false);
+  }
+
+  /**
+   * @param compact If true, build a memory-compact tree: number arrays are stored in a long[] or
+   * double[] (with their JsonPrimitives made on demand), and spare capacity is trimmed.
+   * Worth it for large trees which are kept.
+   */
+  public JsonParser(boolean compact) {
+    this.compact = compact;
+  }
+
   /**
    * Parses the specified JSON string into a parse tree
    *
@@ -70,6 +85,42 @@ public final class JsonParser {
     }
   }
 
+  /**
+   * Parses lazily: builds an index of where each object and array starts and ends, and returns
+   * nodes which parse their own children on first access. Untouched subtrees are written back
+   * verbatim (see {@link JsonObject#getUnparsedJson()}), so e.g. reading one field then forwarding
+   * the whole document costs little more than a scan.
+   * <p>
+   * Note: beyond brackets and strings, syntax errors only show up when the node containing them is
+   * accessed. The source is kept in memory until every node has been accessed.
+   * <p>
+   * Lazy nodes can be read from several threads: each parses its children once, under a lock.
+   * As with any JsonElement, editing them is not thread-safe.
+   *
+   * @param json JSON text
+   * @return a (lazy) JsonObject or JsonArray, or a primitive
+   * @throws JsonSyntaxException if the brackets or strings are malformed
+   */
+  public JsonElement parseLazy(String json) throws JsonSyntaxException {
+    return new LazyJsonTape(json).root();
+  }
+
+  /**
+   * As {@link #parseLazy(String)}. Reads all of json into memory.
+   */
+  public JsonElement parseLazy(Reader json) throws JsonIOException, JsonSyntaxException {
+    try {
+      StringBuilder sb = new StringBuilder();
+      char[] buf = new char[8192];
+      for (int n; (n = json.read(buf)) != -1; ) {
+        sb.append(buf, 0, n);
+      }
+      return parseLazy(sb.toString());
+    } catch (IOException e) {
+      throw new JsonIOException(e);
+    }
+  }
+
   /**
    * Returns the next value from the JSON stream as a parse tree.
    *
@@ -81,7 +132,7 @@ public final class JsonParser {
     boolean lenient = json.isLenient();
     json.setLenient(true);
     try {
-      return Streams.parse(json);
+      return Streams.parse(json, compact);
     } catch (StackOverflowError e) {
       throw new JsonParseException("Failed parsing JSON source: " + json + " to Json", e);
     } catch (OutOfMemoryError e) {
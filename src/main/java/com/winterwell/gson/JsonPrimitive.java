@@ -302,12 +302,11 @@ public final class JsonPrimitive extends JsonElement {
       return 31;
     }
     // Using recommended hashing algorithm from Effective Java for longs and doubles
-    if (isIntegral(this)) {
-      long value = getAsNumber().longValue();
-      return (int) (value ^ (value >>> 32));
-    }
     if (value instanceof Number) {
-      long value = Double.doubleToLongBits(getAsNumber().doubleValue());
+      // equals() compares mixed types (e.g. 1 and 1.0) as doubles -- so hash via the double,
+      // with whole numbers as their long (which is the same as before for ints and most longs)
+      double d = getAsNumber().doubleValue();
+      long value = d == (long) d ? (long) d : Double.doubleToLongBits(d);
       return (int) (value ^ (value >>> 32));
     }
     return value.hashCode();
@@ -0,0 +1,24 @@
+package com.winterwell.gson;
+
+/**
+ * A factory which can say up-front which raw types it might handle. Gson indexes these, so 
+ * a cache-miss only calls {@link #create(Gson, com.winterwell.gson.reflect.TypeToken)} on factories 
+ * which could match, instead of walking the whole chain.
+ * <p>
+ * This is a filter, not a promise: create() can still return null for a listed type. 
+ * But it must never match a type outside the key.
+ * Plain {@link TypeAdapterFactory}s are treated as "might match anything".
+ */
+public interface KeyedTypeAdapterFactory extends TypeAdapterFactory {
+
+	/**
+	 * @return The raw classes this factory might match exactly. Never null, can be empty.
+	 */
+	Class<?>[] getRawTypes();
+
+	/**
+	 * @return null, or a class such that this factory only matches it and its subtypes.
+	 */
+	Class<?> getHierarchyType();
+	
+}
@@ -0,0 +1,266 @@
+package com.winterwell.gson;
+
+import java.util.Arrays;
+
+import com.winterwell.gson.internal.JsonText;
+import com.winterwell.gson.internal.LazilyParsedNumber;
+import com.winterwell.gson.stream.MalformedJsonException;
+
+/**
+ * The structural index behind {@link JsonParser#parseLazy(String)}: one pass over the text
+ * records where each object and array opens and closes. Nodes then parse just their own level
+ * on first access, jumping over child containers via the index -- so untouched subtrees are
+ * never parsed, and can be written back verbatim.
+ * <p>
+ * Containers are numbered in order of appearance (pre-order). Immutable once built, so lazy
+ * nodes (and their deep copies) can share it.
+ * <p>
+ * Note: the up-front pass only checks brackets and strings. Other syntax errors surface when
+ * the node containing them is accessed -- or not at all, if that subtree is just forwarded.
+ *
+ * @author daniel
+ */
+final class LazyJsonTape {
+
+	final String json;
+	/** offset of the { or [ */
+	private int[] open;
+	/** offset of the matching } or ] */
+	private int[] close;
+	/** the container number after this one's subtree */
+	private int[] skip;
+	private int count;
+
+	LazyJsonTape(String json) {
+		this.json = json;
+		int n = 16;
+		open = new int[n];
+		close = new int[n];
+		skip = new int[n];
+		// stack of container numbers
+		int[] stack = new int[32];
+		int depth = 0;
+		int len = json.length();
+		for (int i = 0; i < len; i++) {
+			char c = json.charAt(i);
+			switch (c) {
+			case '"':
+				i = endOfString(i);
+				break;
+			case '{': case '[':
+				if (count == open.length) {
+					open = Arrays.copyOf(open, count * 2);
+					close = Arrays.copyOf(close, count * 2);
+					skip = Arrays.copyOf(skip, count * 2);
+				}
+				if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+				open[count] = i;
+				stack[depth++] = count++;
+				break;
+			case '}': case ']':
+				if (depth == 0) throw error("Unexpected " + c, i);
+				int t = stack[--depth];
+				if ((json.charAt(open[t]) == '{') != (c == '}')) throw error("Mismatched " + c, i);
+				close[t] = i;
+				skip[t] = count;
+				break;
+			default:
+				break;
+			}
+		}
+		if (depth != 0) throw error("Unclosed " + json.charAt(open[stack[depth - 1]]), open[stack[depth - 1]]);
+	}
+
+	/**
+	 * @param quote offset of the opening "
+	 * @return offset of the closing "
+	 */
+	private int endOfString(int quote) {
+		int len = json.length();
+		for (int i = quote + 1; i < len; i++) {
+			char c = json.charAt(i);
+			if (c == '\\') i++;
+			else if (c == '"') return i;
+		}
+		throw error("Unterminated string", quote);
+	}
+
+	private JsonSyntaxException error(String msg, int offset) {
+		// as JsonParser does for reader errors
+		return new JsonSyntaxException(new MalformedJsonException(msg + " at offset " + offset));
+	}
+
+	/**
+	 * @return the top-level value: a lazy node, or a primitive
+	 */
+	JsonElement root() {
+		int i = skipWhitespace(0);
+		if (i == json.length()) return JsonNull.INSTANCE;
+		JsonElement root;
+		int end;
+		if (count != 0 && open[0] == i) {
+			root = node(0);
+			end = close[0] + 1;
+		} else {
+			int[] endOut = new int[1];
+			root = primitive(i, endOut);
+			end = endOut[0];
+		}
+		if (skipWhitespace(end) != json.length()) {
+			throw error("Did not consume the entire document", end);
+		}
+		return root;
+	}
+
+	private JsonElement node(int t) {
+		return json.charAt(open[t]) == '{' ? new JsonObject(this, t) : new JsonArray(this, t);
+	}
+
+	/**
+	 * @return the source text of container t
+	 */
+	String text(int t) {
+		return json.substring(open[t], close[t] + 1);
+	}
+
+	/**
+	 * Parse the members of object t (but not their contents) into obj
+	 */
+	void fill(int t, JsonObject obj) {
+		int i = skipWhitespace(open[t] + 1);
+		int end = close[t];
+		int child = t + 1;
+		int[] endOut = new int[1];
+		while (i < end) {
+			if (json.charAt(i) != '"') throw error("Expected a name", i);
+			int q = endOfString(i);
+			String name = unescape(i + 1, q);
+			i = skipWhitespace(q + 1);
+			if (json.charAt(i) != ':') throw error("Expected ':'", i);
+			i = skipWhitespace(i + 1);
+			JsonElement value;
+			if (child < count && open[child] == i) {
+				value = node(child);
+				i = close[child] + 1;
+				child = skip[child];
+			} else {
+				value = primitive(i, endOut);
+				i = endOut[0];
+			}
+			obj.add(name, value);
+			i = afterValue(i, end);
+		}
+	}
+
+	/**
+	 * Parse the elements of array t (but not their contents) into array
+	 */
+	void fill(int t, JsonArray array) {
+		int i = skipWhitespace(open[t] + 1);
+		int end = close[t];
+		int child = t + 1;
+		int[] endOut = new int[1];
+		while (i < end) {
+			if (child < count && open[child] == i) {
+				array.add(node(child));
+				i = close[child] + 1;
+				child = skip[child];
+			} else {
+				array.add(primitive(i, endOut));
+				i = endOut[0];
+			}
+			i = afterValue(i, end);
+		}
+	}
+
+	/**
+	 * Skip the comma (if any) after a value
+	 * @return the offset of the next value, or end
+	 */
+	private int afterValue(int i, int end) {
+		i = skipWhitespace(i);
+		if (i == end) return i;
+		if (json.charAt(i) != ',') throw error("Expected ',' or end", i);
+		i = skipWhitespace(i + 1);
+		if (i == end) throw error("Trailing ','", i);
+		return i;
+	}
+
+	private int skipWhitespace(int i) {
+		int len = json.length();
+		while (i < len) {
+			char c = json.charAt(i);
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t') break;
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * @param endOut [0] is set to the offset after the value
+	 */
+	private JsonElement primitive(int i, int[] endOut) {
+		char c = json.charAt(i);
+		if (c == '"') {
+			int q = endOfString(i);
+			endOut[0] = q + 1;
+			return new JsonPrimitive(unescape(i + 1, q));
+		}
+		int j = i;
+		int len = json.length();
+		while (j < len && "\t\n\r ,}]:".indexOf(json.charAt(j)) == -1) {
+			j++;
+		}
+		endOut[0] = j;
+		String word = json.substring(i, j);
+		if (word.equals("true")) return new JsonPrimitive(Boolean.TRUE);
+		if (word.equals("false")) return new JsonPrimitive(Boolean.FALSE);
+		if (word.equals("null")) return JsonNull.INSTANCE;
+		// check it now (as JsonReader does), as LazilyParsedNumber would only fail later -- 
+		// and Double.parseDouble() would allow e.g. 1d, 0x1p3 or NaN
+		if (JsonText.isJsonNumber(word)) {
+			return new JsonPrimitive(new LazilyParsedNumber(word));
+		}
+		throw error("Unexpected " + (word.isEmpty() ? String.valueOf(c) : word), i);
+	}
+
+	/**
+	 * @return the string between the quotes, from start (inclusive) to end (exclusive)
+	 */
+	private String unescape(int start, int end) {
+		int slash = json.indexOf('\\', start);
+		if (slash == -1 || slash >= end) {
+			return json.substring(start, end);
+		}
+		StringBuilder sb = new StringBuilder(end - start);
+		sb.append(json, start, slash);
+		for (int i = slash; i < end; i++) {
+			char c = json.charAt(i);
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			c = json.charAt(++i);
+			switch (c) {
+			case 'n': sb.append('\n'); break;
+			case 't': sb.append('\t'); break;
+			case 'r': sb.append('\r'); break;
+			case 'b': sb.append('\b'); break;
+			case 'f': sb.append('\f'); break;
+			case 'u':
+				if (i + 4 >= end) throw error("Bad escape", i);
+				try {
+					sb.append((char) Integer.parseInt(json.substring(i + 1, i + 5), 16));
+				} catch (NumberFormatException e) {
+					throw error("Bad escape", i);
+				}
+				i += 4;
+				break;
+			default:
+				// \" \\ \/ and (leniently) anything else
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -1,5 +1,11 @@
 package com.winterwell.gson;
 
+import java.util.Objects;
+
+/**
+ * Pre-serialised json, which is written as-is. Fields of this type are read by capturing
+ * the source text, unparsed -- handy for passing through an opaque section.
+ */
 public final class RawJson extends JsonElement {
 
 	public RawJson(String json) {
@@ -17,5 +23,18 @@ public final class RawJson extends JsonElement {
 	JsonElement deepCopy() {
 		return this;
 	}
+
+	/**
+	 * NB: compares the text, so e.g. whitespace differences make RawJsons unequal.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof RawJson && Objects.equals(json, ((RawJson) obj).json);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(json);
+	}
 	
 }
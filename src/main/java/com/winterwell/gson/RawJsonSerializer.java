@@ -8,4 +8,17 @@ final class RawJsonSerializer implements JsonSerializer<RawJson> {
 			JsonSerializationContext context) {
 		return src;
 	}
+	
+	/**
+	 * Stateless -- so all instances are equal (which lets GsonBuilder share adapter caches).
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof RawJsonSerializer;
+	}
+	
+	@Override
+	public int hashCode() {
+		return RawJsonSerializer.class.hashCode();
+	}
 }
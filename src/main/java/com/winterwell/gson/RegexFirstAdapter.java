@@ -2,10 +2,12 @@ package com.winterwell.gson;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.function.UnaryOperator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.winterwell.gson.internal.Streams;
+import com.winterwell.gson.internal.bind.FilteringJsonReader;
 import com.winterwell.gson.reflect.TypeToken;
 import com.winterwell.gson.stream.JsonReader;
 import com.winterwell.gson.stream.JsonWriter;
@@ -24,6 +26,21 @@ implements TypeAdapterFactory
 	private Pattern regex;
 	private String replacement;
 	private TypeAdapter adapter;
+	private KTarget target = KTarget.TEXT;
+	private final UnaryOperator<String> replacer = s -> regex.matcher(s).replaceAll(replacement);
+
+	/**
+	 * What does the regex run over?
+	 */
+	public static enum KTarget {
+		/** The json text of the whole value. Flexible but slow: the value is parsed three times. */
+		TEXT,
+		/** Each property name (and map key) as it streams past, without quotes. */
+		NAMES,
+		/** Each string value as it streams past, without quotes. */
+		STRINGS,
+		NAMES_AND_STRINGS
+	}
 
 	public RegexFirstAdapter(Class<X> myType, String regex, String replacement) {
 		this.regex = Pattern.compile(regex);
@@ -47,6 +64,15 @@ implements TypeAdapterFactory
 	}
 
 
+	/**
+	 * @param target Default: TEXT. The streaming targets avoid re-parsing -- use them where you can.
+	 * @return this
+	 */
+	public RegexFirstAdapter<X> setTarget(KTarget target) {
+		this.target = target;
+		return this;
+	}
+
 	Class myType;
 
 	@Override
@@ -68,6 +94,9 @@ implements TypeAdapterFactory
 
 		@Override
 		public T2 read(JsonReader in) throws IOException {
+			if (target != KTarget.TEXT) {
+				return read2streaming(in);
+			}
 			JsonElement parsed = Streams.parse(in);
 			
 			String s = parsed.toString();
@@ -79,6 +108,18 @@ implements TypeAdapterFactory
 			Object out = adapter.fromJsonTree(json2);
 			return (T2) out;
 		}
+
+		private T2 read2streaming(JsonReader in) throws IOException {
+			// already filtering (a nested value of our type)?
+			if (in instanceof FilteringJsonReader fin
+					&& (fin.getNameFilter()==replacer || fin.getStringFilter()==replacer)) {
+				return (T2) adapter.read(in);
+			}
+			boolean names = target != KTarget.STRINGS;
+			boolean strings = target != KTarget.NAMES;
+			JsonReader fin = new FilteringJsonReader(in, names? replacer : null, strings? replacer : null);
+			return (T2) adapter.read(fin);
+		}
 		
 	}
 
@@ -0,0 +1,96 @@
+package com.winterwell.gson;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Streaming search-and-replace: only holds back maxMatch chars of input at a time.
+ * <p>
+ * The last maxMatch chars already emitted are kept as context, and matching uses transparent,
+ * non-anchoring bounds -- so \b, look-behinds and ^ see the text before a chunk boundary,
+ * and give the same result as {@link String#replaceAll(String, String)}.
+ * @see StreamPreprocessor#replaceAll(Pattern, String, int)
+ */
+final class RegexReplacingReader extends Reader {
+
+	private static final int CHUNK = 8192;
+
+	private final Reader in;
+	private final Pattern regex;
+	private final String replacement;
+	private final int maxMatch;
+	/** [0, context): already emitted, kept for look-behind. Then input which has not been matched yet */
+	private final StringBuilder pending = new StringBuilder();
+	private int context;
+	/** output ready to be read */
+	private final StringBuilder out = new StringBuilder();
+	private int outPos;
+	private boolean eof;
+	private final char[] chunk = new char[CHUNK];
+
+	RegexReplacingReader(Reader in, Pattern regex, String replacement, int maxMatch) {
+		this.in = in;
+		this.regex = regex;
+		this.replacement = replacement;
+		this.maxMatch = maxMatch;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len == 0) return 0;
+		while (outPos == out.length()) {
+			out.setLength(0);
+			outPos = 0;
+			if (eof && pending.length() == context) return -1;
+			fill();
+		}
+		int n = Math.min(len, out.length() - outPos);
+		out.getChars(outPos, outPos + n, cbuf, off);
+		outPos += n;
+		return n;
+	}
+
+	/**
+	 * Read a chunk, then replace and emit everything which cannot be affected by later input.
+	 */
+	private void fill() throws IOException {
+		int n = in.read(chunk);
+		if (n == -1) eof = true;
+		else pending.append(chunk, 0, n);
+		// Matches must start before the cut, so they are complete within pending
+		int cut = eof? pending.length() : Math.max(context, pending.length() - maxMatch);
+		Matcher m = regex.matcher(pending);
+		// search after the context, but let look-behinds and boundaries see it
+		m.region(context, pending.length());
+		m.useTransparentBounds(true);
+		m.useAnchoringBounds(false);
+		int lastEnd = context;
+		boolean first = true;
+		while (m.find()) {
+			if ( ! eof && (m.start() >= cut || m.hitEnd())) {
+				// this match might change with more input
+				cut = Math.min(cut, m.start());
+				break;
+			}
+			int at = out.length();
+			m.appendReplacement(out, replacement);
+			// the first append starts from 0, not the region start: drop the context
+			if (first) out.delete(at, at + context);
+			first = false;
+			lastEnd = m.end();
+		}
+		cut = Math.max(cut, lastEnd);
+		out.append(pending, lastEnd, cut);
+		// keep up to maxMatch chars of emitted text as context
+		int drop = Math.max(0, cut - maxMatch);
+		pending.delete(0, drop);
+		context = cut - drop;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -1,9 +1,13 @@
 package com.winterwell.gson;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Type;
 
+import com.winterwell.gson.internal.ISO8601;
 import com.winterwell.gson.stream.JsonReader;
 import com.winterwell.gson.stream.JsonToken;
 import com.winterwell.gson.stream.JsonWriter;
@@ -27,18 +31,34 @@ public class StandardAdapters {
 	 * @author daniel
 	 *
 	 */
-	public static class ToStringSerialiser implements JsonSerializer<Object> {
+	public static class ToStringSerialiser implements StreamingJsonSerializer<Object> {
 		@Override
 		public JsonElement serialize(Object src, Type typeOfSrc, JsonSerializationContext context) {
 			return context.serialize(src.toString());
 		}
+		
+		@Override
+		public void write(JsonWriter out, Object src, Gson gson) throws IOException {
+			out.value(src.toString());
+		}
 	}
 
-	public static final JsonSerializer IHASJSONADAPTER = new JsonSerializer<IHasJson>() {
+	public static final JsonSerializer IHASJSONADAPTER = new StreamingJsonSerializer<IHasJson>() {
 		@Override
 		public JsonElement serialize(IHasJson src, Type typeOfSrc, JsonSerializationContext context) {
 			return context.serialize(src.toJson2());
 		}
+		
+		@Override
+		public void write(JsonWriter out, IHasJson src, Gson gson) throws IOException {
+			Object json2 = src.toJson2();
+			if (json2 == null) {
+				out.nullValue();
+				return;
+			}
+			TypeAdapter adapter = gson.getAdapter(json2.getClass());
+			adapter.write(out, json2);
+		}
 	};
 
 
@@ -53,7 +73,7 @@ public class StandardAdapters {
  * But ISO format yyyy-mm-dd is strongly recommended!
  * @author daniel
  */
-public static class TimeTypeAdapter implements JsonSerializer<Time>, JsonDeserializer<Time> {
+public static class TimeTypeAdapter implements StreamingJsonSerializer<Time>, StreamingJsonDeserializer<Time> {
 	private TUnit level;
 
 	public TimeTypeAdapter() {
@@ -61,17 +81,41 @@ public static class TimeTypeAdapter implements JsonSerializer<Time>, JsonDeseria
 	@Override
 	public JsonElement serialize(Time src, Type srcType,
 			JsonSerializationContext context) {
-		String s;
+		return new JsonPrimitive(format(src));
+	}	
+	
+	@Override
+	public void write(JsonWriter out, Time src, Gson gson) throws IOException {
+		out.value(format(src));
+	}
+	
+	/**
+	 * Same output as Time.format(), but hand-rolled for speed.
+	 */
+	private String format(Time src) {
 		if (level==TUnit.MILLISECOND) {
-			s = src.format("yyyy-MM-dd'T'HH:mm:ss:S'Z'");
-		} else if (level==TUnit.DAY) {
-			s = src.toISOStringDateOnly();
+			// yyyy-MM-dd'T'HH:mm:ss:S'Z'
+			return ISO8601.formatWithMillisCount(src.getTime());
+		}
+		if (level==TUnit.DAY) {
+			// toISOStringDateOnly()
+			return ISO8601.formatDate(src.getTime());
 			// TODO other levels
-		} else {
-			s = src.toISOString();
 		}
-		return new JsonPrimitive(s);
-	}	
+		// toISOString()
+		return ISO8601.format(src.getTime(), false);
+	}
+	
+	/**
+	 * Fast path for ISO-8601, else the (slow but flexible) TimeParser
+	 */
+	private Time parse(String s) {
+		long ut = ISO8601.parseMillis(s);
+		if (ut != ISO8601.NOT_HANDLED) {
+			return new Time(ut);
+		}
+		return tp.parseExperimental(s); // new Time(s); //TimeUtils.parseExperimental(s);
+	}
 	
 	@Override
 	public Time deserialize(JsonElement json, Type type,
@@ -87,8 +131,31 @@ public static class TimeTypeAdapter implements JsonSerializer<Time>, JsonDeseria
 		if (Utils.isBlank(s)) {
 			return null;
 		}
-		Time t = tp.parseExperimental(s); // new Time(s); //TimeUtils.parseExperimental(s);
-		return t;
+		return parse(s);
+	}
+	
+	@Override
+	public Time read(JsonReader in, Type typeOfT, Gson gson) throws IOException {
+		if (in.peek() == JsonToken.BEGIN_OBJECT) {
+			// a vanilla Gson will turn Time into {ut: }
+			Long utv = null;
+			in.beginObject();
+			while(in.hasNext()) {
+				if ("ut".equals(in.nextName())) {
+					utv = in.nextLong();
+				} else {
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			if (utv == null) throw new JsonParseException("No ut in Time object at "+in.getPath());
+			return new Time(utv);
+		}
+		String s = in.nextString();
+		if (Utils.isBlank(s)) {
+			return null;
+		}
+		return parse(s);
 	}
 	
 	TimeParser tp = new TimeParser();
@@ -142,10 +209,16 @@ public static class TimeTypeAdapter implements JsonSerializer<Time>, JsonDeseria
  * But ISO format yyyy-mm-dd is strongly recommended!
  * @author daniel
  */
-public static final class CharSequenceTypeAdapter implements JsonSerializer<CharSequence>, JsonDeserializer<CharSequence> {
+public static final class CharSequenceTypeAdapter 
+	implements StreamingJsonSerializer<CharSequence>, StreamingJsonDeserializer<CharSequence> 
+{
 
 	private Class<? extends CharSequence> klass;
 	private Constructor<? extends CharSequence> scon;
+	/**
+	 * scon as (String)CharSequence -- faster than reflective newInstance() 
+	 */
+	private MethodHandle newInstance;
 	
 	
 	public CharSequenceTypeAdapter(Class<? extends CharSequence> klass) {
@@ -160,18 +233,44 @@ public static final class CharSequenceTypeAdapter implements JsonSerializer<Char
 			}			
 		}
 		scon.setAccessible(true);
+		try {
+			newInstance = MethodHandles.lookup().unreflectConstructor(scon)
+					.asType(MethodType.methodType(CharSequence.class, String.class));
+		} catch (IllegalAccessException e) {
+			throw Utils.runtime(e);
+		}
 	}
 
 	@Override
 	public CharSequence deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
 			throws JsonParseException 
 	{
-		String s = null;
+		String s;
 		try {
-			s = json.getAsString();					
-			CharSequence ni = scon.newInstance(s);
-			return ni;
+			s = json.getAsString();
 		} catch(Exception ex) {
+			throw new JsonParseException(json.toString(), ex);
+		}
+		return newInstance(s);
+	}
+	
+	@Override
+	public CharSequence read(JsonReader in, Type typeOfT, Gson gson) throws IOException {
+		String s;
+		try {
+			s = in.nextString();
+		} catch(IllegalStateException ex) {
+			throw new JsonParseException(in.getPath(), ex);
+		}
+		return newInstance(s);
+	}
+
+	private CharSequence newInstance(String s) {
+		try {
+			return (CharSequence) newInstance.invokeExact(s);
+		} catch (Error ex) {
+			throw ex;
+		} catch (Throwable ex) {
 			throw new JsonParseException(s, ex);
 		}
 	}
@@ -180,6 +279,11 @@ public static final class CharSequenceTypeAdapter implements JsonSerializer<Char
 	public JsonElement serialize(CharSequence src, Type typeOfSrc, JsonSerializationContext context) {
 		return new JsonPrimitive(src.toString());		
 	}
+	
+	@Override
+	public void write(JsonWriter out, CharSequence src, Gson gson) throws IOException {
+		out.value(src.toString());
+	}
 }
 
 /**
@@ -210,13 +314,14 @@ public static class LenientLongAdapter extends TypeAdapter<Long>{
             reader.nextNull();
             return nullValue;
         }
-        String stringValue = reader.nextString();
-        try{
-            Long value = Long.valueOf(stringValue);
-            return value;
-        } catch(NumberFormatException e){
-        	Double v = Double.valueOf(stringValue);
-            return (long) Math.round(v);
+        // NB: read once then parse here -- not every reader keeps the value if nextLong() fails
+        // (e.g. a token-buffer replay), and a tree reader would truncate 1.5 to 1.
+        String s = reader.nextString();
+        try {
+        	return Long.parseLong(s);
+        } catch(NumberFormatException e) {
+        	// not a whole number
+        	return Math.round(Double.parseDouble(s));
         }
     }
     
@@ -238,8 +343,8 @@ public static class LenientLongAdapter extends TypeAdapter<Long>{
 	 * @deprecated Not sure why we have this!
 	 * @author daniel
 	 */
-	public static class ClassTypeAdapter implements JsonSerializer<Class>,
-			JsonDeserializer<Class> {
+	public static class ClassTypeAdapter implements StreamingJsonSerializer<Class>,
+			StreamingJsonDeserializer<Class> {
 		@Override
 		public JsonElement serialize(Class src, Type srcType,
 				JsonSerializationContext context) {
@@ -249,12 +354,29 @@ public static class LenientLongAdapter extends TypeAdapter<Long>{
 		@Override
 		public Class deserialize(JsonElement json, Type type,
 				JsonDeserializationContext context) throws JsonParseException {
+			String name = json.getAsString();
+			if (context instanceof Gson.OneJsonDeserializationContext) {
+				// the gson's class mapping, allowlist and cache
+				return ((Gson.OneJsonDeserializationContext) context).gson.getClass(name);
+			}
 			try {
-				return Class.forName(json.getAsString());
+				return Class.forName(name);
 			} catch (ClassNotFoundException e) {
 				throw new JsonParseException(e);
 			}
 		}
+		
+		@Override
+		public void write(JsonWriter out, Class src, Gson gson) throws IOException {
+			out.value(src.getCanonicalName());
+		}
+		
+		@Override
+		public Class read(JsonReader in, Type typeOfT, Gson gson) throws IOException {
+			String name = in.nextString();
+			// the gson's class mapping, allowlist and cache
+			return gson.getClass(name);
+		}
 	}
 
 
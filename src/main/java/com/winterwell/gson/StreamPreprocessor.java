@@ -0,0 +1,36 @@
+package com.winterwell.gson;
+
+import java.io.Reader;
+import java.util.regex.Pattern;
+
+/**
+ * Pre-process the input as a stream: wrap the raw Reader in a filtering Reader. Unlike
+ * {@link GsonBuilder#registerStringPreprocessor(java.util.function.Function)}, this
+ * runs in constant memory and overlaps with parsing.
+ * 
+ * @see GsonBuilder#registerStreamPreprocessor(StreamPreprocessor)
+ * @author daniel
+ */
+@FunctionalInterface
+public interface StreamPreprocessor {
+
+	/**
+	 * @param in The raw input (or the output of the previous preprocessor)
+	 * @return a Reader over the pre-processed input. Closing it should close in.
+	 */
+	Reader wrap(Reader in);
+
+	/**
+	 * Regex search-and-replace with bounded lookahead.
+	 * @param regex
+	 * @param replacement As for {@link java.util.regex.Matcher#replaceAll(String)}
+	 * @param maxMatchLength The longest text a match can span. Only this much input is held back 
+	 * at a time, and only this much already-emitted text is kept for look-behinds, \b and ^ -- 
+	 * so matches (and look-behinds) must not be longer than this. Within that, the output is as for 
+	 * {@link String#replaceAll(String, String)}.
+	 */
+	static StreamPreprocessor replaceAll(Pattern regex, String replacement, int maxMatchLength) {
+		if (maxMatchLength < 1) throw new IllegalArgumentException("maxMatchLength "+maxMatchLength);
+		return in -> new RegexReplacingReader(in, regex, replacement, maxMatchLength);
+	}
+}
@@ -0,0 +1,22 @@
+package com.winterwell.gson;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+import com.winterwell.gson.stream.JsonReader;
+
+/**
+ * A {@link JsonDeserializer} which can also read straight from the stream. When registered,
+ * this is used instead of {@link #deserialize(JsonElement, Type, JsonDeserializationContext)},
+ * so no JsonElement is built.
+ * @see StandardAdapters
+ */
+public interface StreamingJsonDeserializer<T> extends JsonDeserializer<T> {
+
+	/**
+	 * @param in Never at a null (that is handled for you)
+	 * @param gson For reading nested values
+	 */
+	T read(JsonReader in, Type typeOfT, Gson gson) throws IOException;
+
+}
@@ -0,0 +1,21 @@
+package com.winterwell.gson;
+
+import java.io.IOException;
+
+import com.winterwell.gson.stream.JsonWriter;
+
+/**
+ * A {@link JsonSerializer} which can also write straight to the stream. When registered,
+ * this is used instead of {@link #serialize(Object, java.lang.reflect.Type, JsonSerializationContext)},
+ * so no JsonElement is built. The output should be the same.
+ * @see StandardAdapters
+ */
+public interface StreamingJsonSerializer<T> extends JsonSerializer<T> {
+
+	/**
+	 * @param src never null
+	 * @param gson For writing nested values
+	 */
+	void write(JsonWriter out, T src, Gson gson) throws IOException;
+
+}
@@ -1,13 +1,16 @@
 package com.winterwell.gson;
 
+import java.io.IOException;
 import java.lang.reflect.Type;
 
+import com.winterwell.gson.stream.JsonWriter;
+
 /**
  * COnvert to JSON -- by just outputting the toString() string.
  * Use-case: for when you want to avoid creating objects.
  * @author daniel
  */
-public class ToStringSerializer implements JsonSerializer{
+public class ToStringSerializer implements StreamingJsonSerializer{
 
 	@Override
 	public JsonElement serialize(Object src, Type typeOfSrc,
@@ -15,4 +18,9 @@ public class ToStringSerializer implements JsonSerializer{
 		return new JsonPrimitive(src.toString());
 	}
 	
+	@Override
+	public void write(JsonWriter out, Object src, Gson gson) throws IOException {
+		out.value(src.toString());
+	}
+	
 }
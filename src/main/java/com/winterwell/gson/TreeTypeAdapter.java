@@ -22,6 +22,7 @@ import com.winterwell.gson.internal.$Gson$Preconditions;
 import com.winterwell.gson.internal.Streams;
 import com.winterwell.gson.reflect.TypeToken;
 import com.winterwell.gson.stream.JsonReader;
+import com.winterwell.gson.stream.JsonToken;
 import com.winterwell.gson.stream.JsonWriter;
 
 /**
@@ -35,6 +36,9 @@ final class TreeTypeAdapter<T> extends TypeAdapter<T> {
   private final Gson gson;
   private final TypeToken<T> typeToken;
   private final TypeAdapterFactory skipPast;
+  /** non-null if the serializer can skip the tree */
+  private final StreamingJsonSerializer<T> streamingSerializer;
+  private final StreamingJsonDeserializer<T> streamingDeserializer;
 
   /** The delegate is lazily created because it may not be needed, and creating it may fail. */
   private TypeAdapter<T> delegate;
@@ -46,12 +50,23 @@ final class TreeTypeAdapter<T> extends TypeAdapter<T> {
     this.gson = gson;
     this.typeToken = typeToken;
     this.skipPast = skipPast;
+    this.streamingSerializer = serializer instanceof StreamingJsonSerializer
+        ? (StreamingJsonSerializer<T>) serializer : null;
+    this.streamingDeserializer = deserializer instanceof StreamingJsonDeserializer
+        ? (StreamingJsonDeserializer<T>) deserializer : null;
   }
 
   @Override public T read(JsonReader in) throws IOException {
     if (deserializer == null) {
       return delegate().read(in);
     }
+    if (streamingDeserializer != null) {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+      return streamingDeserializer.read(in, typeToken.getType(), gson);
+    }
     JsonElement value = Streams.parse(in);
     if (value.isJsonNull()) {
       return null;
@@ -68,6 +83,10 @@ final class TreeTypeAdapter<T> extends TypeAdapter<T> {
       out.nullValue();
       return;
     }
+    if (streamingSerializer != null) {
+      streamingSerializer.write(out, value, gson);
+      return;
+    }
     JsonElement tree = serializer.serialize(value, typeToken.getType(), gson.serializationContext);
     Streams.write(tree, out);
   }
@@ -106,7 +125,7 @@ final class TreeTypeAdapter<T> extends TypeAdapter<T> {
     return new SingleTypeFactory(typeAdapter, null, false, hierarchyType);
   }
 
-  private static class SingleTypeFactory implements TypeAdapterFactory {
+  private static class SingleTypeFactory implements KeyedTypeAdapterFactory {
     private final TypeToken<?> exactType;
     private final boolean matchRawType;
     private final Class<?> hierarchyType;
@@ -132,6 +151,15 @@ final class TreeTypeAdapter<T> extends TypeAdapter<T> {
       this.hierarchyType = hierarchyType;
     }
 
+    public Class<?>[] getRawTypes() {
+      // both exact-match modes imply the same raw type
+      return exactType == null ? new Class<?>[0] : new Class<?>[] { exactType.getRawType() };
+    }
+
+    public Class<?> getHierarchyType() {
+      return exactType == null ? hierarchyType : null;
+    }
+
     @SuppressWarnings("unchecked") // guarded by typeToken.equals() call
     public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
       boolean matches = exactType != null
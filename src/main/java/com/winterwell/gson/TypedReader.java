@@ -0,0 +1,72 @@
+package com.winterwell.gson;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+
+import com.winterwell.gson.reflect.TypeToken;
+
+/**
+ * A reader for one type, with the adapter resolved once.
+ * Use-case: hot endpoints which deserialise the same few types over and over.
+ * 
+ * Immutable and thread-safe.
+ * Make one via {@link Gson#readerFor(Type)}
+ * 
+ * @param <T>
+ */
+public final class TypedReader<T> {
+
+	private final Gson gson;
+	private final Type type;
+	private final TypeAdapter<T> adapter;
+
+	@SuppressWarnings("unchecked")
+	TypedReader(Gson gson, Type type) {
+		this.gson = gson;
+		this.type = type;
+		this.adapter = (TypeAdapter<T>) gson.getAdapter(TypeToken.get(type));
+	}
+
+	/**
+	 * @return Returns {@code null} if {@code json} is {@code null} or empty.
+	 */
+	public T read(String json) throws JsonSyntaxException {
+		if (json == null) {
+			return null;
+		}
+		return read(new StringReader(json));
+	}
+
+	/**
+	 * @param json UTF-8 json
+	 */
+	public T read(byte[] json) throws JsonSyntaxException {
+		if (json == null) {
+			return null;
+		}
+		return read(new ByteArrayInputStream(json));
+	}
+
+	/**
+	 * @param json UTF-8 json. This is not closed.
+	 */
+	public T read(InputStream json) throws JsonIOException, JsonSyntaxException {
+		// NB: buffered because the @class look-ahead needs mark/reset
+		return read(new BufferedReader(new InputStreamReader(json, StandardCharsets.UTF_8)));
+	}
+
+	public T read(Reader json) throws JsonIOException, JsonSyntaxException {
+		return gson.fromJson2(json, type, adapter);
+	}
+
+	@Override
+	public String toString() {
+		return "TypedReader[" + type + "]";
+	}
+}
@@ -0,0 +1,98 @@
+package com.winterwell.gson;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+
+import com.winterwell.gson.internal.Streams;
+import com.winterwell.gson.reflect.TypeToken;
+import com.winterwell.gson.stream.JsonWriter;
+
+/**
+ * A writer for one type, with the adapter resolved once. 
+ * Use-case: hot endpoints which serialise the same few types over and over.
+ * 
+ * Immutable and thread-safe.
+ * Make one via {@link Gson#writerFor(Class)}
+ * 
+ * @param <T>
+ */
+public final class TypedWriter<T> {
+
+	private final Gson gson;
+	private final Type type;
+	private final TypeAdapter<T> adapter;
+	/**
+	 * If set, values of other classes are written as by {@link Gson#toJson(Object)}. 
+	 * Null for generic types, which are written as by {@link Gson#toJson(Object, Type)}.
+	 */
+	private final Class<?> exactClass;
+
+	@SuppressWarnings("unchecked")
+	TypedWriter(Gson gson, Type type, Class<?> exactClass) {
+		this.gson = gson;
+		this.type = type;
+		this.exactClass = exactClass;
+		this.adapter = (TypeAdapter<T>) gson.getAdapter(TypeToken.get(type));
+	}
+
+	/**
+	 * @return json
+	 */
+	public String write(T value) {
+		StringWriter sw = new StringWriter();
+		write2(value, sw);
+		return sw.toString();
+	}
+
+	public void write(T value, Appendable out) throws JsonIOException {
+		write2(value, Streams.writerForAppendable(out));
+	}
+
+	/**
+	 * Write UTF-8 json. The stream is flushed but not closed.
+	 */
+	public void write(T value, OutputStream out) throws JsonIOException {
+		Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		write2(value, w);
+	}
+
+	/**
+	 * @return UTF-8 json
+	 */
+	public byte[] writeBytes(T value) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		write(value, bytes);
+		return bytes.toByteArray();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void write2(T value, Writer w) {
+		try {
+			JsonWriter jsonWriter = gson.newJsonWriterForToJson(w);
+			if (value == null) {
+				jsonWriter.nullValue();
+			} else if (exactClass == null || value.getClass() == exactClass) {
+				adapter.write(jsonWriter, value);
+			} else {
+				// a sub-class -- as toJson(Object) would
+				TypeAdapter<Object> rta = (TypeAdapter<Object>) gson.getAdapter(value.getClass());
+				rta.write(jsonWriter, value);
+			}
+			jsonWriter.flush();
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "TypedWriter[" + type + "]";
+	}
+}
@@ -0,0 +1,57 @@
+package com.winterwell.gson;
+
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What {@link Gson#warmUp(java.util.Collection)} did. Thread-safe.
+ */
+public final class WarmUpReport {
+
+	final Set<Type> warmed = ConcurrentHashMap.newKeySet();
+	final Map<Type, Throwable> failed = new ConcurrentHashMap<Type, Throwable>();
+	final Set<Type> reflective = ConcurrentHashMap.newKeySet();
+	final Set<Type> unsafe = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * @return Every type which now has a cached adapter -- the roots, plus the types reached from them.
+	 */
+	public Set<Type> getWarmed() {
+		return Collections.unmodifiableSet(warmed);
+	}
+
+	/**
+	 * @return type -&gt; the exception from trying to make its adapter
+	 */
+	public Map<Type, Throwable> getFailed() {
+		return Collections.unmodifiableMap(failed);
+	}
+
+	/**
+	 * @return Types handled by field-by-field reflection (i.e. no registered or built-in adapter).
+	 */
+	public Set<Type> getReflective() {
+		return Collections.unmodifiableSet(reflective);
+	}
+
+	/**
+	 * @return Types with no usable no-args constructor, which will be made via Unsafe allocation
+	 * (so field initialisers won't run). Consider adding a constructor or an InstanceCreator.
+	 */
+	public Set<Type> getUnsafe() {
+		return Collections.unmodifiableSet(unsafe);
+	}
+
+	public boolean isOk() {
+		return failed.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "WarmUpReport[warmed:" + warmed.size() + " reflective:" + reflective.size() 
+				+ " unsafe:" + unsafe + " failed:" + failed.keySet() + "]";
+	}
+}
@@ -0,0 +1,29 @@
+package com.winterwell.gson.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a String field as holding json text. On read, the field gets the source text of
+ * its value, unparsed (see {@link com.winterwell.gson.stream.JsonReader#nextRawValue()}).
+ * On write, the text is output as-is if it is exactly what the writer would write (compact,
+ * escaped to the writer's settings). Otherwise it is parsed (strictly) and re-written -- so
+ * malformed text throws a JsonSyntaxException, rather than corrupting the output.
+ * <p>
+ * Example: for {@code {"id":"x","payload":{"a":[1,2]}}}
+ * <pre>
+ * class Envelope {
+ *   String id;
+ *   &#64JsonRawValue String payload; // == {"a":[1,2]}
+ * }
+ * </pre>
+ * This is the annotation alternative to a {@link com.winterwell.gson.RawJson} field.
+ *
+ * @author daniel
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface JsonRawValue {
+}
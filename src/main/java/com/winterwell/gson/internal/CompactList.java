@@ -0,0 +1,135 @@
+package com.winterwell.gson.internal;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A list for long-lived untyped json arrays. While every element is a Double (the usual
+ * untyped number), they are stored in a double[] -- 8 bytes each instead of a reference plus
+ * a 16 byte box. Adding anything else switches (once) to an Object[], so the list is fully mutable.
+ * <p>
+ * Note: get() on a numeric list boxes a new Double each call. Use {@link #getDouble(int)} in loops.
+ *
+ * @author daniel
+ */
+public final class CompactList extends AbstractList<Object> implements RandomAccess, Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/** while every element is a Double */
+	private double[] nums;
+	/** otherwise. Both are null until the first add */
+	private Object[] objs;
+	private int size;
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Object get(int i) {
+		checkIndex(i, size);
+		return nums != null ? (Object) nums[i] : objs[i];
+	}
+
+	/**
+	 * @return element i as a double, without boxing if this is a numeric list
+	 */
+	public double getDouble(int i) {
+		checkIndex(i, size);
+		return nums != null ? nums[i] : ((Number) objs[i]).doubleValue();
+	}
+
+	/**
+	 * @return true if this is (still) backed by a double[]
+	 */
+	public boolean isNumeric() {
+		return nums != null;
+	}
+
+	@Override
+	public Object set(int i, Object element) {
+		checkIndex(i, size);
+		if (nums != null) {
+			if (element instanceof Double) {
+				double old = nums[i];
+				nums[i] = (Double) element;
+				return old;
+			}
+			inflate();
+		}
+		Object old = objs[i];
+		objs[i] = element;
+		return old;
+	}
+
+	@Override
+	public void add(int i, Object element) {
+		checkIndex(i, size + 1);
+		if (nums == null && objs == null) {
+			if (element instanceof Double) nums = new double[4];
+			else objs = new Object[4];
+		} else if (nums != null && ! (element instanceof Double)) {
+			inflate();
+		}
+		modCount++;
+		if (nums != null) {
+			if (size == nums.length) nums = Arrays.copyOf(nums, size + (size >> 1) + 1);
+			System.arraycopy(nums, i, nums, i + 1, size - i);
+			nums[i] = (Double) element;
+		} else {
+			if (size == objs.length) objs = Arrays.copyOf(objs, size + (size >> 1) + 1);
+			System.arraycopy(objs, i, objs, i + 1, size - i);
+			objs[i] = element;
+		}
+		size++;
+	}
+
+	@Override
+	public Object remove(int i) {
+		checkIndex(i, size);
+		modCount++;
+		Object old;
+		int tail = size - i - 1;
+		if (nums != null) {
+			old = nums[i];
+			System.arraycopy(nums, i + 1, nums, i, tail);
+		} else {
+			old = objs[i];
+			System.arraycopy(objs, i + 1, objs, i, tail);
+			objs[size - 1] = null;
+		}
+		size--;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		modCount++;
+		nums = null;
+		objs = null;
+		size = 0;
+	}
+
+	/**
+	 * Drop spare capacity -- call this when the list is done with, if it will be kept.
+	 */
+	public void trimToSize() {
+		if (nums != null && nums.length != size) nums = Arrays.copyOf(nums, size);
+		else if (objs != null && objs.length != size) objs = Arrays.copyOf(objs, size);
+	}
+
+	private void inflate() {
+		objs = new Object[Math.max(4, nums.length)];
+		for (int i = 0; i < size; i++) {
+			objs[i] = nums[i];
+		}
+		nums = null;
+	}
+
+	private static void checkIndex(int i, int limit) {
+		if (i < 0 || i >= limit) throw new IndexOutOfBoundsException(i + " of " + limit);
+	}
+}
@@ -0,0 +1,261 @@
+package com.winterwell.gson.internal;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An insertion-ordered map in two parallel arrays, for long-lived untyped json objects.
+ * No node object per entry: a 5-key object costs two small arrays, where a LinkedTreeMap or
+ * HashMap would cost a node each plus the table.
+ * <p>
+ * Small maps are scanned. Above {@link #SCAN_MAX} keys, an open-addressing (linear probing) index
+ * of positions is added. remove() is O(n), which is fine for the read-mostly use this is for.
+ * Allows null keys and values. Not thread-safe.
+ *
+ * @author daniel
+ */
+public final class CompactMap<K, V> extends AbstractMap<K, V> implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	static final int SCAN_MAX = 8;
+
+	private Object[] keys;
+	private Object[] values;
+	private int size;
+	/**
+	 * slot -> position + 1 (0 for empty). null while small. Length is a power of 2, at least 2x size.
+	 */
+	private int[] index;
+	private transient int modCount;
+
+	public CompactMap() {
+		this(4);
+	}
+
+	public CompactMap(int capacity) {
+		keys = new Object[capacity];
+		values = new Object[capacity];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) != -1;
+	}
+
+	@Override
+	public V get(Object key) {
+		int i = indexOf(key);
+		return i == -1 ? null : (V) values[i];
+	}
+
+	@Override
+	public V put(K key, V value) {
+		int i = indexOf(key);
+		if (i != -1) {
+			V old = (V) values[i];
+			values[i] = value;
+			return old;
+		}
+		if (size == keys.length) {
+			int cap = Math.max(4, size + (size >> 1));
+			keys = Arrays.copyOf(keys, cap);
+			values = Arrays.copyOf(values, cap);
+		}
+		keys[size] = key;
+		values[size] = value;
+		size++;
+		modCount++;
+		if (index != null && size * 2 <= index.length) {
+			addToIndex(size - 1);
+		} else if (size > SCAN_MAX) {
+			rebuildIndex();
+		}
+		return null;
+	}
+
+	@Override
+	public V remove(Object key) {
+		int i = indexOf(key);
+		if (i == -1) return null;
+		V old = (V) values[i];
+		removeAt(i);
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(keys, 0, size, null);
+		Arrays.fill(values, 0, size, null);
+		size = 0;
+		index = null;
+		modCount++;
+	}
+
+	/**
+	 * Drop spare capacity -- call this when the map is done with, if it will be kept.
+	 */
+	public void trimToSize() {
+		if (keys.length == size) return;
+		keys = Arrays.copyOf(keys, size);
+		values = Arrays.copyOf(values, size);
+	}
+
+	private int indexOf(Object key) {
+		if (index == null) {
+			for (int i = 0; i < size; i++) {
+				if (Objects.equals(key, keys[i])) return i;
+			}
+			return -1;
+		}
+		int mask = index.length - 1;
+		for (int slot = hash(key) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+			int i = index[slot] - 1;
+			if (Objects.equals(key, keys[i])) return i;
+		}
+		return -1;
+	}
+
+	private static int hash(Object key) {
+		int h = key == null ? 0 : key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private void addToIndex(int i) {
+		int mask = index.length - 1;
+		int slot = hash(keys[i]) & mask;
+		while (index[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		index[slot] = i + 1;
+	}
+
+	private void rebuildIndex() {
+		if (size <= SCAN_MAX) {
+			index = null;
+			return;
+		}
+		index = new int[Integer.highestOneBit(size * 4 - 1)];
+		for (int i = 0; i < size; i++) {
+			addToIndex(i);
+		}
+	}
+
+	private void removeAt(int i) {
+		int tail = size - i - 1;
+		System.arraycopy(keys, i + 1, keys, i, tail);
+		System.arraycopy(values, i + 1, values, i, tail);
+		size--;
+		keys[size] = null;
+		values[size] = null;
+		modCount++;
+		// positions have moved
+		if (index != null) rebuildIndex();
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new AbstractSet<Map.Entry<K, V>>() {
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public void clear() {
+				CompactMap.this.clear();
+			}
+		};
+	}
+
+	private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+		int next;
+		int last = -1;
+		int expectedModCount = modCount;
+
+		@Override
+		public boolean hasNext() {
+			return next < size;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			if (modCount != expectedModCount) throw new ConcurrentModificationException();
+			if (next >= size) throw new NoSuchElementException();
+			last = next++;
+			return new Entry(last);
+		}
+
+		@Override
+		public void remove() {
+			if (last == -1) throw new IllegalStateException();
+			if (modCount != expectedModCount) throw new ConcurrentModificationException();
+			removeAt(last);
+			next = last;
+			last = -1;
+			expectedModCount = modCount;
+		}
+	}
+
+	/**
+	 * A view of a position. setValue() writes through.
+	 */
+	private final class Entry implements Map.Entry<K, V> {
+		private final int i;
+
+		Entry(int i) {
+			this.i = i;
+		}
+
+		@Override
+		public K getKey() {
+			return (K) keys[i];
+		}
+
+		@Override
+		public V getValue() {
+			return (V) values[i];
+		}
+
+		@Override
+		public V setValue(V value) {
+			V old = (V) values[i];
+			values[i] = value;
+			return old;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if ( ! (o instanceof Map.Entry)) return false;
+			Map.Entry e = (Map.Entry) o;
+			return Objects.equals(getKey(), e.getKey()) && Objects.equals(getValue(), e.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+}
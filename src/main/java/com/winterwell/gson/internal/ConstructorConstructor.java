@@ -181,6 +181,10 @@ public final class ConstructorConstructor {
 			final Type type, final Class<? super T> rawType) {
 		return new AObjectConstructor<T>(rawType) {
 			private final UnsafeAllocator unsafeAllocator = UnsafeAllocator.create();
+			@Override
+			public boolean isUnsafe() {
+				return true;
+			}
 			@SuppressWarnings("unchecked")
 			public T construct() {
 				try {
@@ -279,6 +283,11 @@ class DefaultObjectConstructor<T> extends AObjectConstructor<T> {
 		}
 	}
 
+	@Override
+	public boolean isUnsafe() {
+		return constructor==null;
+	}
+
 	@Override
 	@SuppressWarnings("unchecked") // T is the same raw type as is requested
 	public T construct() {		
@@ -71,6 +71,30 @@ public final class Excluder implements TypeAdapterFactory, Cloneable {
 		}
 	}
 
+	/**
+	 * Value equality, so that equivalently configured {@link com.winterwell.gson.GsonBuilder}s 
+	 * can share an adapter cache.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		Excluder other = (Excluder) obj;
+		return version == other.version && modifiers == other.modifiers
+				&& serializeInnerClasses == other.serializeInnerClasses
+				&& requireExpose == other.requireExpose
+				&& serializationStrategies.equals(other.serializationStrategies)
+				&& deserializationStrategies.equals(other.deserializationStrategies);
+	}
+
+	@Override
+	public int hashCode() {
+		return Double.hashCode(version) + 31 * modifiers + (requireExpose ? 7 : 0)
+				+ serializationStrategies.size() + deserializationStrategies.size();
+	}
+
 	public Excluder withVersion(double ignoreVersionsAfter) {
 		Excluder result = clone();
 		result.version = ignoreVersionsAfter;
@@ -0,0 +1,234 @@
+package com.winterwell.gson.internal;
+
+/**
+ * Hand-rolled ISO-8601 for the common forms -- no DateFormat, no locks, no garbage beyond the result.
+ * <p>
+ * Parses: yyyy-MM-dd (as midnight UTC), and yyyy-MM-ddTHH:mm[:ss[.fraction]] with a zone of
+ * Z, +HH:mm, +HHmm or +HH. Also the Winterwell millisecond form yyyy-MM-ddTHH:mm:ss:SZ
+ * (where S is a count of milliseconds, not a fraction). Anything else is "not handled", and
+ * the caller should fall back to a more flexible parser.
+ * <p>
+ * Formats (always UTC): yyyy-MM-ddTHH:mm:ssZ, optionally with .SSS or :S
+ *
+ * @author daniel
+ */
+public final class ISO8601 {
+
+	/**
+	 * Returned by the parse methods for "not a form we handle"
+	 */
+	public static final long NOT_HANDLED = Long.MIN_VALUE;
+
+	private static final long SECONDS_PER_DAY = 86400;
+
+	private ISO8601() {
+	}
+
+	/**
+	 * @return epoch milliseconds, or {@link #NOT_HANDLED}
+	 */
+	public static long parseMillis(CharSequence s) {
+		int[] nanos = new int[1];
+		long secs = parse(s, nanos);
+		if (secs == NOT_HANDLED) return NOT_HANDLED;
+		return secs * 1000 + nanos[0] / 1000000;
+	}
+
+	/**
+	 * @param nanosOut [0] is set to the nano-of-second
+	 * @return epoch seconds, or {@link #NOT_HANDLED}
+	 */
+	public static long parse(CharSequence s, int[] nanosOut) {
+		int len = s.length();
+		if (len < 10 || s.charAt(4) != '-' || s.charAt(7) != '-') return NOT_HANDLED;
+		int year = digits(s, 0, 4);
+		int month = digits(s, 5, 2);
+		int day = digits(s, 8, 2);
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+			return NOT_HANDLED;
+		}
+		long epochDay = epochDay(year, month, day);
+		nanosOut[0] = 0;
+		if (len == 10) {
+			return epochDay * SECONDS_PER_DAY;
+		}
+		// time
+		char t = s.charAt(10);
+		if ((t != 'T' && t != 't' && t != ' ') || len < 16 || s.charAt(13) != ':') return NOT_HANDLED;
+		int hour = digits(s, 11, 2);
+		int minute = digits(s, 14, 2);
+		if (hour < 0 || hour > 23 || minute < 0 || minute > 59) return NOT_HANDLED;
+		int second = 0;
+		int i = 16;
+		if (i < len && s.charAt(i) == ':') {
+			second = digits(s, i + 1, 2);
+			if (second < 0 || second > 59) return NOT_HANDLED;
+			i += 3;
+			if (i < len && (s.charAt(i) == '.' || s.charAt(i) == ',')) {
+				// fraction of a second
+				int start = ++i;
+				int nanos = 0;
+				while (i < len && isDigit(s.charAt(i))) {
+					if (i - start < 9) nanos = nanos * 10 + (s.charAt(i) - '0');
+					i++;
+				}
+				int n = i - start;
+				if (n == 0) return NOT_HANDLED;
+				for (; n < 9; n++) nanos *= 10;
+				nanosOut[0] = nanos;
+			} else if (i < len && s.charAt(i) == ':') {
+				// Winterwell ss:S -- a count of milliseconds
+				int start = ++i;
+				int millis = 0;
+				while (i < len && isDigit(s.charAt(i)) && i - start < 3) {
+					millis = millis * 10 + (s.charAt(i) - '0');
+					i++;
+				}
+				if (i == start) return NOT_HANDLED;
+				nanosOut[0] = millis * 1000000;
+			}
+		}
+		// zone
+		if (i >= len) return NOT_HANDLED; // local time -- leave that to the flexible parser
+		int offsetSecs;
+		char z = s.charAt(i);
+		if (z == 'Z' || z == 'z') {
+			offsetSecs = 0;
+			i++;
+		} else if (z == '+' || z == '-') {
+			int oh = digits(s, i + 1, 2);
+			if (oh < 0 || oh > 18) return NOT_HANDLED;
+			i += 3;
+			int om = 0;
+			if (i < len) {
+				if (s.charAt(i) == ':') i++;
+				om = digits(s, i, 2);
+				if (om < 0 || om > 59) return NOT_HANDLED;
+				i += 2;
+			}
+			offsetSecs = (oh * 3600 + om * 60) * (z == '-' ? -1 : 1);
+		} else {
+			return NOT_HANDLED;
+		}
+		if (i != len) return NOT_HANDLED;
+		return epochDay * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second - offsetSecs;
+	}
+
+	/**
+	 * @return yyyy-MM-ddTHH:mm:ssZ, with .SSS if withMillis (and the millis are non-zero)
+	 */
+	public static String format(long millis, boolean withMillis) {
+		return format2(millis, withMillis ? '.' : 0, true);
+	}
+
+	/**
+	 * @return yyyy-MM-dd
+	 */
+	public static String formatDate(long millis) {
+		return format2(millis, 0, false);
+	}
+
+	/**
+	 * The Winterwell millisecond form yyyy-MM-dd'T'HH:mm:ss:S'Z', where S is the (unpadded)
+	 * count of milliseconds.
+	 */
+	public static String formatWithMillisCount(long millis) {
+		return format2(millis, ':', true);
+	}
+
+	private static String format2(long millis, int millisSep, boolean withTime) {
+		long epochDay = Math.floorDiv(millis, SECONDS_PER_DAY * 1000);
+		int msOfDay = (int) Math.floorMod(millis, SECONDS_PER_DAY * 1000);
+		// civil-from-days (after H. Hinnant)
+		long z = epochDay + 719468;
+		long era = Math.floorDiv(z, 146097);
+		long doe = z - era * 146097;
+		long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		long mp = (5 * doy + 2) / 153;
+		int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+		int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+		long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+		if (year < 0 || year > 9999) {
+			// rare -- let java.time handle the edge cases
+			String s = java.time.Instant.ofEpochMilli(millis).toString();
+			return withTime ? s : s.substring(0, s.indexOf('T'));
+		}
+		char[] cs = new char[withTime ? 28 : 10];
+		put(cs, 0, (int) year, 4);
+		cs[4] = '-';
+		put(cs, 5, month, 2);
+		cs[7] = '-';
+		put(cs, 8, day, 2);
+		if ( ! withTime) return new String(cs);
+		int secOfDay = msOfDay / 1000;
+		int ms = msOfDay % 1000;
+		cs[10] = 'T';
+		put(cs, 11, secOfDay / 3600, 2);
+		cs[13] = ':';
+		put(cs, 14, (secOfDay / 60) % 60, 2);
+		cs[16] = ':';
+		put(cs, 17, secOfDay % 60, 2);
+		int n = 19;
+		if (millisSep == '.' && ms != 0) {
+			cs[n++] = '.';
+			put(cs, n, ms, 3);
+			n += 3;
+		} else if (millisSep == ':') {
+			cs[n++] = ':';
+			String sms = Integer.toString(ms);
+			sms.getChars(0, sms.length(), cs, n);
+			n += sms.length();
+		}
+		cs[n++] = 'Z';
+		return new String(cs, 0, n);
+	}
+
+	private static void put(char[] cs, int offset, int value, int width) {
+		for (int i = offset + width - 1; i >= offset; i--) {
+			cs[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+	}
+
+	/**
+	 * @return the value of n digits from offset, or -1
+	 */
+	private static int digits(CharSequence s, int offset, int n) {
+		if (offset + n > s.length()) return -1;
+		int v = 0;
+		for (int i = offset; i < offset + n; i++) {
+			char c = s.charAt(i);
+			if ( ! isDigit(c)) return -1;
+			v = v * 10 + (c - '0');
+		}
+		return v;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static int daysInMonth(int year, int month) {
+		switch (month) {
+		case 2:
+			return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+		case 4: case 6: case 9: case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	/**
+	 * days-from-civil (after H. Hinnant)
+	 */
+	static long epochDay(int year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = Math.floorDiv(y, 400);
+		long yoe = y - era * 400;
+		long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+}
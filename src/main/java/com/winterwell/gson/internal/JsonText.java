@@ -0,0 +1,213 @@
+package com.winterwell.gson.internal;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.winterwell.gson.stream.JsonWriter;
+
+/**
+ * Checks on json text, without building anything from it -- for deciding whether text can be
+ * copied straight to the output (see {@link JsonWriter#raw(com.winterwell.gson.RawJson)}).
+ *
+ * @author daniel
+ */
+public final class JsonText {
+
+	private JsonText() {
+	}
+
+	/**
+	 * @param word
+	 * @return true if word is a number by the json spec -- e.g. not 1d, 0x1p3, NaN, Infinity, +1 or .5
+	 */
+	public static boolean isJsonNumber(String word) {
+		int n = word.length();
+		int i = 0;
+		if (i < n && word.charAt(i) == '-') i++;
+		if (i == n) return false;
+		if (word.charAt(i) == '0') {
+			i++;
+		} else {
+			int start = i;
+			i = digits(word, i);
+			if (i == start) return false;
+		}
+		if (i < n && word.charAt(i) == '.') {
+			int start = ++i;
+			i = digits(word, i);
+			if (i == start) return false;
+		}
+		if (i < n && (word.charAt(i) == 'e' || word.charAt(i) == 'E')) {
+			i++;
+			if (i < n && (word.charAt(i) == '+' || word.charAt(i) == '-')) i++;
+			int start = i;
+			i = digits(word, i);
+			if (i == start) return false;
+		}
+		return i == n;
+	}
+
+	private static int digits(String s, int i) {
+		while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * @return true if json is valid, and is exactly what a compact {@link JsonWriter} with these settings
+	 * would write for the same value: no whitespace, strings escaped as the writer escapes them, no
+	 * duplicate keys, and (if !serializeNulls) no null object members. So copying json as-is to such
+	 * a writer gives the same output as parsing and re-writing it.
+	 */
+	public static boolean isCanonical(String json, boolean htmlSafe, boolean serializeNulls) {
+		final int VALUE = 0, VALUE_OR_CLOSE = 1, KEY = 2, KEY_OR_CLOSE = 3, COLON = 4, AFTER = 5;
+		int n = json.length();
+		// per open container: its keys if an object, or null if an array
+		Object[] stack = new Object[16];
+		int depth = 0;
+		int state = VALUE;
+		for (int i = 0; i < n; i++) {
+			char c = json.charAt(i);
+			switch (state) {
+			case VALUE_OR_CLOSE:
+				if (c == ']') {
+					depth--;
+					state = AFTER;
+					continue;
+				}
+				// fall through
+			case VALUE:
+				if (c == '{' || c == '[') {
+					if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+					stack[depth++] = c == '{' ? new HashSet<String>() : null;
+					state = c == '{' ? KEY_OR_CLOSE : VALUE_OR_CLOSE;
+					continue;
+				}
+				if (c == '"') {
+					i = endOfString(json, i, htmlSafe);
+					if (i == -1) return false;
+				} else {
+					int j = i;
+					while (j < n && ",]}:".indexOf(json.charAt(j)) == -1) {
+						j++;
+					}
+					String word = json.substring(i, j);
+					if (word.equals("null")) {
+						if ( ! serializeNulls && depth != 0 && stack[depth - 1] != null) return false;
+					} else if ( ! word.equals("true") && ! word.equals("false") && ! isJsonNumber(word)) {
+						return false;
+					}
+					i = j - 1;
+				}
+				state = AFTER;
+				continue;
+			case KEY_OR_CLOSE:
+				if (c == '}') {
+					depth--;
+					state = AFTER;
+					continue;
+				}
+				// fall through
+			case KEY:
+				if (c != '"') return false;
+				int end = endOfString(json, i, htmlSafe);
+				if (end == -1) return false;
+				if ( ! ((Set<String>) stack[depth - 1]).add(json.substring(i, end + 1))) {
+					// a duplicate, which a JsonObject would drop
+					return false;
+				}
+				i = end;
+				state = COLON;
+				continue;
+			case COLON:
+				if (c != ':') return false;
+				state = VALUE;
+				continue;
+			case AFTER:
+				if (depth == 0) return false;
+				boolean inObject = stack[depth - 1] != null;
+				if (c == ',') {
+					state = inObject ? KEY : VALUE;
+				} else if (c == (inObject ? '}' : ']')) {
+					depth--;
+				} else {
+					return false;
+				}
+				continue;
+			default:
+				throw new IllegalStateException();
+			}
+		}
+		return depth == 0 && state == AFTER;
+	}
+
+	/**
+	 * @param quote offset of the opening "
+	 * @return offset of the closing ", or -1 if the string is unterminated or not escaped as JsonWriter would
+	 */
+	private static int endOfString(String json, int quote, boolean htmlSafe) {
+		int n = json.length();
+		for (int i = quote + 1; i < n; i++) {
+			char c = json.charAt(i);
+			if (c == '"') return i;
+			if (c != '\\') {
+				// must not need escaping
+				if (escape(c, htmlSafe) != null) return -1;
+				continue;
+			}
+			if (i + 1 == n) return -1;
+			char e = json.charAt(i + 1);
+			char decoded;
+			int len;
+			switch (e) {
+			case '"': decoded = '"'; len = 2; break;
+			case '\\': decoded = '\\'; len = 2; break;
+			case 't': decoded = '\t'; len = 2; break;
+			case 'b': decoded = '\b'; len = 2; break;
+			case 'n': decoded = '\n'; len = 2; break;
+			case 'r': decoded = '\r'; len = 2; break;
+			case 'f': decoded = '\f'; len = 2; break;
+			case 'u':
+				if (i + 6 > n) return -1;
+				try {
+					decoded = (char) Integer.parseInt(json.substring(i + 2, i + 6), 16);
+				} catch (NumberFormatException ex) {
+					return -1;
+				}
+				len = 6;
+				break;
+			default:
+				// e.g. \/ which the writer would not escape
+				return -1;
+			}
+			// the writer must write this char with exactly this escape
+			String escaped = escape(decoded, htmlSafe);
+			if (escaped == null || escaped.length() != len || ! json.startsWith(escaped, i)) return -1;
+			i += len - 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return how JsonWriter escapes c, or null if it writes c as-is
+	 */
+	private static String escape(char c, boolean htmlSafe) {
+		switch (c) {
+		case '"': return "\\\"";
+		case '\\': return "\\\\";
+		case '\t': return "\\t";
+		case '\b': return "\\b";
+		case '\n': return "\\n";
+		case '\r': return "\\r";
+		case '\f': return "\\f";
+		case '\u2028': return "\\u2028";
+		case '\u2029': return "\\u2029";
+		case '<': case '>': case '&': case '=': case '\'':
+			return htmlSafe ? String.format("\\u%04x", (int) c) : null;
+		default:
+			return c < 0x20 ? String.format("\\u%04x", (int) c) : null;
+		}
+	}
+}
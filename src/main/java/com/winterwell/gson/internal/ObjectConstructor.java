@@ -41,5 +41,13 @@ public interface ObjectConstructor<T> {
 	  // no reflection here - but see AObjectCOnstructor
 	  throw new UnsupportedOperationException("No string constructor for "+getType()+". Input was: "+string);	  
   }
+
+  /**
+   * @return true if {@link #construct()} bypasses constructors (via {@link UnsafeAllocator}),
+   * so field initialisers will not run.
+   */
+  default boolean isUnsafe() {
+	  return false;
+  }
   
 }
\ No newline at end of file
@@ -38,11 +38,18 @@ public final class Streams {
    * Takes a reader in any state and returns the next value as a JsonElement.
    */
   public static JsonElement parse(JsonReader reader) throws JsonParseException {
+    return parse(reader, false);
+  }
+
+  /**
+   * @param compact If true, build a memory-compact tree -- see {@link TypeAdapters#JSON_ELEMENT_COMPACT}
+   */
+  public static JsonElement parse(JsonReader reader, boolean compact) throws JsonParseException {
     boolean isEmpty = true;
     try {
       reader.peek();
       isEmpty = false;
-      return TypeAdapters.JSON_ELEMENT.read(reader);
+      return (compact ? TypeAdapters.JSON_ELEMENT_COMPACT : TypeAdapters.JSON_ELEMENT).read(reader);
     } catch (EOFException e) {
       /*
        * For compatibility with JSON 1.5 and earlier, we return a JsonNull for
@@ -26,8 +26,10 @@ import java.util.TimeZone;
 
 import com.winterwell.gson.Gson;
 import com.winterwell.gson.JsonSyntaxException;
+import com.winterwell.gson.KeyedTypeAdapterFactory;
 import com.winterwell.gson.TypeAdapter;
 import com.winterwell.gson.TypeAdapterFactory;
+import com.winterwell.gson.internal.ISO8601;
 import com.winterwell.gson.reflect.TypeToken;
 import com.winterwell.gson.stream.JsonReader;
 import com.winterwell.gson.stream.JsonToken;
@@ -36,11 +38,19 @@ import com.winterwell.gson.stream.JsonWriter;
 /**
  * Adapter for Date. Although this class appears stateless, it is not.
  * DateFormat captures its time zone and locale when it is created, which gives
- * this class state. DateFormat isn't thread safe either, so this class has to
- * synchronize its read and write methods.
+ * this class state. DateFormat isn't thread safe either, so each thread gets
+ * its own copies (rather than locking). ISO-8601 input takes a fast path.
  */
 public final class DateTypeAdapter extends TypeAdapter<Date> {
-	public static final TypeAdapterFactory FACTORY = new TypeAdapterFactory() {
+	public static final TypeAdapterFactory FACTORY = new KeyedTypeAdapterFactory() {
+		public Class<?>[] getRawTypes() {
+			return new Class<?>[] { Date.class };
+		}
+
+		public Class<?> getHierarchyType() {
+			return null;
+		}
+
 		@SuppressWarnings("unchecked")
 		// we use a runtime check to make sure the 'T's equal
 		public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
@@ -49,11 +59,12 @@ public final class DateTypeAdapter extends TypeAdapter<Date> {
 		}
 	};
 
-	private final DateFormat enUsFormat = DateFormat.getDateTimeInstance(
-			DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US);
-	private final DateFormat localFormat = DateFormat.getDateTimeInstance(
-			DateFormat.DEFAULT, DateFormat.DEFAULT);
-	private final DateFormat iso8601Format = buildIso8601Format();
+	private final ThreadLocal<DateFormat> enUsFormat = ThreadLocal.withInitial(
+			() -> DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US));
+	private final ThreadLocal<DateFormat> localFormat = ThreadLocal.withInitial(
+			() -> DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT));
+	private final ThreadLocal<DateFormat> iso8601Format = ThreadLocal.withInitial(
+			DateTypeAdapter::buildIso8601Format);
 
 	private static DateFormat buildIso8601Format() {
 		DateFormat iso8601Format = new SimpleDateFormat(
@@ -71,30 +82,35 @@ public final class DateTypeAdapter extends TypeAdapter<Date> {
 		return deserializeToDate(in.nextString());
 	}
 
-	private synchronized Date deserializeToDate(String json) {
+	private Date deserializeToDate(String json) {
+		long ut = ISO8601.parseMillis(json);
+		if (ut != ISO8601.NOT_HANDLED) {
+			return new Date(ut);
+		}
 		try {
-			return localFormat.parse(json);
+			return localFormat.get().parse(json);
 		} catch (ParseException ignored) {
 		}
 		try {
-			return enUsFormat.parse(json);
+			return enUsFormat.get().parse(json);
 		} catch (ParseException ignored) {
 		}
 		try {
-			return iso8601Format.parse(json);
+			// a lenient fallback for odd ISO-8601
+			return iso8601Format.get().parse(json);
 		} catch (ParseException e) {
 			throw new JsonSyntaxException(json, e);
 		}
 	}
 
 	@Override
-	public synchronized void write(JsonWriter out, Date value)
+	public void write(JsonWriter out, Date value)
 			throws IOException {
 		if (value == null) {
 			out.nullValue();
 			return;
 		}
-		String dateFormatAsString = enUsFormat.format(value);
+		String dateFormatAsString = enUsFormat.get().format(value);
 		out.value(dateFormatAsString);
 	}
 }
@@ -1,35 +1,160 @@
 package com.winterwell.gson.internal.bind;
 
 import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
 
 import com.winterwell.gson.Gson;
+import com.winterwell.gson.JsonSyntaxException;
+import com.winterwell.gson.KeyedTypeAdapterFactory;
 import com.winterwell.gson.TypeAdapter;
+import com.winterwell.gson.TypeAdapterFactory;
+import com.winterwell.gson.internal.$Gson$Types;
+import com.winterwell.gson.reflect.TypeToken;
 import com.winterwell.gson.stream.JsonReader;
 import com.winterwell.gson.stream.JsonWriter;
 import com.winterwell.utils.containers.ArrayMap;
 
 /**
  * Handle EnumMaps -- need to store the enum class if we want to deserialise.
+ * If the type is known (e.g. a field of type EnumMap&lt;Metric,Long&gt;), keys and values are 
+ * read straight into the map with the declared types.
  * Testedby: {@link EnumMapTypeAdapterTest}
  * @author Daniel
  */
-public class EnumMapTypeAdapter extends TypeAdapter<EnumMap> {
+public class EnumMapTypeAdapter<K extends Enum<K>, V> extends TypeAdapter<EnumMap<K, V>> {
+	
+	/**
+	 * Matches EnumMap (raw or generic). Uses the Gson it is given (rather than binding one up-front) 
+	 * so that it can sit in a shared factory chain.
+	 */
+	public static final TypeAdapterFactory FACTORY = new KeyedTypeAdapterFactory() {
+		public Class<?>[] getRawTypes() {
+			return new Class<?>[] { EnumMap.class };
+		}
+
+		public Class<?> getHierarchyType() {
+			return null;
+		}
+
+		@SuppressWarnings("unchecked")
+		public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+			if (typeToken.getRawType() != EnumMap.class) return null;
+			Class<?> keyClass = null;
+			Type valueType = null;
+			if (typeToken.getType() instanceof ParameterizedType) {
+				Type[] kv = ((ParameterizedType) typeToken.getType()).getActualTypeArguments();
+				Class<?> k = $Gson$Types.getRawType(kv[0]);
+				if (k.isEnum()) keyClass = k;
+				if (kv[1] != Object.class && $Gson$Types.getRawType(kv[1]) != Object.class) valueType = kv[1];
+			}
+			return (TypeAdapter<T>) newAdapter(gson, keyClass, valueType);
+		}
+	};
+
+	private static <E extends Enum<E>> EnumMapTypeAdapter<E, Object> newAdapter(Gson gson, Class<?> keyClass, Type valueType) {
+		Class<E> e = asEnumClass(keyClass);
+		return new EnumMapTypeAdapter<E, Object>(gson, e, valueType);
+	}
+
+	/**
+	 * The one unchecked step for keys: c must be an enum class, or null.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <E extends Enum<E>> Class<E> asEnumClass(Class<?> c) {
+		return (Class<E>) c;
+	}
+
+	private static <E extends Enum<E>> EnumInfo<E> newEnumInfo(Class<?> type) {
+		Class<E> e = asEnumClass(type);
+		return new EnumInfo<E>(e);
+	}
+
+	/**
+	 * Per enum class: the constants, names by ordinal, and a name lookup.
+	 */
+	static final class EnumInfo<E extends Enum<E>> {
+		final E[] constants;
+		final String[] names;
+		final Map<String, E> byName;
+
+		EnumInfo(Class<E> e) {
+			constants = e.getEnumConstants();
+			names = new String[constants.length];
+			byName = new HashMap<String, E>(constants.length * 2);
+			for (E c : constants) {
+				names[c.ordinal()] = c.name();
+				byName.put(c.name(), c);
+			}
+		}
+
+		E valueOf(String name, JsonReader in) {
+			E e = byName.get(name);
+			if (e == null) {
+				throw new JsonSyntaxException("Unknown " + constants.getClass().getComponentType().getName() + " " + name + " at " + in.getPath());
+			}
+			return e;
+		}
+	}
+
+	private static final ClassValue<EnumInfo<?>> ENUM_INFO = new ClassValue<EnumInfo<?>>() {
+		@Override
+		protected EnumInfo<?> computeValue(Class<?> type) {
+			return newEnumInfo(type);
+		}
+	};
+
+	@SuppressWarnings("unchecked")
+	private static <E extends Enum<E>> EnumInfo<E> enumInfo(Class<E> e) {
+		return (EnumInfo<E>) ENUM_INFO.get(e);
+	}
+	
     private final Gson gson;
 	private final String eProp;
+	/**
+	 * null if unknown (a raw EnumMap)
+	 */
+	private final Class<K> keyClass;
+	/**
+	 * null if unknown
+	 */
+	private final TypeAdapter<V> valueReader;
+	/**
+	 * null if unknown
+	 */
+	private final TypeAdapter<V> valueWriter;
 
     public EnumMapTypeAdapter(Gson gson) {
+    	this(gson, null, null);
+    }
+
+    /**
+     * @param keyClass Can be null
+     * @param valueType Can be null
+     */
+    @SuppressWarnings("unchecked")
+    public EnumMapTypeAdapter(Gson gson, Class<K> keyClass, Type valueType) {
         super();
         this.gson = gson;
         // This adapter only makes sense if we can save the class details
         assert gson.getClassProperty()!=null;
         eProp = gson.getClassProperty()+".enum";
+        this.keyClass = keyClass;
+        if (valueType == null) {
+        	valueReader = null;
+        	valueWriter = null;
+        } else {
+        	valueReader = (TypeAdapter<V>) gson.getAdapter(TypeToken.get(valueType));
+        	// handle sub-classes
+        	valueWriter = new TypeAdapterRuntimeTypeWrapper<V>(gson, valueReader, valueType);
+        }
     }
 
     @Override
-    public void write(JsonWriter out, EnumMap value) throws IOException {
+    public void write(JsonWriter out, EnumMap<K, V> value) throws IOException {
         // Loop check
         boolean ok = out.beginLoopCheck(gson.getLoopPolicy(), value);
         if (!ok) {
@@ -41,22 +166,35 @@ public class EnumMapTypeAdapter extends TypeAdapter<EnumMap> {
         // class and enum-class
         out.name(gson.getClassProperty());
         out.value(EnumMap.class.getCanonicalName());
-        Set keys = value.keySet();
-        if (keys.isEmpty()) {
+        if (value.isEmpty()) {
             out.endObject();
             out.endLoopCheck(value);
             return;
         }
-        Class eClass = keys.iterator().next().getClass();
-        out.name(gson.getClassProperty() + ".enum");
-        out.value(eClass.getCanonicalName());
+        K first = value.keySet().iterator().next();
+        // NB: getDeclaringClass() as constants with bodies are anonymous sub-classes
+        Class<K> eClass = keyClass != null? keyClass : first.getDeclaringClass();
+        out.name(eProp);
+        String eId = gson.getTypeId(eClass);
+        out.value(eId==null? eClass.getCanonicalName() : eId);
 
-        for(Object key : keys) {
-            Object v = value.get(key);
+        String[] names = enumInfo(eClass).names;
+        // for untyped values: most maps have one value class, so remember the last adapter
+        Class<?> lastClass = null;
+        TypeAdapter<Object> lastAdapter = null;
+        for(Map.Entry<K, V> e : value.entrySet()) {
+            V v = e.getValue();
             if (v==null) continue;
-            TypeAdapter adapter = gson.getAdapter(v.getClass());
-            out.name(key.toString());
-            adapter.write(out, v);
+            out.name(names[e.getKey().ordinal()]);
+            if (valueWriter != null) {
+            	valueWriter.write(out, v);
+            	continue;
+            }
+            if (v.getClass() != lastClass) {
+            	lastClass = v.getClass();
+            	lastAdapter = untypedAdapter(lastClass);
+            }
+            lastAdapter.write(out, v);
         }
 
         // Done
@@ -64,17 +202,33 @@ public class EnumMapTypeAdapter extends TypeAdapter<EnumMap> {
         out.endLoopCheck(value);
     }
 
+    /**
+     * For untyped values, which are only ever written from / read into an Object slot.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> TypeAdapter<T> untypedAdapter(Class<?> klass) {
+    	return (TypeAdapter<T>) gson.getAdapter(klass);
+    }
+
     @Override
-    public EnumMap read(JsonReader in) throws IOException {
-    	Map<String,Object> temp = new ArrayMap();
+    public EnumMap<K, V> read(JsonReader in) throws IOException {
     	in.beginObject();    	
-		Class e = null;
+		Class<K> e = keyClass;
+		EnumMap<K, V> map = e==null? null : new EnumMap<K, V>(e);
+		EnumInfo<K> info = e==null? null : enumInfo(e);
+		TypeAdapter<V> valueAdapter = valueReader!=null? valueReader : untypedAdapter(Object.class);
+		// only used if the enum class comes after the entries (not the order we write)
+		Map<String, V> temp = null;
     	while(in.hasNext()) {
     		String name = in.nextName();
     		// Is it the enum prop?
     		if (eProp.equals(name)) {
     			String _class = in.nextString();
-				e = gson.getClass(_class);
+    			if (e==null) {
+    				e = asEnumClass(gson.getClass(_class));
+    				map = new EnumMap<K, V>(e);
+    				info = enumInfo(e);
+    			}
     			continue;
     		}
     		if (gson.getClassProperty().equals(name)) {
@@ -82,18 +236,21 @@ public class EnumMapTypeAdapter extends TypeAdapter<EnumMap> {
     			continue;
     		}
     		// recursively read the value
-    		Object value = gson.fromJson(in, Object.class);
-    		temp.put(name, value);
+    		V value = valueAdapter.read(in);
+    		if (map != null) {
+    			map.put(info.valueOf(name, in), value);
+    		} else {
+    			if (temp==null) temp = new ArrayMap<String, V>();
+    			temp.put(name, value);
+    		}
     	}
     	in.endObject();
     	
-    	if (e==null) throw new IOException("No enum class info in: "+temp);
-		
-		EnumMap map = new EnumMap(e);		
-		for(String k : temp.keySet()) {
-			Object v = temp.get(k);
-            Enum eKey = Enum.valueOf(e, k);
-			map.put(eKey, v);
+    	if (e==null) throw new IOException("No enum class info in: "+temp+" at "+in.getPath());
+		if (temp != null) {
+			for(Map.Entry<String, V> kv : temp.entrySet()) {
+				map.put(info.valueOf(kv.getKey(), in), kv.getValue());
+			}
 		}
 		return map;
     }
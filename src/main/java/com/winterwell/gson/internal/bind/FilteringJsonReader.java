@@ -0,0 +1,215 @@
+package com.winterwell.gson.internal.bind;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import com.winterwell.gson.internal.JsonReaderInternalAccess;
+import com.winterwell.gson.internal.Streams;
+import com.winterwell.gson.stream.JsonReader;
+import com.winterwell.gson.stream.JsonToken;
+
+/**
+ * Streams another reader, rewriting names and/or string values as they go by.
+ * Numbers, booleans and skipped values pass through untouched.
+ * @see com.winterwell.gson.RegexFirstAdapter
+ */
+public final class FilteringJsonReader extends JsonReader {
+
+	private static final Reader UNREADABLE_READER = new Reader() {
+		@Override
+		public int read(char[] buffer, int offset, int count) throws IOException {
+			throw new AssertionError();
+		}
+
+		@Override
+		public void close() throws IOException {
+			throw new AssertionError();
+		}
+	};
+
+	private final JsonReader in;
+	private final UnaryOperator<String> nameFilter;
+	private final UnaryOperator<String> stringFilter;
+	/**
+	 * true if the current NAME token is being read as a string value (for map keys)
+	 */
+	private boolean promoted;
+
+	/**
+	 * @param in
+	 * @param nameFilter Can be null for no-change
+	 * @param stringFilter Can be null for no-change
+	 */
+	public FilteringJsonReader(JsonReader in, UnaryOperator<String> nameFilter, UnaryOperator<String> stringFilter) {
+		super(UNREADABLE_READER);
+		this.in = in;
+		this.nameFilter = nameFilter;
+		this.stringFilter = stringFilter;
+		setLenient(in.isLenient());
+	}
+
+	public UnaryOperator<String> getNameFilter() {
+		return nameFilter;
+	}
+
+	public UnaryOperator<String> getStringFilter() {
+		return stringFilter;
+	}
+
+	@Override
+	public JsonToken peek() throws IOException {
+		return in.peek();
+	}
+
+	@Override
+	public boolean hasNext() throws IOException {
+		return in.hasNext();
+	}
+
+	@Override
+	public void beginArray() throws IOException {
+		in.beginArray();
+	}
+
+	@Override
+	public void endArray() throws IOException {
+		in.endArray();
+	}
+
+	@Override
+	public void beginObject() throws IOException {
+		in.beginObject();
+	}
+
+	@Override
+	public void endObject() throws IOException {
+		in.endObject();
+	}
+
+	@Override
+	public String nextName() throws IOException {
+		String name = in.nextName();
+		return nameFilter == null ? name : nameFilter.apply(name);
+	}
+
+	@Override
+	public String nextString() throws IOException {
+		if (promoted) {
+			// a map key
+			promoted = false;
+			String name = in.nextString();
+			return nameFilter == null ? name : nameFilter.apply(name);
+		}
+		// nextString() also reads numbers -- leave those be
+		if (stringFilter == null || in.peek() != JsonToken.STRING) {
+			return in.nextString();
+		}
+		return stringFilter.apply(in.nextString());
+	}
+
+	@Override
+	public boolean nextBoolean() throws IOException {
+		return in.nextBoolean();
+	}
+
+	@Override
+	public void nextNull() throws IOException {
+		in.nextNull();
+	}
+
+	@Override
+	public Double nextDouble() throws IOException {
+		promoted = false;
+		return in.nextDouble();
+	}
+
+	@Override
+	public Number nextNumber() throws IOException {
+		promoted = false;
+		return in.nextNumber();
+	}
+
+	@Override
+	public Long nextLong() throws IOException {
+		promoted = false;
+		return in.nextLong();
+	}
+
+	@Override
+	public Integer nextInt() throws IOException {
+		promoted = false;
+		return in.nextInt();
+	}
+
+	@Override
+	public void skipValue() throws IOException {
+		promoted = false;
+		in.skipValue();
+	}
+
+	/**
+	 * Goes via a tree, so the filters still apply.
+	 */
+	@Override
+	public String nextRawValue() throws IOException {
+		return Streams.parse(this).toString();
+	}
+
+	/**
+	 * For map keys, see {@link JsonReaderInternalAccess}
+	 */
+	public void promoteNameToValue() throws IOException {
+		JsonReaderInternalAccess.INSTANCE.promoteNameToValue(in);
+		promoted = true;
+	}
+
+	@Override
+	public JsonReader getShortTermCopy() throws IOException {
+		FilteringJsonReader copy = new FilteringJsonReader(in.getShortTermCopy(), nameFilter, stringFilter);
+		copy.promoted = promoted;
+		return copy;
+	}
+
+	@Override
+	public void reset() throws IOException {
+		in.reset();
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	@Override
+	public String getPath() {
+		return in.getPath();
+	}
+
+	@Override
+	public Object getIdValue(String ref) {
+		return in.getIdValue(ref);
+	}
+
+	@Override
+	public void putIdValue(String id, Object value) {
+		in.putIdValue(id, value);
+	}
+
+	@Override
+	public void addLateBinding(Object obj, Field f, int index, LateBinding lb) {
+		in.addLateBinding(obj, f, index, lb);
+	}
+
+	@Override
+	public List<LBRow> getLateBindings() {
+		return in.getLateBindings();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + in + "]";
+	}
+}
@@ -0,0 +1,20 @@
+package com.winterwell.gson.internal.bind;
+
+import java.util.List;
+
+import com.winterwell.gson.internal.ObjectConstructor;
+import com.winterwell.gson.reflect.TypeToken;
+
+/**
+ * A peek inside the field-by-field reflection adapter, e.g. for {@link com.winterwell.gson.Gson#warmUp(java.util.Collection)}.
+ */
+public interface IReflectiveTypeAdapter {
+
+	ObjectConstructor<?> getConstructor();
+
+	/**
+	 * @return The (resolved) types of the bound fields.
+	 */
+	List<TypeToken<?>> getFieldTypes();
+
+}
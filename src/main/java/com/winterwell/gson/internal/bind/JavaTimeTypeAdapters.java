@@ -0,0 +1,125 @@
+package com.winterwell.gson.internal.bind;
+
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+
+import com.winterwell.gson.Gson;
+import com.winterwell.gson.JsonSyntaxException;
+import com.winterwell.gson.KeyedTypeAdapterFactory;
+import com.winterwell.gson.TypeAdapter;
+import com.winterwell.gson.TypeAdapterFactory;
+import com.winterwell.gson.internal.ISO8601;
+import com.winterwell.gson.reflect.TypeToken;
+import com.winterwell.gson.stream.JsonReader;
+import com.winterwell.gson.stream.JsonToken;
+import com.winterwell.gson.stream.JsonWriter;
+
+/**
+ * java.time Instant, LocalDate and OffsetDateTime as ISO-8601 strings.
+ * These classes are immutable and thread-safe, so unlike the Date adapters, no locking is needed.
+ */
+public final class JavaTimeTypeAdapters {
+
+	private JavaTimeTypeAdapters() {
+	}
+
+	public static final TypeAdapter<Instant> INSTANT = new TypeAdapter<Instant>() {
+		@Override
+		public Instant read(JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			if (in.peek() == JsonToken.NUMBER) {
+				// epoch millis
+				return Instant.ofEpochMilli(in.nextLong());
+			}
+			String s = in.nextString();
+			int[] nanos = new int[1];
+			long secs = ISO8601.parse(s, nanos);
+			if (secs != ISO8601.NOT_HANDLED) {
+				return Instant.ofEpochSecond(secs, nanos[0]);
+			}
+			try {
+				return OffsetDateTime.parse(s).toInstant();
+			} catch (DateTimeException e) {
+				throw new JsonSyntaxException(s, e);
+			}
+		}
+
+		@Override
+		public void write(JsonWriter out, Instant value) throws IOException {
+			out.value(value == null ? null : value.toString());
+		}
+	};
+
+	public static final TypeAdapter<LocalDate> LOCAL_DATE = new TypeAdapter<LocalDate>() {
+		@Override
+		public LocalDate read(JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			String s = in.nextString();
+			if (s.length() == 10) {
+				long secs = ISO8601.parse(s, new int[1]);
+				if (secs != ISO8601.NOT_HANDLED) {
+					return LocalDate.ofEpochDay(Math.floorDiv(secs, 86400));
+				}
+			}
+			try {
+				return LocalDate.parse(s.length() > 10 && s.charAt(10) == 'T' ? s.substring(0, 10) : s);
+			} catch (DateTimeException e) {
+				throw new JsonSyntaxException(s, e);
+			}
+		}
+
+		@Override
+		public void write(JsonWriter out, LocalDate value) throws IOException {
+			out.value(value == null ? null : value.toString());
+		}
+	};
+
+	public static final TypeAdapter<OffsetDateTime> OFFSET_DATE_TIME = new TypeAdapter<OffsetDateTime>() {
+		@Override
+		public OffsetDateTime read(JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			String s = in.nextString();
+			try {
+				return OffsetDateTime.parse(s);
+			} catch (DateTimeException e) {
+				throw new JsonSyntaxException(s, e);
+			}
+		}
+
+		@Override
+		public void write(JsonWriter out, OffsetDateTime value) throws IOException {
+			out.value(value == null ? null : value.toString());
+		}
+	};
+
+	public static final TypeAdapterFactory FACTORY = new KeyedTypeAdapterFactory() {
+		public Class<?>[] getRawTypes() {
+			return new Class<?>[] { Instant.class, LocalDate.class, OffsetDateTime.class };
+		}
+
+		public Class<?> getHierarchyType() {
+			return null;
+		}
+
+		@SuppressWarnings("unchecked")
+		public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+			Class<? super T> rawType = typeToken.getRawType();
+			if (rawType == Instant.class) return (TypeAdapter<T>) INSTANT;
+			if (rawType == LocalDate.class) return (TypeAdapter<T>) LOCAL_DATE;
+			if (rawType == OffsetDateTime.class) return (TypeAdapter<T>) OFFSET_DATE_TIME;
+			return null;
+		}
+	};
+}
@@ -251,6 +251,19 @@ public final class JsonTreeReader extends JsonReader {
 		}
 	}
 
+	/**
+	 * There is no source text here, so this re-serialises the element.
+	 */
+	@Override
+	public String nextRawValue() throws IOException {
+		JsonToken token = peek();
+		if (token == JsonToken.NAME || token == JsonToken.END_OBJECT
+				|| token == JsonToken.END_ARRAY || token == JsonToken.END_DOCUMENT) {
+			throw new IllegalStateException("Expected a value but was " + token);
+		}
+		return popStack().toString();
+	}
+
 	@Override
 	public String toString() {
 		return getClass().getSimpleName();
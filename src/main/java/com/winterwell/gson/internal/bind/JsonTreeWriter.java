@@ -91,6 +91,7 @@ public final class JsonTreeWriter extends JsonWriter {
 	}
 
 	private void put(JsonElement value) {
+		takeNextObjectLabel(); // only for objects (see beginObject())
 		if (pendingName != null) {
 			if (!value.isJsonNull() || getSerializeNulls()) {
 				JsonObject object = (JsonObject) peek();
@@ -132,9 +133,13 @@ public final class JsonTreeWriter extends JsonWriter {
 
 	@Override
 	public JsonWriter beginObject() throws IOException {
+		String[] label = takeNextObjectLabel();
 		JsonObject object = new JsonObject();
 		put(object);
 		stack.add(object);
+		if (label != null) {
+			object.addProperty(label[0], label[1]);
+		}
 		return this;
 	}
 
@@ -0,0 +1,123 @@
+package com.winterwell.gson.internal.bind;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import com.winterwell.gson.RawJson;
+import com.winterwell.gson.stream.JsonWriter;
+
+/**
+ * Catches a map key written by its adapter: either as the String to use for a property name,
+ * or noting that it is complex (an object or array) -- without building a JsonElement.
+ * Reusable via {@link #reset()}. 
+ * @see MapTypeAdapterFactory
+ */
+final class KeyStringWriter extends JsonWriter {
+
+	private String key;
+	private boolean complex;
+	private int depth;
+
+	KeyStringWriter() {
+		super(Writer.nullWriter());
+	}
+
+	void reset() {
+		key = null;
+		complex = false;
+		depth = 0;
+	}
+
+	/**
+	 * @return the key as a property name, as per JsonElement toString rules (e.g. a null key is "null")
+	 */
+	String getKey() {
+		return key;
+	}
+
+	boolean isComplex() {
+		return complex;
+	}
+
+	private JsonWriter setKey(String k) {
+		if (depth == 0) key = k;
+		return this;
+	}
+
+	@Override
+	public JsonWriter beginArray() throws IOException {
+		complex = true;
+		depth++;
+		return this;
+	}
+
+	@Override
+	public JsonWriter endArray() throws IOException {
+		depth--;
+		return this;
+	}
+
+	@Override
+	public JsonWriter beginObject() throws IOException {
+		complex = true;
+		depth++;
+		return this;
+	}
+
+	@Override
+	public JsonWriter endObject() throws IOException {
+		depth--;
+		return this;
+	}
+
+	@Override
+	public JsonWriter name(String name) throws IOException {
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(String value) throws IOException {
+		return setKey(value == null ? "null" : value);
+	}
+
+	@Override
+	public JsonWriter raw(RawJson value) throws IOException {
+		return setKey(value == null ? "null" : value.json);
+	}
+
+	@Override
+	public JsonWriter nullValue() throws IOException {
+		return setKey("null");
+	}
+
+	@Override
+	public JsonWriter value(boolean value) throws IOException {
+		return setKey(Boolean.toString(value));
+	}
+
+	@Override
+	public JsonWriter value(double value) throws IOException {
+		if (!isLenient() && (Double.isNaN(value) || Double.isInfinite(value))) {
+			throw new IllegalArgumentException("JSON forbids NaN and infinities: " + value);
+		}
+		return setKey(Double.toString(value));
+	}
+
+	@Override
+	public JsonWriter value(long value) throws IOException {
+		return setKey(Long.toString(value));
+	}
+
+	@Override
+	public JsonWriter value(Number value) throws IOException {
+		return setKey(String.valueOf(value));
+	}
+
+	@Override
+	public void flush() throws IOException {
+	}
+
+	@Override
+	public void close() throws IOException {
+	}
+}
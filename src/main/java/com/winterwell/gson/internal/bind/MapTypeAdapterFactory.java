@@ -18,13 +18,9 @@ package com.winterwell.gson.internal.bind;
 
 import java.io.IOException;
 import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 
 import com.winterwell.gson.Gson;
-import com.winterwell.gson.JsonElement;
-import com.winterwell.gson.JsonPrimitive;
 import com.winterwell.gson.JsonSyntaxException;
 import com.winterwell.gson.KLoopPolicy;
 import com.winterwell.gson.TypeAdapter;
@@ -33,7 +29,6 @@ import com.winterwell.gson.internal.$Gson$Types;
 import com.winterwell.gson.internal.ConstructorConstructor;
 import com.winterwell.gson.internal.JsonReaderInternalAccess;
 import com.winterwell.gson.internal.ObjectConstructor;
-import com.winterwell.gson.internal.Streams;
 import com.winterwell.gson.reflect.TypeToken;
 import com.winterwell.gson.stream.JsonReader;
 import com.winterwell.gson.stream.JsonToken;
@@ -255,34 +250,36 @@ public final class MapTypeAdapterFactory implements TypeAdapterFactory {
 				return;
 			}
 
-			boolean hasComplexKeys = false;
-			List<JsonElement> keys = new ArrayList<JsonElement>(map.size());
-
-			List<V> values = new ArrayList<V>(map.size());
-			for (Map.Entry<K, V> entry : map.entrySet()) {
-				JsonElement keyElement = keyTypeAdapter.toJsonTree(entry
-						.getKey());
-				keys.add(keyElement);
-				values.add(entry.getValue());
-				hasComplexKeys |= keyElement.isJsonArray()
-						|| keyElement.isJsonObject();
+			// Which shape? Write each key to a string (stopping at the first complex one) 
+			// -- without building JsonElements, and so each key is only written once.
+			KeyStringWriter keyWriter = new KeyStringWriter();
+			String[] names = new String[map.size()];
+			int n = 0;
+			for (K key : map.keySet()) {
+				keyWriter.reset();
+				keyTypeAdapter.write(keyWriter, key);
+				if (keyWriter.isComplex()) {
+					names = null;
+					break;
+				}
+				names[n++] = keyWriter.getKey();
 			}
 
-			if (hasComplexKeys) {
+			if (names == null) {
 				out.beginArray();
-				for (int i = 0; i < keys.size(); i++) {
+				for (Map.Entry<K, V> entry : map.entrySet()) {
 					out.beginArray(); // entry array
-					Streams.write(keys.get(i), out);
-					valueTypeAdapter.write(out, values.get(i));
+					keyTypeAdapter.write(out, entry.getKey());
+					valueTypeAdapter.write(out, entry.getValue());
 					out.endArray();
 				}
 				out.endArray();
 			} else {
 				out.beginObject();
-				for (int i = 0; i < keys.size(); i++) {
-					JsonElement keyElement = keys.get(i);
-					out.name(keyToString(keyElement));
-					valueTypeAdapter.write(out, values.get(i));
+				int i = 0;
+				for (V value : map.values()) {
+					out.name(names[i++]);
+					valueTypeAdapter.write(out, value);
 				}
 				out.endObject();
 			}
@@ -290,24 +287,5 @@ public final class MapTypeAdapterFactory implements TypeAdapterFactory {
 				out.endLoopCheck(map);
 			}
 		}
-
-		private String keyToString(JsonElement keyElement) {
-			if (keyElement.isJsonPrimitive()) {
-				JsonPrimitive primitive = keyElement.getAsJsonPrimitive();
-				if (primitive.isNumber()) {
-					return String.valueOf(primitive.getAsNumber());
-				} else if (primitive.isBoolean()) {
-					return Boolean.toString(primitive.getAsBoolean());
-				} else if (primitive.isString()) {
-					return primitive.getAsString();
-				} else {
-					throw new AssertionError();
-				}
-			} else if (keyElement.isJsonNull()) {
-				return "null";
-			} else {
-				throw new AssertionError();
-			}
-		}
 	}
 }
@@ -22,8 +22,11 @@ import java.util.List;
 import java.util.Map;
 
 import com.winterwell.gson.Gson;
+import com.winterwell.gson.KeyedTypeAdapterFactory;
 import com.winterwell.gson.TypeAdapter;
 import com.winterwell.gson.TypeAdapterFactory;
+import com.winterwell.gson.internal.CompactList;
+import com.winterwell.gson.internal.CompactMap;
 import com.winterwell.gson.internal.LinkedTreeMap;
 import com.winterwell.gson.reflect.TypeToken;
 import com.winterwell.gson.stream.JsonReader;
@@ -35,7 +38,15 @@ import com.winterwell.gson.stream.JsonWriter;
  * serialization and a primitive/Map/List on deserialization.
  */
 public final class ObjectTypeAdapter extends TypeAdapter<Object> {
-	public static final TypeAdapterFactory FACTORY = new TypeAdapterFactory() {
+	public static final TypeAdapterFactory FACTORY = new KeyedTypeAdapterFactory() {
+		public Class<?>[] getRawTypes() {
+			return new Class<?>[] { Object.class };
+		}
+
+		public Class<?> getHierarchyType() {
+			return null;
+		}
+
 		@SuppressWarnings("unchecked")
 		public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
 			if (type.getRawType() == Object.class) {
@@ -56,21 +67,25 @@ public final class ObjectTypeAdapter extends TypeAdapter<Object> {
 		JsonToken token = in.peek();
 		switch (token) {
 		case BEGIN_ARRAY:
-			List<Object> list = new ArrayList<Object>();
+			boolean compactList = gson.isCompactUntypedReads();
+			List<Object> list = compactList ? new CompactList() : new ArrayList<Object>();
 			in.beginArray();
 			while (in.hasNext()) {
 				list.add(read(in));
 			}
 			in.endArray();
+			if (compactList) ((CompactList) list).trimToSize();
 			return list;
 
 		case BEGIN_OBJECT:
-			Map<String, Object> map = new LinkedTreeMap<String, Object>();
+			boolean compact = gson.isCompactUntypedReads();
+			Map<String, Object> map = compact ? new CompactMap<String, Object>() : new LinkedTreeMap<String, Object>();
 			in.beginObject();
 			while (in.hasNext()) {
 				map.put(in.nextName(), read(in));
 			}
 			in.endObject();
+			if (compact) ((CompactMap) map).trimToSize();
 			return map;
 
 		case STRING:
@@ -0,0 +1,418 @@
+package com.winterwell.gson.internal.bind;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+
+import com.winterwell.gson.Gson;
+import com.winterwell.gson.JsonSyntaxException;
+import com.winterwell.gson.KeyedTypeAdapterFactory;
+import com.winterwell.gson.TypeAdapter;
+import com.winterwell.gson.TypeAdapterFactory;
+import com.winterwell.gson.reflect.TypeToken;
+import com.winterwell.gson.stream.JsonReader;
+import com.winterwell.gson.stream.JsonToken;
+import com.winterwell.gson.stream.JsonWriter;
+
+/**
+ * byte[], int[], long[], float[] and double[] without boxing: reads go into a growable primitive
+ * buffer, instead of {@link ArrayTypeAdapter}'s list of boxed elements.
+ * <p>
+ * Optionally, arrays are written as an unpadded base64 string (numeric arrays as their big-endian bytes).
+ * Reads always accept either form, so a Gson without base64 switched on can still read the output.
+ *
+ * @author daniel
+ */
+public final class PrimitiveArrayTypeAdapters {
+
+	private PrimitiveArrayTypeAdapters() {
+	}
+
+	/**
+	 * @param serializeSpecialFloatingPointValues As per Gson: if false, NaN and infinity are an error.
+	 * @param base64Bytes Write byte[] as a base64 string
+	 * @param base64Numbers Write the numeric arrays as base64 strings
+	 */
+	public static TypeAdapterFactory factory(boolean serializeSpecialFloatingPointValues,
+			boolean base64Bytes, boolean base64Numbers)
+	{
+		return new Factory(serializeSpecialFloatingPointValues, base64Bytes, base64Numbers);
+	}
+
+	private static final class Factory implements KeyedTypeAdapterFactory {
+		private final TypeAdapter<byte[]> bytes;
+		private final TypeAdapter<int[]> ints;
+		private final TypeAdapter<long[]> longs;
+		private final TypeAdapter<float[]> floats;
+		private final TypeAdapter<double[]> doubles;
+
+		Factory(boolean special, boolean base64Bytes, boolean base64Numbers) {
+			bytes = new ByteArrayAdapter(base64Bytes);
+			ints = new IntArrayAdapter(base64Numbers);
+			longs = new LongArrayAdapter(base64Numbers);
+			floats = new FloatArrayAdapter(base64Numbers, special);
+			doubles = new DoubleArrayAdapter(base64Numbers, special);
+		}
+
+		public Class<?>[] getRawTypes() {
+			return new Class<?>[] { byte[].class, int[].class, long[].class, float[].class, double[].class };
+		}
+
+		public Class<?> getHierarchyType() {
+			return null;
+		}
+
+		@SuppressWarnings("unchecked")
+		public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+			Class<? super T> rawType = typeToken.getRawType();
+			if (rawType == byte[].class) return (TypeAdapter<T>) bytes;
+			if (rawType == int[].class) return (TypeAdapter<T>) ints;
+			if (rawType == long[].class) return (TypeAdapter<T>) longs;
+			if (rawType == float[].class) return (TypeAdapter<T>) floats;
+			if (rawType == double[].class) return (TypeAdapter<T>) doubles;
+			return null;
+		}
+	}
+
+	/**
+	 * Handles null, and the base64 string form. Sub-classes just do the json array.
+	 */
+	private static abstract class PrimitiveArrayAdapter<A> extends TypeAdapter<A> {
+		/** bytes per element */
+		private final int width;
+		private final boolean base64;
+
+		PrimitiveArrayAdapter(int width, boolean base64) {
+			this.width = width;
+			this.base64 = base64;
+		}
+
+		@Override
+		public final A read(JsonReader in) throws IOException {
+			JsonToken t = in.peek();
+			if (t == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			if (t == JsonToken.STRING) {
+				String s = in.nextString();
+				byte[] bs;
+				try {
+					bs = Base64.getDecoder().decode(s);
+				} catch (IllegalArgumentException e) {
+					throw new JsonSyntaxException("Not base64 at " + in.getPath(), e);
+				}
+				if (bs.length % width != 0) {
+					throw new JsonSyntaxException(bs.length + " bytes is not a whole number of elements at " + in.getPath());
+				}
+				return fromBytes(bs);
+			}
+			in.beginArray();
+			try {
+				A array = readElements(in);
+				in.endArray();
+				return array;
+			} catch (NumberFormatException | IllegalStateException | NullPointerException e) {
+				// e.g. a null, a non-number string, or "" (which JsonReader reads as null)
+				throw new JsonSyntaxException("Bad array element at " + in.getPath(), e);
+			}
+		}
+
+		@Override
+		public final void write(JsonWriter out, A array) throws IOException {
+			if (array == null) {
+				out.nullValue();
+				return;
+			}
+			if (base64) {
+				out.value(encode(array));
+				return;
+			}
+			out.beginArray();
+			writeElements(out, array);
+			out.endArray();
+		}
+
+		/**
+		 * Encode in chunks, so numeric arrays never need a full-size byte[] copy.
+		 * The chunk size is a multiple of 3 (so no padding mid-stream) and of every width.
+		 */
+		private String encode(A array) {
+			int n = length(array) * width;
+			char[] cs = new char[(n * 4 + 2) / 3];
+			int pos = 0;
+			byte[] chunk = new byte[Math.min(n, 3 * 1024)];
+			ByteBuffer bb = ByteBuffer.wrap(chunk);
+			for(int offset = 0; offset < n; offset += chunk.length) {
+				int len = Math.min(chunk.length, n - offset);
+				bb.clear();
+				toBytes(array, offset / width, len / width, bb);
+				pos = encodeChunk(chunk, len, cs, pos);
+			}
+			return new String(cs);
+		}
+
+		abstract int length(A array);
+
+		/**
+		 * Put count elements, from index start, into bb (which is big-endian)
+		 */
+		abstract void toBytes(A array, int start, int count, ByteBuffer bb);
+
+		abstract A fromBytes(byte[] bs);
+
+		abstract A readElements(JsonReader in) throws IOException;
+
+		abstract void writeElements(JsonWriter out, A array) throws IOException;
+	}
+
+	private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+	/**
+	 * @return the new pos
+	 */
+	static int encodeChunk(byte[] src, int len, char[] out, int pos) {
+		int i = 0;
+		for (; i + 2 < len; i += 3) {
+			int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff);
+			out[pos++] = BASE64[bits >>> 18];
+			out[pos++] = BASE64[(bits >>> 12) & 0x3f];
+			out[pos++] = BASE64[(bits >>> 6) & 0x3f];
+			out[pos++] = BASE64[bits & 0x3f];
+		}
+		if (i < len) {
+			// the end -- no = padding, as html-safe output would escape it to \u003d
+			int bits = (src[i] & 0xff) << 16 | (i + 1 < len ? (src[i + 1] & 0xff) << 8 : 0);
+			out[pos++] = BASE64[bits >>> 18];
+			out[pos++] = BASE64[(bits >>> 12) & 0x3f];
+			if (i + 1 < len) out[pos++] = BASE64[(bits >>> 6) & 0x3f];
+		}
+		return pos;
+	}
+
+	static final class ByteArrayAdapter extends PrimitiveArrayAdapter<byte[]> {
+		ByteArrayAdapter(boolean base64) {
+			super(1, base64);
+		}
+
+		@Override
+		int length(byte[] array) {
+			return array.length;
+		}
+
+		@Override
+		void toBytes(byte[] array, int start, int count, ByteBuffer bb) {
+			bb.put(array, start, count);
+		}
+
+		@Override
+		byte[] fromBytes(byte[] bs) {
+			return bs;
+		}
+
+		@Override
+		byte[] readElements(JsonReader in) throws IOException {
+			byte[] buf = new byte[16];
+			int n = 0;
+			while (in.hasNext()) {
+				if (n == buf.length) buf = Arrays.copyOf(buf, n * 2);
+				buf[n++] = in.nextInt().byteValue();
+			}
+			return n == buf.length ? buf : Arrays.copyOf(buf, n);
+		}
+
+		@Override
+		void writeElements(JsonWriter out, byte[] array) throws IOException {
+			for (byte b : array) {
+				out.value(b);
+			}
+		}
+	}
+
+	static final class IntArrayAdapter extends PrimitiveArrayAdapter<int[]> {
+		IntArrayAdapter(boolean base64) {
+			super(4, base64);
+		}
+
+		@Override
+		int length(int[] array) {
+			return array.length;
+		}
+
+		@Override
+		void toBytes(int[] array, int start, int count, ByteBuffer bb) {
+			bb.asIntBuffer().put(array, start, count);
+		}
+
+		@Override
+		int[] fromBytes(byte[] bs) {
+			int[] array = new int[bs.length / 4];
+			ByteBuffer.wrap(bs).asIntBuffer().get(array);
+			return array;
+		}
+
+		@Override
+		int[] readElements(JsonReader in) throws IOException {
+			int[] buf = new int[16];
+			int n = 0;
+			while (in.hasNext()) {
+				if (n == buf.length) buf = Arrays.copyOf(buf, n * 2);
+				buf[n++] = in.nextInt();
+			}
+			return n == buf.length ? buf : Arrays.copyOf(buf, n);
+		}
+
+		@Override
+		void writeElements(JsonWriter out, int[] array) throws IOException {
+			for (int x : array) {
+				out.value(x);
+			}
+		}
+	}
+
+	static final class LongArrayAdapter extends PrimitiveArrayAdapter<long[]> {
+		LongArrayAdapter(boolean base64) {
+			super(8, base64);
+		}
+
+		@Override
+		int length(long[] array) {
+			return array.length;
+		}
+
+		@Override
+		void toBytes(long[] array, int start, int count, ByteBuffer bb) {
+			bb.asLongBuffer().put(array, start, count);
+		}
+
+		@Override
+		long[] fromBytes(byte[] bs) {
+			long[] array = new long[bs.length / 8];
+			ByteBuffer.wrap(bs).asLongBuffer().get(array);
+			return array;
+		}
+
+		@Override
+		long[] readElements(JsonReader in) throws IOException {
+			long[] buf = new long[16];
+			int n = 0;
+			while (in.hasNext()) {
+				if (n == buf.length) buf = Arrays.copyOf(buf, n * 2);
+				buf[n++] = in.nextLong();
+			}
+			return n == buf.length ? buf : Arrays.copyOf(buf, n);
+		}
+
+		@Override
+		void writeElements(JsonWriter out, long[] array) throws IOException {
+			for (long x : array) {
+				out.value(x);
+			}
+		}
+	}
+
+	static final class FloatArrayAdapter extends PrimitiveArrayAdapter<float[]> {
+		private final boolean special;
+
+		FloatArrayAdapter(boolean base64, boolean special) {
+			super(4, base64);
+			this.special = special;
+		}
+
+		@Override
+		int length(float[] array) {
+			return array.length;
+		}
+
+		@Override
+		void toBytes(float[] array, int start, int count, ByteBuffer bb) {
+			bb.asFloatBuffer().put(array, start, count);
+		}
+
+		@Override
+		float[] fromBytes(byte[] bs) {
+			float[] array = new float[bs.length / 4];
+			ByteBuffer.wrap(bs).asFloatBuffer().get(array);
+			return array;
+		}
+
+		@Override
+		float[] readElements(JsonReader in) throws IOException {
+			float[] buf = new float[16];
+			int n = 0;
+			while (in.hasNext()) {
+				if (n == buf.length) buf = Arrays.copyOf(buf, n * 2);
+				buf[n++] = in.nextDouble().floatValue();
+			}
+			return n == buf.length ? buf : Arrays.copyOf(buf, n);
+		}
+
+		@Override
+		void writeElements(JsonWriter out, float[] array) throws IOException {
+			for (float x : array) {
+				if ( ! special) checkValidFloatingPoint(x);
+				// as a Float, so we get the short toString() form
+				out.value((Number) x);
+			}
+		}
+	}
+
+	static final class DoubleArrayAdapter extends PrimitiveArrayAdapter<double[]> {
+		private final boolean special;
+
+		DoubleArrayAdapter(boolean base64, boolean special) {
+			super(8, base64);
+			this.special = special;
+		}
+
+		@Override
+		int length(double[] array) {
+			return array.length;
+		}
+
+		@Override
+		void toBytes(double[] array, int start, int count, ByteBuffer bb) {
+			bb.asDoubleBuffer().put(array, start, count);
+		}
+
+		@Override
+		double[] fromBytes(byte[] bs) {
+			double[] array = new double[bs.length / 8];
+			ByteBuffer.wrap(bs).asDoubleBuffer().get(array);
+			return array;
+		}
+
+		@Override
+		double[] readElements(JsonReader in) throws IOException {
+			double[] buf = new double[16];
+			int n = 0;
+			while (in.hasNext()) {
+				if (n == buf.length) buf = Arrays.copyOf(buf, n * 2);
+				buf[n++] = in.nextDouble();
+			}
+			return n == buf.length ? buf : Arrays.copyOf(buf, n);
+		}
+
+		@Override
+		void writeElements(JsonWriter out, double[] array) throws IOException {
+			for (double x : array) {
+				if (Double.isNaN(x) || Double.isInfinite(x)) {
+					if ( ! special) checkValidFloatingPoint(x);
+					// JsonWriter.value(double) always refuses these, but value(Number) allows them if lenient
+					out.value((Number) x);
+				} else {
+					out.value(x);
+				}
+			}
+		}
+	}
+
+	private static void checkValidFloatingPoint(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new IllegalArgumentException(value
+					+ " is not a valid double value as per JSON specification. To override this"
+					+ " behavior, use GsonBuilder.serializeSpecialFloatingPointValues() method.");
+		}
+	}
+}
@@ -3,6 +3,7 @@ package com.winterwell.gson.internal.bind;
 import java.io.IOException;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -13,6 +14,8 @@ import com.winterwell.gson.Gson;
 import com.winterwell.gson.JsonSyntaxException;
 import com.winterwell.gson.KLoopPolicy;
 import com.winterwell.gson.TypeAdapter;
+import com.winterwell.gson.internal.CompactList;
+import com.winterwell.gson.internal.CompactMap;
 import com.winterwell.gson.internal.ConstructorConstructor;
 import com.winterwell.gson.internal.ObjectConstructor;
 import com.winterwell.gson.internal.bind.ReflectiveTypeAdapterFactory.BoundField;
@@ -30,7 +33,7 @@ import com.winterwell.utils.containers.Containers;
  *
  * @param <T>
  */
-final class ReflectiveTypeAdapter<T> extends TypeAdapter<T> {
+final class ReflectiveTypeAdapter<T> extends TypeAdapter<T> implements IReflectiveTypeAdapter {
 	@Override
 	public String toString() {
 		return "ReflectiveTypeAdapter[type=" + type + "]";
@@ -43,6 +46,10 @@ final class ReflectiveTypeAdapter<T> extends TypeAdapter<T> {
 	private ConstructorConstructor conCon;
 	private TypeToken<T> type;
 	private ReflectiveTypeAdapterFactory factory;
+	/**
+	 * true for final classes (inc records): there can be no subclass, so skip the class-property look-ahead
+	 */
+	private final boolean exactType;
 
 	ReflectiveTypeAdapter(Gson gson, ReflectiveTypeAdapterFactory factory,
 			TypeToken<T> type, ObjectConstructor<T> constructor,
@@ -55,6 +62,38 @@ final class ReflectiveTypeAdapter<T> extends TypeAdapter<T> {
 		this.boundFields = boundFields;
 		this.conCon = conCon;
 		this.classProperty = classProperty;
+		Class raw = type.getRawType();
+		this.exactType = Modifier.isFinal(raw.getModifiers()) && ! raw.isArray() && constructor.getType() == raw;
+	}
+
+	@Override
+	public ObjectConstructor<T> getConstructor() {
+		return constructor;
+	}
+
+	@Override
+	public List<TypeToken<?>> getFieldTypes() {
+		List<TypeToken<?>> types = new ArrayList<TypeToken<?>>(boundFields.size());
+		for (BoundField bf : boundFields.values()) {
+			if (bf instanceof ReflectiveTypeAdapterBoundField) {
+				types.add(((ReflectiveTypeAdapterBoundField) bf).getFieldType());
+			}
+		}
+		return types;
+	}
+
+	/**
+	 * @param name
+	 * @return true if write() might output this property name (false means it never will)
+	 */
+	boolean mayWriteName(String name) {
+		if (boundFields == null) return true; // a map -- any key
+		if (name.equals(classProperty)) return true;
+		if (gson.getLoopPolicy()==KLoopPolicy.JSOG && (name.equals("@id") || name.equals("@ref"))) {
+			return true;
+		}
+		BoundField bf = boundFields.get(name);
+		return bf != null && bf.serialized && bf.name.equals(name);
 	}
 
 	@Override
@@ -68,8 +107,10 @@ final class ReflectiveTypeAdapter<T> extends TypeAdapter<T> {
 		// So we're in the reflection based reader.
 		// Should we replace the default constructor behaviour?
 		// Check the reader for a _class property
+		boolean classFirst;
 		try {
 			TypeAdapter<?> _typeAdapter = read2(in);
+			classFirst = _typeAdapter != null;
 			if (_typeAdapter != null && _typeAdapter!=this) {
 				return (T) _typeAdapter.read(in);
 			}
@@ -79,8 +120,40 @@ final class ReflectiveTypeAdapter<T> extends TypeAdapter<T> {
 			throw new IOException(ex);
 		}
 
+		// A late @class property (i.e. not the first key)? For Object/interface/abstract we must know, 
+		// so buffer tokens until we find it, then replay them into the right adapter.
+		// (Not if read2 already found it first -- then this object is as declared.)
+		Class ctype = constructor.getType();
+		if ( ! classFirst && classProperty != null && peek == JsonToken.BEGIN_OBJECT
+				&& (ctype == Object.class || ctype.isInterface() || Modifier.isAbstract(ctype.getModifiers()))) 
+		{
+			// Already replaying a buffer? Then its objects know their labels -- don't copy them again
+			// (which for nested objects would copy size x depth tokens).
+			Object label = in instanceof TokenBufferReader? ((TokenBufferReader) in).peekObjectLabel(classProperty) : null;
+			String klass;
+			if (label == null) {
+				TokenBuffer buf = new TokenBuffer();
+				klass = buf.copyObjectUntil(in, classProperty);
+				in = buf.reader(in); // replay, then carry on streaming
+			} else {
+				klass = label == TokenBuffer.NO_LABEL? null : (String) label;
+			}
+			if (klass != null) {
+				try {
+					TypeAdapter<?> _typeAdapter = read3(klass);
+					if (_typeAdapter != null && _typeAdapter!=this) {
+						return (T) _typeAdapter.read(in);
+					}
+				} catch (IOException ex) {
+					throw ex;
+				} catch (Exception ex) {
+					throw new IOException(ex);
+				}
+			}
+		}
+
 		// Just a map
-		if (constructor.getType() == Object.class) {
+		if (ctype == Object.class) {
 			return read2_justAMap(in, peek);
 		}
 		
@@ -163,7 +236,8 @@ final class ReflectiveTypeAdapter<T> extends TypeAdapter<T> {
 	 * @throws IOException
 	 */
 	private Map read2_map(JsonReader in) throws IOException {
-    	Map<String,Object> temp = new HashMap();
+    	boolean compact = gson.isCompactUntypedReads();
+    	Map<String,Object> temp = compact? new CompactMap() : new HashMap();
     	in.beginObject();    	
     	while(in.hasNext()) {
     		String name = in.nextName();
@@ -172,6 +246,7 @@ final class ReflectiveTypeAdapter<T> extends TypeAdapter<T> {
     		temp.put(name, value);
     	}
     	in.endObject();
+    	if (compact) ((CompactMap) temp).trimToSize();
     	return temp;
 	}
 
@@ -189,12 +264,14 @@ final class ReflectiveTypeAdapter<T> extends TypeAdapter<T> {
 		JsonToken token = in.peek();
 		switch (token) {
 		case BEGIN_ARRAY:
-			List<Object> list = new ArrayList<Object>();
+			boolean compactList = gson.isCompactUntypedReads();
+			List<Object> list = compactList ? new CompactList() : new ArrayList<Object>();
 			in.beginArray();
 			while (in.hasNext()) {
 				list.add(read(in));
 			}
 			in.endArray();
+			if (compactList) ((CompactList) list).trimToSize();
 			return list;
 
 		case BEGIN_OBJECT:
@@ -408,11 +485,12 @@ final class ReflectiveTypeAdapter<T> extends TypeAdapter<T> {
 	 * Check the reader for a "@class" property
 	 * 
 	 * @param in
-	 * @return the TypeAdaptor to use, or null to carry on with the default
+	 * @return the TypeAdaptor to use, or null to carry on with the default. 
+	 * this if "@class" is the first property but needs no change (so there is no need to look further).
 	 * @throws Exception
 	 */
 	private TypeAdapter<?> read2(JsonReader in) throws Exception {
-		if (classProperty == null)
+		if (classProperty == null || exactType)
 			return null;
 		JsonReader _reader = in.getShortTermCopy();
 		try {
@@ -430,10 +508,11 @@ final class ReflectiveTypeAdapter<T> extends TypeAdapter<T> {
 			}
 			if (_reader.peek()==JsonToken.NULL) {
 				_reader.nextNull();
-				return null; // key: null
+				return this; // key: null
 			}
 			String klass = _reader.nextString();
-			return read3(klass);
+			TypeAdapter<?> _typeAdapter = read3(klass);
+			return _typeAdapter==null? this : _typeAdapter;
 		} finally {
 			in.reset();
 		}
@@ -448,19 +527,26 @@ final class ReflectiveTypeAdapter<T> extends TypeAdapter<T> {
 		if (klass==null) {
 			return null; // no info (as you were -- use constructor -- cos what else can you do)
 		}
-		// what does the constructor handle??
-		if (constructor.getType().getCanonicalName().equals(klass)) {
+		// what does the constructor handle?? (compare classes -- cached -- rather than names)
+		Class typeOfT;
+		try {
+			typeOfT = gson.getClass(klass);
+		} catch(RuntimeException ex) {
+			// e.g. a member class by its canonical name
+			if (klass.equals(constructor.getType().getCanonicalName())) return null;
+			throw ex;
+		}
+		if (typeOfT == null || typeOfT == constructor.getType()) {
 			// no change needed (as you were -- use constructor)
 			return null;
 		}		
-		Class typeOfT = gson.getClass(klass);
-		TypeToken tt = TypeToken.get(typeOfT);
-		TypeAdapter _typeAdapter = gson.getAdapter(tt);
-		return _typeAdapter;
+		return gson.getAdapterForClassName(klass);
 	}
 
 	@Override
 	public void write(JsonWriter out, T value) throws IOException {
+		// NB: take this first, before any nested writes
+		Class declaredType = out.takeDeclaredType();
 		if (value == null) {
 			out.nullValue();
 			return;
@@ -497,7 +583,14 @@ final class ReflectiveTypeAdapter<T> extends TypeAdapter<T> {
 			out.value(id);
 		}
 
-		if (classProperty != null) {
+		String typeId = classProperty==null? null : gson.getTypeId(value.getClass());
+		if (declaredType == value.getClass()) {
+			// the reader knows what this is -- see GsonBuilder.setClassPropertyOnlyForSubtypes()
+		} else if (typeId != null) {
+			// a registered short id (which also works for member classes)
+			out.name(classProperty);
+			out.value(typeId);
+		} else if (classProperty != null) {
 			// anonymous classes return null here
 			String cName = value.getClass().getCanonicalName();
 			// We can't do anything sensible at de-serialisation with
@@ -8,6 +8,7 @@ import java.lang.reflect.Field;
 import com.winterwell.gson.Gson;
 import com.winterwell.gson.TypeAdapter;
 import com.winterwell.gson.annotations.JsonAdapter;
+import com.winterwell.gson.annotations.JsonRawValue;
 import com.winterwell.gson.internal.ConstructorConstructor;
 import com.winterwell.gson.internal.Primitives;
 import com.winterwell.gson.reflect.TypeToken;
@@ -42,8 +43,18 @@ final class ReflectiveTypeAdapterBoundField extends ReflectiveTypeAdapterFactory
 	}
 	
 
+	TypeToken<?> getFieldType() {
+		return fieldType;
+	}
+
 	private TypeAdapter<?> getFieldAdapter(Gson gson, Field field,
 			TypeToken<?> fieldType) {
+		if (field.isAnnotationPresent(JsonRawValue.class)) {
+			if (fieldType.getRawType() != String.class) {
+				throw new IllegalArgumentException("@JsonRawValue is for String fields: "+field);
+			}
+			return TypeAdapters.RAW_JSON_STRING;
+		}
 		JsonAdapter annotation = field.getAnnotation(JsonAdapter.class);
 		if (annotation != null) {
 			TypeAdapter<?> adapter = getTypeAdapter(conCon, gson, fieldType, annotation);
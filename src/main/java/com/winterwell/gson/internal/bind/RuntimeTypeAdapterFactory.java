@@ -18,18 +18,18 @@ package com.winterwell.gson.internal.bind;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.winterwell.gson.Gson;
 import com.winterwell.gson.JsonElement;
-import com.winterwell.gson.JsonObject;
 import com.winterwell.gson.JsonParseException;
-import com.winterwell.gson.JsonPrimitive;
 import com.winterwell.gson.TypeAdapter;
 import com.winterwell.gson.TypeAdapterFactory;
 import com.winterwell.gson.internal.Primitives;
 import com.winterwell.gson.internal.Streams;
 import com.winterwell.gson.reflect.TypeToken;
 import com.winterwell.gson.stream.JsonReader;
+import com.winterwell.gson.stream.JsonToken;
 import com.winterwell.gson.stream.JsonWriter;
 
 /**
@@ -53,56 +53,111 @@ public final class RuntimeTypeAdapterFactory<T> implements TypeAdapterFactory {
 		  return null;
 	  }
 	TypeAdapter<R> delegate = gson.getDelegateAdapter(this, type);	  
-    return new RTA<R>(classProperty, delegate, type);
+    return new RTA<R>(this, gson, classProperty, delegate, type);
   }
 }
 
+/**
+ * Streaming: write emits the label then delegates; read buffers tokens up to the label 
+ * (usually the first key), then replays them into the labelled class's adapter.
+ */
 final class RTA<R> extends TypeAdapter<R> {
     private final String classProperty;
 	private final TypeAdapter<R> delegate;
-	private TypeToken<R> type;
+	private final TypeToken<R> type;
+	private final TypeAdapterFactory factory;
+	private final Gson gson;
+	/**
+	 * Does the delegate write the label itself? (the reflective adapter with the same class property)
+	 */
+	private final boolean delegateLabels;
+	/**
+	 * label -> adapter
+	 */
+	private final Map<String, TypeAdapter> adapterForLabel = new ConcurrentHashMap<>();
 
-	public RTA(String classProperty, TypeAdapter<R> delegate, TypeToken<R> type) {
+	public RTA(TypeAdapterFactory factory, Gson gson, String classProperty, TypeAdapter<R> delegate, TypeToken<R> type) {
+		this.factory = factory;
+		this.gson = gson;
     	this.classProperty = classProperty;
     	this.delegate = delegate;
     	this.type = type;
+    	this.delegateLabels = delegate instanceof ReflectiveTypeAdapter 
+    			&& classProperty.equals(gson.getClassProperty());
 	}
 
 	@Override public R read(JsonReader in) throws IOException {
-        JsonElement jsonElement = Streams.parse(in);
-        JsonElement labelJsonElement = jsonElement.getAsJsonObject().remove(classProperty);
-        if (labelJsonElement == null) {
-          throw new JsonParseException("cannot deserialize " + jsonElement
-              + " because it does not define a field named " + classProperty);
-        }
-        String label = labelJsonElement.getAsString();
-        Object r = delegate.fromJsonTree(jsonElement);
-        return (R) r;
-      }
+		if (in.peek() != JsonToken.BEGIN_OBJECT) {
+			return delegate.read(in);
+		}
+		TokenBuffer buf = new TokenBuffer();
+		String label = buf.copyObjectUntil(in, classProperty);
+		if (label == null) {
+			throw new JsonParseException("cannot deserialize " + type
+					+ " because it does not define a field named " + classProperty+" at "+in.getPath());
+		}
+		TypeAdapter adapter = adapter(label);
+		if (adapter != delegate || ! delegateLabels) {
+			// remove the label (name, value) -- the delegate does not expect it
+			buf.truncate(buf.size() - 2);
+		}
+		return (R) adapter.read(buf.reader(in));
+	}
+
+	private TypeAdapter adapter(String label) {
+		TypeAdapter adapter = adapterForLabel.get(label);
+		if (adapter != null) return adapter;
+		Class klass = gson.getClass(label);
+		if (klass == null) {
+			// don't cache -- labels come from the input (and bad ones are cached by Gson anyway)
+			return delegate;
+		}
+		if (klass == type.getRawType() || ! type.getRawType().isAssignableFrom(klass)) {
+			adapter = delegate;
+		} else {
+			adapter = gson.getDelegateAdapter(factory, TypeToken.get(klass));
+		}
+		adapterForLabel.put(label, adapter);
+		return adapter;
+	}
 
-      @Override public void write(JsonWriter out, R value) throws IOException {
-        Class<?> srcType = value.getClass();
-		// anonymous classes return null here
-		String cName = value.getClass().getCanonicalName();
-		// We can't do anything sensible at de-serialisation with
-		// member-classes.
-		// So leave it for the object->map adapter
-		boolean mc = value.getClass().isMemberClass();
-		if (mc || cName==null || value.getClass()==Object.class) {
+	@Override public void write(JsonWriter out, R value) throws IOException {
+		if (value == null) {
+			out.nullValue();
+			return;
+		}
+		Class<?> srcType = value.getClass();
+		// a registered short id (which also works for member classes), else the class name
+		String label = gson.getTypeId(srcType);
+		if (label == null) {
+			// anonymous classes return null here
+			label = srcType.getCanonicalName();
+			// We can't do anything sensible at de-serialisation with
+			// member-classes.
+			// So leave it for the object->map adapter
+			if (srcType.isMemberClass()) label = null;
+		}
+		if (label==null || srcType==Object.class || delegateLabels) {
 			delegate.write(out, value);
 			return;
 		}
+		if (delegate instanceof ReflectiveTypeAdapter 
+				&& ! ((ReflectiveTypeAdapter) delegate).mayWriteName(classProperty)) 
+		{
+			// the label goes first, so a streaming read finds it without buffering
+			out.setNextObjectLabel(classProperty, label);
+			delegate.write(out, value);
+			out.takeNextObjectLabel(); // in case it was unused
+			return;
+		}
+		// Other adapters: check their output does not clash with the label
 		JsonElement jtree = delegate.toJsonTree(value);
-		JsonObject jsonObject = jtree.getAsJsonObject();
-        if (jsonObject.has(classProperty)) {
-          throw new JsonParseException("cannot serialize " + srcType.getName()
-              + " because it already defines a field named " + classProperty);
-        }
-        JsonObject clone = new JsonObject();
-        clone.add(classProperty, new JsonPrimitive(cName));
-        for (Map.Entry<String, JsonElement> e : jsonObject.entrySet()) {
-          clone.add(e.getKey(), e.getValue());
-        }
-        Streams.write(clone, out);
-      }
+		if (jtree.isJsonObject() && jtree.getAsJsonObject().has(classProperty)) {
+			throw new JsonParseException("cannot serialize " + srcType.getName()
+					+ " because it already defines a field named " + classProperty);
+		}
+		out.setNextObjectLabel(classProperty, label);
+		Streams.write(jtree, out);
+		out.takeNextObjectLabel(); // in case it was unused
+	}
 }
@@ -25,6 +25,7 @@ import java.util.Date;
 
 import com.winterwell.gson.Gson;
 import com.winterwell.gson.JsonSyntaxException;
+import com.winterwell.gson.KeyedTypeAdapterFactory;
 import com.winterwell.gson.TypeAdapter;
 import com.winterwell.gson.TypeAdapterFactory;
 import com.winterwell.gson.reflect.TypeToken;
@@ -39,7 +40,15 @@ import com.winterwell.gson.stream.JsonWriter;
  * synchronize its read and write methods.
  */
 public final class TimeTypeAdapter extends TypeAdapter<Time> {
-	public static final TypeAdapterFactory FACTORY = new TypeAdapterFactory() {
+	public static final TypeAdapterFactory FACTORY = new KeyedTypeAdapterFactory() {
+		public Class<?>[] getRawTypes() {
+			return new Class<?>[] { Time.class };
+		}
+
+		public Class<?> getHierarchyType() {
+			return null;
+		}
+
 		@SuppressWarnings("unchecked")
 		// we use a runtime check to make sure the 'T's equal
 		public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
@@ -0,0 +1,164 @@
+package com.winterwell.gson.internal.bind;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.winterwell.gson.stream.JsonReader;
+import com.winterwell.gson.stream.JsonToken;
+
+/**
+ * An in-memory list of json tokens, which can be replayed via {@link #reader(JsonReader)}.
+ * Lighter than a JsonElement tree, and no text. Not thread-safe.
+ * <p>
+ * Values: names and strings are Strings, numbers are kept as their literal String, booleans are Booleans. 
+ * A BEGIN_OBJECT copied by {@link #copyObjectUntil(JsonReader, String)} records that object's label 
+ * (see {@link TokenBufferReader#peekObjectLabel(String)}), so a nested read needn't copy it again.
+ */
+public final class TokenBuffer {
+
+	/**
+	 * The BEGIN_OBJECT value for an object which was copied whole, and does not have the label property.
+	 */
+	static final Object NO_LABEL = new Object();
+
+	/**
+	 * Tokens handed to replay readers, over all buffers -- for tests and tuning.
+	 */
+	static final LongAdder replayed = new LongAdder();
+
+	JsonToken[] kinds = new JsonToken[16];
+	Object[] values = new Object[16];
+	int size;
+	/**
+	 * The property which BEGIN_OBJECT values record, or null
+	 */
+	String labelName;
+
+	public void add(JsonToken kind, Object value) {
+		if (size == kinds.length) {
+			kinds = Arrays.copyOf(kinds, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		kinds[size] = kind;
+		values[size] = value;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Drop the last tokens, e.g. to remove a property found by {@link #copyObjectUntil(JsonReader, String)}
+	 */
+	public void truncate(int newSize) {
+		if (newSize < 0 || newSize > size) throw new IndexOutOfBoundsException(newSize + " of " + size);
+		Arrays.fill(values, newSize, size, null);
+		size = newSize;
+	}
+
+	/**
+	 * Consume one whole value from in, recording it.
+	 */
+	public void copyValue(JsonReader in) throws IOException {
+		copyValue(in, null);
+	}
+
+	/**
+	 * @param label If not null, each object records the (string) value of this property, or NO_LABEL.
+	 */
+	private void copyValue(JsonReader in, String label) throws IOException {
+		JsonToken token = in.peek();
+		switch (token) {
+		case BEGIN_ARRAY:
+			in.beginArray();
+			add(token, null);
+			while (in.hasNext()) {
+				copyValue(in, label);
+			}
+			in.endArray();
+			add(JsonToken.END_ARRAY, null);
+			return;
+		case BEGIN_OBJECT:
+			in.beginObject();
+			int begin = size;
+			add(token, null);
+			Object v = label == null? null : NO_LABEL;
+			while (in.hasNext()) {
+				String n = in.nextName();
+				add(JsonToken.NAME, n);
+				if (v == NO_LABEL && label.equals(n) && in.peek() == JsonToken.STRING) {
+					// the first one counts, as for copyObjectUntil()
+					v = in.nextString();
+					add(JsonToken.STRING, v);
+					continue;
+				}
+				copyValue(in, label);
+			}
+			in.endObject();
+			add(JsonToken.END_OBJECT, null);
+			values[begin] = v;
+			return;
+		case STRING:
+		case NUMBER:
+			add(token, in.nextString());
+			return;
+		case BOOLEAN:
+			add(token, in.nextBoolean());
+			return;
+		case NULL:
+			in.nextNull();
+			add(token, null);
+			return;
+		default:
+			throw new IllegalStateException("Unexpected " + token + " " + in);
+		}
+	}
+
+	/**
+	 * Consume an object from in, recording it -- but stop just after property name, if that is 
+	 * found at the top level of the object (the rest of the object is left unread in in).
+	 * @param in Must be at BEGIN_OBJECT
+	 * @param name e.g. "@class"
+	 * @return the (string) value of name, or null if the whole object was read without finding it. 
+	 */
+	public String copyObjectUntil(JsonReader in, String name) throws IOException {
+		// one label per buffer
+		if (size == 0) labelName = name;
+		else if ( ! name.equals(labelName)) labelName = null;
+		in.beginObject();
+		int begin = size;
+		add(JsonToken.BEGIN_OBJECT, null);
+		while (in.hasNext()) {
+			String n = in.nextName();
+			add(JsonToken.NAME, n);
+			if (name.equals(n) && in.peek() == JsonToken.STRING) {
+				String v = in.nextString();
+				add(JsonToken.STRING, v);
+				values[begin] = v;
+				return v;
+			}
+			copyValue(in, name);
+		}
+		in.endObject();
+		add(JsonToken.END_OBJECT, null);
+		values[begin] = NO_LABEL;
+		return null;
+	}
+
+	/**
+	 * @param tail Can be null. Reading carries on from here once the buffer is used up. 
+	 * JSOG ids and late-bindings are shared with tail. 
+	 * @return a reader which replays this buffer. The buffer should not be edited after this.
+	 */
+	public JsonReader reader(JsonReader tail) {
+		replayed.add(size);
+		return new TokenBufferReader(this, 0, false, tail);
+	}
+
+	@Override
+	public String toString() {
+		return "TokenBuffer[" + size + "]";
+	}
+}
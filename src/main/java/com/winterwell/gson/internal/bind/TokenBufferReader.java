@@ -0,0 +1,317 @@
+package com.winterwell.gson.internal.bind;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.util.List;
+
+import com.winterwell.gson.internal.JsonReaderInternalAccess;
+import com.winterwell.gson.internal.Streams;
+import com.winterwell.gson.stream.JsonReader;
+import com.winterwell.gson.stream.JsonToken;
+
+/**
+ * Replays a {@link TokenBuffer}, then (optionally) carries on from another reader.
+ * E.g. after reading ahead to find the class property, replay what was read and then stream the rest.
+ * @see TokenBuffer#reader(JsonReader)
+ */
+public final class TokenBufferReader extends JsonReader {
+
+	private static final Reader UNREADABLE_READER = new Reader() {
+		@Override
+		public int read(char[] buffer, int offset, int count) throws IOException {
+			throw new AssertionError();
+		}
+
+		@Override
+		public void close() throws IOException {
+			throw new AssertionError();
+		}
+	};
+
+	private final TokenBuffer buf;
+	private int pos;
+	/**
+	 * true if the current NAME token should be read as a string value (for map keys)
+	 */
+	private boolean promoted;
+	/**
+	 * Can be null
+	 */
+	private final JsonReader tail;
+
+	TokenBufferReader(TokenBuffer buf, int pos, boolean promoted, JsonReader tail) {
+		super(UNREADABLE_READER);
+		this.buf = buf;
+		this.pos = pos;
+		this.promoted = promoted;
+		this.tail = tail;
+		if (tail != null) setLenient(tail.isLenient());
+	}
+
+	private boolean inBuffer() {
+		return pos < buf.size;
+	}
+
+	private Object next(JsonToken expected) throws IOException {
+		JsonToken token = peek();
+		if (token != expected) {
+			throw new IllegalStateException("Expected " + expected + " but was " + token);
+		}
+		promoted = false;
+		return buf.values[pos++];
+	}
+
+	/**
+	 * @return a number or string token's text
+	 */
+	private String nextLiteral(JsonToken expected) throws IOException {
+		JsonToken token = peek();
+		if (token != JsonToken.NUMBER && token != JsonToken.STRING) {
+			throw new IllegalStateException("Expected " + expected + " but was " + token);
+		}
+		promoted = false;
+		return (String) buf.values[pos++];
+	}
+
+	@Override
+	public JsonToken peek() throws IOException {
+		if (inBuffer()) {
+			JsonToken k = buf.kinds[pos];
+			return promoted && k == JsonToken.NAME ? JsonToken.STRING : k;
+		}
+		return tail == null ? JsonToken.END_DOCUMENT : tail.peek();
+	}
+
+	@Override
+	public boolean hasNext() throws IOException {
+		JsonToken token = peek();
+		return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+	}
+
+	@Override
+	public void beginArray() throws IOException {
+		if ( ! inBuffer() && tail != null) tail.beginArray();
+		else next(JsonToken.BEGIN_ARRAY);
+	}
+
+	@Override
+	public void endArray() throws IOException {
+		if ( ! inBuffer() && tail != null) tail.endArray();
+		else next(JsonToken.END_ARRAY);
+	}
+
+	@Override
+	public void beginObject() throws IOException {
+		if ( ! inBuffer() && tail != null) tail.beginObject();
+		else next(JsonToken.BEGIN_OBJECT);
+	}
+
+	@Override
+	public void endObject() throws IOException {
+		if ( ! inBuffer() && tail != null) tail.endObject();
+		else next(JsonToken.END_OBJECT);
+	}
+
+	@Override
+	public String nextName() throws IOException {
+		if ( ! inBuffer() && tail != null) return tail.nextName();
+		return (String) next(JsonToken.NAME);
+	}
+
+	@Override
+	public String nextString() throws IOException {
+		if ( ! inBuffer() && tail != null) return tail.nextString();
+		return nextLiteral(JsonToken.STRING);
+	}
+
+	@Override
+	public boolean nextBoolean() throws IOException {
+		if ( ! inBuffer() && tail != null) return tail.nextBoolean();
+		return (Boolean) next(JsonToken.BOOLEAN);
+	}
+
+	@Override
+	public void nextNull() throws IOException {
+		if ( ! inBuffer() && tail != null) {
+			tail.nextNull();
+			return;
+		}
+		next(JsonToken.NULL);
+	}
+
+	@Override
+	public Double nextDouble() throws IOException {
+		if ( ! inBuffer() && tail != null) return tail.nextDouble();
+		double result = Double.parseDouble(nextLiteral(JsonToken.NUMBER));
+		if ( ! isLenient() && (Double.isNaN(result) || Double.isInfinite(result))) {
+			throw new NumberFormatException("JSON forbids NaN and infinities: " + result);
+		}
+		return result;
+	}
+
+	@Override
+	public Number nextNumber() throws IOException {
+		if ( ! inBuffer() && tail != null) return tail.nextNumber();
+		String s = nextLiteral(JsonToken.NUMBER);
+		double d = Double.parseDouble(s);
+		if (d > Long.MAX_VALUE && s.indexOf('.') == -1 && s.indexOf('E') == -1) {
+			return new BigInteger(s);
+		}
+		return d;
+	}
+
+	@Override
+	public Long nextLong() throws IOException {
+		if ( ! inBuffer() && tail != null) return tail.nextLong();
+		String s = nextLiteral(JsonToken.NUMBER);
+		try {
+			return Long.parseLong(s);
+		} catch (NumberFormatException ex) {
+			double d = Double.parseDouble(s);
+			long l = (long) d;
+			if (l != d) throw new NumberFormatException("Expected a long but was " + s);
+			return l;
+		}
+	}
+
+	@Override
+	public Integer nextInt() throws IOException {
+		if ( ! inBuffer() && tail != null) return tail.nextInt();
+		String s = nextLiteral(JsonToken.NUMBER);
+		try {
+			return Integer.parseInt(s);
+		} catch (NumberFormatException ex) {
+			double d = Double.parseDouble(s);
+			int i = (int) d;
+			if (i != d) throw new NumberFormatException("Expected an int but was " + s);
+			return i;
+		}
+	}
+
+	@Override
+	public void skipValue() throws IOException {
+		if ( ! inBuffer() && tail != null) {
+			tail.skipValue();
+			return;
+		}
+		int depth = 0;
+		do {
+			if ( ! inBuffer()) {
+				// the value started in the buffer, but finishes in the tail
+				skipRest(depth);
+				return;
+			}
+			JsonToken k = peek();
+			promoted = false;
+			pos++;
+			if (k == JsonToken.BEGIN_ARRAY || k == JsonToken.BEGIN_OBJECT) depth++;
+			else if (k == JsonToken.END_ARRAY || k == JsonToken.END_OBJECT) depth--;
+			else if (k == JsonToken.NAME) {
+				if (depth == 0) return; // skipping a name just skips the name (as JsonReader does)
+			}
+		} while (depth > 0);
+	}
+
+	/**
+	 * Raw from the tail, if the value is all there. Otherwise the buffered tokens have lost
+	 * their source text, so this goes via a tree.
+	 */
+	@Override
+	public String nextRawValue() throws IOException {
+		if ( ! inBuffer() && tail != null) {
+			return tail.nextRawValue();
+		}
+		return Streams.parse(this).toString();
+	}
+
+	private void skipRest(int depth) throws IOException {
+		if (tail == null) throw new IllegalStateException("Incomplete buffer");
+		while (depth > 0) {
+			JsonToken k = tail.peek();
+			if (k == JsonToken.END_OBJECT) {
+				tail.endObject();
+				depth--;
+			} else if (k == JsonToken.END_ARRAY) {
+				tail.endArray();
+				depth--;
+			} else if (k == JsonToken.NAME) {
+				tail.nextName();
+			} else {
+				tail.skipValue();
+			}
+		}
+	}
+
+	/**
+	 * @param name The label property, e.g. "@class"
+	 * @return For the object at the current position, the label recorded when it was buffered: its 
+	 * value, or {@link TokenBuffer#NO_LABEL} if the object was copied whole without one. 
+	 * null if unknown (e.g. not in the buffer, or buffered for a different label).
+	 */
+	Object peekObjectLabel(String name) {
+		if ( ! inBuffer() || buf.kinds[pos] != JsonToken.BEGIN_OBJECT || ! name.equals(buf.labelName)) {
+			return null;
+		}
+		return buf.values[pos];
+	}
+
+	/**
+	 * For map keys, see {@link JsonReaderInternalAccess}
+	 */
+	public void promoteNameToValue() throws IOException {
+		if ( ! inBuffer() && tail != null) {
+			JsonReaderInternalAccess.INSTANCE.promoteNameToValue(tail);
+			return;
+		}
+		if (peek() != JsonToken.NAME) {
+			throw new IllegalStateException("Expected a name but was " + peek());
+		}
+		promoted = true;
+	}
+
+	@Override
+	public JsonReader getShortTermCopy() throws IOException {
+		return new TokenBufferReader(buf, pos, promoted, tail == null ? null : tail.getShortTermCopy());
+	}
+
+	@Override
+	public void reset() throws IOException {
+		// our buffer needs no reset -- but the copy may have read on into the tail
+		if (tail != null) tail.reset();
+	}
+
+	@Override
+	public void close() throws IOException {
+		// we don't own the tail
+		pos = buf.size;
+	}
+
+	@Override
+	public Object getIdValue(String ref) {
+		return tail == null ? super.getIdValue(ref) : tail.getIdValue(ref);
+	}
+
+	@Override
+	public void putIdValue(String id, Object value) {
+		if (tail == null) super.putIdValue(id, value);
+		else tail.putIdValue(id, value);
+	}
+
+	@Override
+	public void addLateBinding(Object obj, Field f, int index, LateBinding lb) {
+		if (tail == null) super.addLateBinding(obj, f, index, lb);
+		else tail.addLateBinding(obj, f, index, lb);
+	}
+
+	@Override
+	public List<LBRow> getLateBindings() {
+		return tail == null ? super.getLateBindings() : tail.getLateBindings();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + pos + "/" + buf.size + (tail == null ? "" : " then " + tail) + "]";
+	}
+}
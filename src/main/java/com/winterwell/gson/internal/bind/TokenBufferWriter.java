@@ -0,0 +1,182 @@
+package com.winterwell.gson.internal.bind;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+
+import com.winterwell.gson.RawJson;
+import com.winterwell.gson.stream.JsonReader;
+import com.winterwell.gson.stream.JsonToken;
+import com.winterwell.gson.stream.JsonWriter;
+
+/**
+ * A JsonWriter which records tokens into a {@link TokenBuffer} instead of writing text.
+ * So adapter write() can be piped into adapter read() -- see {@link TokenBuffer#reader(JsonReader)}.
+ */
+public final class TokenBufferWriter extends JsonWriter {
+
+	private static final Writer UNWRITABLE_WRITER = new Writer() {
+		@Override
+		public void write(char[] buffer, int offset, int counter) {
+			throw new AssertionError();
+		}
+
+		@Override
+		public void flush() throws IOException {
+			throw new AssertionError();
+		}
+
+		@Override
+		public void close() throws IOException {
+			throw new AssertionError();
+		}
+	};
+
+	private final TokenBuffer buf = new TokenBuffer();
+
+	/**
+	 * As in JsonWriter, names are held back so that name+null can be dropped if !serializeNulls
+	 */
+	private String pendingName;
+
+	public TokenBufferWriter() {
+		super(UNWRITABLE_WRITER);
+	}
+
+	/**
+	 * @return the tokens written so far
+	 */
+	public TokenBuffer getBuffer() {
+		if (pendingName != null) {
+			throw new IllegalStateException("Name with no value: " + pendingName);
+		}
+		return buf;
+	}
+
+	private void add(JsonToken kind, Object value) {
+		takeNextObjectLabel(); // only for objects (see beginObject())
+		if (pendingName != null) {
+			buf.add(JsonToken.NAME, pendingName);
+			pendingName = null;
+		}
+		buf.add(kind, value);
+	}
+
+	@Override
+	public JsonWriter beginArray() throws IOException {
+		add(JsonToken.BEGIN_ARRAY, null);
+		return this;
+	}
+
+	@Override
+	public JsonWriter endArray() throws IOException {
+		add(JsonToken.END_ARRAY, null);
+		return this;
+	}
+
+	@Override
+	public JsonWriter beginObject() throws IOException {
+		String[] label = takeNextObjectLabel();
+		add(JsonToken.BEGIN_OBJECT, null);
+		if (label != null) {
+			buf.add(JsonToken.NAME, label[0]);
+			buf.add(JsonToken.STRING, label[1]);
+		}
+		return this;
+	}
+
+	@Override
+	public JsonWriter endObject() throws IOException {
+		if (pendingName != null) {
+			throw new IllegalStateException("Name with no value: " + pendingName);
+		}
+		add(JsonToken.END_OBJECT, null);
+		return this;
+	}
+
+	@Override
+	public JsonWriter name(String name) throws IOException {
+		if (name == null) {
+			throw new NullPointerException("name == null");
+		}
+		if (pendingName != null) {
+			throw new IllegalStateException();
+		}
+		pendingName = name;
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(String value) throws IOException {
+		if (value == null) {
+			return nullValue();
+		}
+		add(JsonToken.STRING, value);
+		return this;
+	}
+
+	@Override
+	public JsonWriter raw(RawJson value) throws IOException {
+		if (pendingName != null) {
+			buf.add(JsonToken.NAME, pendingName);
+			pendingName = null;
+		}
+		// NB: this does parse the text -- but RawJson *is* text
+		JsonReader r = new JsonReader(new StringReader(value.json));
+		r.setLenient(true);
+		buf.copyValue(r);
+		return this;
+	}
+
+	@Override
+	public JsonWriter nullValue() throws IOException {
+		if (pendingName != null && ! getSerializeNulls()) {
+			pendingName = null;
+			return this; // skip the name and the value
+		}
+		add(JsonToken.NULL, null);
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(boolean value) throws IOException {
+		add(JsonToken.BOOLEAN, value);
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(double value) throws IOException {
+		if ( ! isLenient() && (Double.isNaN(value) || Double.isInfinite(value))) {
+			throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+		}
+		add(JsonToken.NUMBER, Double.toString(value));
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(long value) throws IOException {
+		add(JsonToken.NUMBER, Long.toString(value));
+		return this;
+	}
+
+	@Override
+	public JsonWriter value(Number value) throws IOException {
+		if (value == null) {
+			return nullValue();
+		}
+		String string = value.toString();
+		if ( ! isLenient() && (string.equals("-Infinity") || string.equals("Infinity") || string.equals("NaN"))) {
+			throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+		}
+		add(JsonToken.NUMBER, string);
+		return this;
+	}
+
+	@Override
+	public void flush() throws IOException {
+	}
+
+	@Override
+	public void close() throws IOException {
+	}
+}
@@ -21,6 +21,7 @@ import java.lang.reflect.TypeVariable;
 
 import com.winterwell.gson.Gson;
 import com.winterwell.gson.TypeAdapter;
+import com.winterwell.gson.internal.$Gson$Types;
 import com.winterwell.gson.reflect.TypeToken;
 import com.winterwell.gson.stream.JsonReader;
 import com.winterwell.gson.stream.JsonWriter;
@@ -29,12 +30,18 @@ final class TypeAdapterRuntimeTypeWrapper<T> extends TypeAdapter<T> {
 	private final Gson context;
 	private final TypeAdapter<T> delegate;
 	private final Type type;
+	/**
+	 * null unless the class property can be skipped for values of exactly this class
+	 */
+	private final Class declaredClass;
 
 	TypeAdapterRuntimeTypeWrapper(Gson context, TypeAdapter<T> delegate,
 			Type type) {
 		this.context = context;
 		this.delegate = delegate;
 		this.type = type;
+		this.declaredClass = context.isClassPropertyOnlyForSubtypes() && ! (type instanceof TypeVariable) ?
+				$Gson$Types.getRawType(type) : null;
 	}
 
 	@Override
@@ -71,6 +78,9 @@ final class TypeAdapterRuntimeTypeWrapper<T> extends TypeAdapter<T> {
 				chosen = runtimeTypeAdapter;
 			}
 		}
+		if (declaredClass != null && chosen instanceof ReflectiveTypeAdapter) {
+			out.setDeclaredType(declaredClass);
+		}
 		chosen.write(out, value);
 	}
 
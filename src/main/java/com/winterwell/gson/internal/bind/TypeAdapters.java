@@ -16,7 +16,9 @@
 
 package com.winterwell.gson.internal.bind;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.StringReader;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.net.InetAddress;
@@ -40,17 +42,22 @@ import com.winterwell.gson.JsonElement;
 import com.winterwell.gson.JsonIOException;
 import com.winterwell.gson.JsonNull;
 import com.winterwell.gson.JsonObject;
+import com.winterwell.gson.JsonParser;
 import com.winterwell.gson.JsonPrimitive;
 import com.winterwell.gson.JsonSyntaxException;
+import com.winterwell.gson.KeyedTypeAdapterFactory;
 import com.winterwell.gson.RawJson;
 import com.winterwell.gson.TypeAdapter;
 import com.winterwell.gson.TypeAdapterFactory;
+import com.winterwell.gson.annotations.JsonRawValue;
 import com.winterwell.gson.annotations.SerializedName;
+import com.winterwell.gson.internal.JsonText;
 import com.winterwell.gson.internal.LazilyParsedNumber;
 import com.winterwell.gson.reflect.TypeToken;
 import com.winterwell.gson.stream.JsonReader;
 import com.winterwell.gson.stream.JsonToken;
 import com.winterwell.gson.stream.JsonWriter;
+import com.winterwell.gson.stream.MalformedJsonException;
 
 /**
  * Type adapters for basic types.
@@ -64,7 +71,16 @@ public final class TypeAdapters {
 	 * Sod that.
 	 */
 	@SuppressWarnings("rawtypes")
-	public static final TypeAdapter<Class> CLASS = new TypeAdapter<Class>() {
+	static final class ClassAdapter extends TypeAdapter<Class> {
+		/**
+		 * null => plain Class.forName()
+		 */
+		private final Gson gson;
+
+		ClassAdapter(Gson gson) {
+			this.gson = gson;
+		}
+
 		@Override
 		public void write(JsonWriter out, Class value) throws IOException {
 			if (value == null) {
@@ -85,16 +101,49 @@ public final class TypeAdapters {
 				in.nextNull();
 				return null;
 			}			
+			String name = in.nextString();
+			if (gson != null) {
+				// the gson's class mapping, allowlist and cache
+				return gson.getClass(name);
+			}
 			try {
-				Class<?> klass = Class.forName(in.nextString());
+				Class<?> klass = Class.forName(name);
 				return klass;
 			} catch (ClassNotFoundException e) {
 				throw new IOException(e);
 			}			
 		}
+	}
+
+	/**
+	 * Without a Gson, so not checked against a class allowlist -- prefer {@link #CLASS_FACTORY}.
+	 */
+	@SuppressWarnings("rawtypes")
+	public static final TypeAdapter<Class> CLASS = new ClassAdapter(null);
+
+	/**
+	 * Resolves names via {@link Gson#getClass(String)}
+	 */
+	public static final TypeAdapterFactory CLASS_FACTORY = new KeyedTypeAdapterFactory() {
+		public Class<?>[] getRawTypes() {
+			return new Class<?>[] { Class.class };
+		}
+
+		public Class<?> getHierarchyType() {
+			return null;
+		}
+
+		@SuppressWarnings("unchecked")
+		public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+			return typeToken.getRawType() == Class.class ? (TypeAdapter<T>) new ClassAdapter(gson)
+					: null;
+		}
+
+		@Override
+		public String toString() {
+			return "Factory[type=java.lang.Class,adapter=ClassAdapter]";
+		}
 	};
-	public static final TypeAdapterFactory CLASS_FACTORY = newFactory(
-			Class.class, CLASS);
 
 	public static final TypeAdapter<BitSet> BIT_SET = new TypeAdapter<BitSet>() {
 		public BitSet read(JsonReader in) throws IOException {
@@ -441,6 +490,45 @@ public final class TypeAdapters {
 	public static final TypeAdapterFactory STRING_FACTORY = newFactory(
 			String.class, STRING);
 
+	/**
+	 * For {@link JsonRawValue} fields: reads the value's json text, unparsed, and writes it as-is.
+	 */
+	public static final TypeAdapter<String> RAW_JSON_STRING = new TypeAdapter<String>() {
+		@Override
+		public String read(JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			return in.nextRawValue();
+		}
+
+		@Override
+		public void write(JsonWriter out, String value) throws IOException {
+			if (value == null) {
+				out.nullValue();
+				return;
+			}
+			if (canCopy(out, value)) {
+				out.raw(new RawJson(value));
+				return;
+			}
+			// Check it -- so a bad value cannot break (or inject into) the output -- and 
+			// write the tree, so the writer's settings (e.g. html-safe) apply.
+			JsonReader in = new JsonReader(new StringReader(value));
+			JsonElement tree;
+			try {
+				tree = JSON_ELEMENT.read(in);
+				if (in.peek() != JsonToken.END_DOCUMENT) {
+					throw new MalformedJsonException("Trailing text");
+				}
+			} catch (MalformedJsonException | EOFException | NumberFormatException e) {
+				throw new JsonSyntaxException("Invalid @JsonRawValue: "+value, e);
+			}
+			JSON_ELEMENT.write(out, tree);
+		}
+	};
+
 	public static final TypeAdapter<StringBuilder> STRING_BUILDER = new TypeAdapter<StringBuilder>() {
 		@Override
 		public StringBuilder read(JsonReader in) throws IOException {
@@ -565,7 +653,15 @@ public final class TypeAdapters {
 	public static final TypeAdapterFactory UUID_FACTORY = newFactory(
 			UUID.class, UUID);
 
-	public static final TypeAdapterFactory TIMESTAMP_FACTORY = new TypeAdapterFactory() {
+	public static final TypeAdapterFactory TIMESTAMP_FACTORY = new KeyedTypeAdapterFactory() {
+		public Class<?>[] getRawTypes() {
+			return new Class<?>[] { Timestamp.class };
+		}
+
+		public Class<?> getHierarchyType() {
+			return null;
+		}
+
 		@SuppressWarnings("unchecked")
 		// we use a runtime check to make sure the 'T's equal
 		public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
@@ -699,7 +795,21 @@ public final class TypeAdapters {
 	public static final TypeAdapterFactory LOCALE_FACTORY = newFactory(
 			Locale.class, LOCALE);
 
-	public static final TypeAdapter<JsonElement> JSON_ELEMENT = new TypeAdapter<JsonElement>() {
+	public static final TypeAdapter<JsonElement> JSON_ELEMENT = new JsonElementTypeAdapter(false);
+
+	/**
+	 * As {@link #JSON_ELEMENT}, but builds a compact tree: number arrays go into a long[] or double[]
+	 * (see {@link JsonArray#addNumber(Number)}), and spare capacity is trimmed.
+	 */
+	public static final TypeAdapter<JsonElement> JSON_ELEMENT_COMPACT = new JsonElementTypeAdapter(true);
+
+	private static final class JsonElementTypeAdapter extends TypeAdapter<JsonElement> {
+		private final boolean compact;
+
+		JsonElementTypeAdapter(boolean compact) {
+			this.compact = compact;
+		}
+
 		@Override
 		public JsonElement read(JsonReader in) throws IOException {
 			switch (in.peek()) {
@@ -717,9 +827,14 @@ public final class TypeAdapters {
 				JsonArray array = new JsonArray();
 				in.beginArray();
 				while (in.hasNext()) {
-					array.add(read(in));
+					if (compact && in.peek() == JsonToken.NUMBER) {
+						array.addNumber(new LazilyParsedNumber(in.nextString()));
+					} else {
+						array.add(read(in));
+					}
 				}
 				in.endArray();
+				if (compact) array.trimToSize();
 				return array;
 			case BEGIN_OBJECT:
 				JsonObject object = new JsonObject();
@@ -728,6 +843,7 @@ public final class TypeAdapters {
 					object.add(in.nextName(), read(in));
 				}
 				in.endObject();
+				if (compact) object.trimToSize();
 				return object;
 			case END_DOCUMENT:
 			case NAME:
@@ -753,6 +869,12 @@ public final class TypeAdapters {
 				}
 
 			} else if (value.isJsonArray()) {
+				String unparsed = value.getAsJsonArray().getUnparsedJson();
+				if (unparsed != null && canCopy(out, unparsed)) {
+					// an untouched lazy node: forward it verbatim
+					out.raw(new RawJson(unparsed));
+					return;
+				}
 				out.beginArray();
 				for (JsonElement e : value.getAsJsonArray()) {
 					write(out, e);
@@ -760,6 +882,11 @@ public final class TypeAdapters {
 				out.endArray();
 
 			} else if (value.isJsonObject()) {
+				String unparsed = value.getAsJsonObject().getUnparsedJson();
+				if (unparsed != null && canCopy(out, unparsed)) {
+					out.raw(new RawJson(unparsed));
+					return;
+				}
 				out.beginObject();
 				for (Map.Entry<String, JsonElement> e : value.getAsJsonObject()
 						.entrySet()) {
@@ -774,11 +901,76 @@ public final class TypeAdapters {
 						+ value.getClass());
 			}
 		}
-	};
+	}
+
+	/**
+	 * @return true if writing json as-is to out gives the same output as writing its parsed tree
+	 * -- i.e. out is compact, and json is already as out would write it (escapes, whitespace, nulls).
+	 * Otherwise the tree should be written, so the writer's settings apply.
+	 */
+	static boolean canCopy(JsonWriter out, String json) {
+		return ! (out instanceof JsonTreeWriter) && out.getIndent() == null
+				&& JsonText.isCanonical(json, out.isHtmlSafe(), out.getSerializeNulls());
+	}
 
 	public static final TypeAdapterFactory JSON_ELEMENT_FACTORY = newTypeHierarchyFactory(
 			JsonElement.class, JSON_ELEMENT);
 
+	/**
+	 * Reads a {@link RawJson} by capturing the source text (see {@link JsonReader#nextRawValue()}),
+	 * so the value is never parsed. Writes it as-is.
+	 */
+	public static final TypeAdapter<RawJson> RAW_JSON = new TypeAdapter<RawJson>() {
+		@Override
+		public RawJson read(JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			return new RawJson(in.nextRawValue());
+		}
+
+		@Override
+		public void write(JsonWriter out, RawJson value) throws IOException {
+			if (value == null) {
+				out.nullValue();
+				return;
+			}
+			out.raw(value);
+		}
+	};
+
+	/**
+	 * Must come before {@link #JSON_ELEMENT_FACTORY} (RawJson is a JsonElement)
+	 */
+	public static final TypeAdapterFactory RAW_JSON_FACTORY = newFactory(RawJson.class, RAW_JSON);
+
+	/**
+	 * As {@link #JSON_ELEMENT}, but objects and arrays are captured as text (see 
+	 * {@link JsonReader#nextRawValue()}) and returned as lazy nodes (see {@link JsonParser#parseLazy(String)}).
+	 * So a JsonElement field that is just passed on is never parsed, and is written back verbatim.
+	 */
+	public static final TypeAdapter<JsonElement> JSON_ELEMENT_LAZY = new TypeAdapter<JsonElement>() {
+		@Override
+		public JsonElement read(JsonReader in) throws IOException {
+			JsonToken peek = in.peek();
+			if ((peek != JsonToken.BEGIN_OBJECT && peek != JsonToken.BEGIN_ARRAY)
+					|| in instanceof JsonTreeReader) {
+				// nothing to save
+				return JSON_ELEMENT.read(in);
+			}
+			return new JsonParser().parseLazy(in.nextRawValue());
+		}
+
+		@Override
+		public void write(JsonWriter out, JsonElement value) throws IOException {
+			JSON_ELEMENT.write(out, value);
+		}
+	};
+
+	public static final TypeAdapterFactory JSON_ELEMENT_LAZY_FACTORY = newTypeHierarchyFactory(
+			JsonElement.class, JSON_ELEMENT_LAZY);
+
 	private static final class EnumTypeAdapter<T extends Enum<T>> extends
 			TypeAdapter<T> {
 		private final Map<String, T> nameToConstant = new HashMap<String, T>();
@@ -817,7 +1009,15 @@ public final class TypeAdapters {
 	public static final TypeAdapterFactory ENUM_FACTORY = newEnumTypeHierarchyFactory();
 
 	public static TypeAdapterFactory newEnumTypeHierarchyFactory() {
-		return new TypeAdapterFactory() {
+		return new KeyedTypeAdapterFactory() {
+			public Class<?>[] getRawTypes() {
+				return new Class<?>[0];
+			}
+
+			public Class<?> getHierarchyType() {
+				return Enum.class;
+			}
+
 			@SuppressWarnings({ "rawtypes", "unchecked" })
 			public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
 				Class<? super T> rawType = typeToken.getRawType();
@@ -836,7 +1036,15 @@ public final class TypeAdapters {
 
 	public static <TT> TypeAdapterFactory newFactory(final TypeToken<TT> type,
 			final TypeAdapter<TT> typeAdapter) {
-		return new TypeAdapterFactory() {
+		return new KeyedTypeAdapterFactory() {
+			public Class<?>[] getRawTypes() {
+				return new Class<?>[] { type.getRawType() };
+			}
+
+			public Class<?> getHierarchyType() {
+				return null;
+			}
+
 			@SuppressWarnings("unchecked")
 			// we use a runtime check to make sure the 'T's equal
 			public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
@@ -848,7 +1056,15 @@ public final class TypeAdapters {
 
 	public static <TT> TypeAdapterFactory newFactory(final Class<TT> type,
 			final TypeAdapter<TT> typeAdapter) {
-		return new TypeAdapterFactory() {
+		return new KeyedTypeAdapterFactory() {
+			public Class<?>[] getRawTypes() {
+				return new Class<?>[] { type };
+			}
+
+			public Class<?> getHierarchyType() {
+				return null;
+			}
+
 			@SuppressWarnings("unchecked")
 			// we use a runtime check to make sure the 'T's equal
 			public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
@@ -866,7 +1082,15 @@ public final class TypeAdapters {
 
 	public static <TT> TypeAdapterFactory newFactory(final Class<TT> unboxed,
 			final Class<TT> boxed, final TypeAdapter<? super TT> typeAdapter) {
-		return new TypeAdapterFactory() {
+		return new KeyedTypeAdapterFactory() {
+			public Class<?>[] getRawTypes() {
+				return new Class<?>[] { unboxed, boxed };
+			}
+
+			public Class<?> getHierarchyType() {
+				return null;
+			}
+
 			@SuppressWarnings("unchecked")
 			// we use a runtime check to make sure the 'T's equal
 			public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
@@ -886,7 +1110,15 @@ public final class TypeAdapters {
 	public static <TT> TypeAdapterFactory newFactoryForMultipleTypes(
 			final Class<TT> base, final Class<? extends TT> sub,
 			final TypeAdapter<? super TT> typeAdapter) {
-		return new TypeAdapterFactory() {
+		return new KeyedTypeAdapterFactory() {
+			public Class<?>[] getRawTypes() {
+				return new Class<?>[] { base, sub };
+			}
+
+			public Class<?> getHierarchyType() {
+				return null;
+			}
+
 			@SuppressWarnings("unchecked")
 			// we use a runtime check to make sure the 'T's equal
 			public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
@@ -905,7 +1137,15 @@ public final class TypeAdapters {
 
 	public static <TT> TypeAdapterFactory newTypeHierarchyFactory(
 			final Class<TT> clazz, final TypeAdapter<TT> typeAdapter) {
-		return new TypeAdapterFactory() {
+		return new KeyedTypeAdapterFactory() {
+			public Class<?>[] getRawTypes() {
+				return new Class<?>[0];
+			}
+
+			public Class<?> getHierarchyType() {
+				return clazz;
+			}
+
 			@SuppressWarnings("unchecked")
 			public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
 				return clazz.isAssignableFrom(typeToken.getRawType()) ? (TypeAdapter<T>) typeAdapter
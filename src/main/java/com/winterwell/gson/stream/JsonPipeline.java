@@ -0,0 +1,301 @@
+package com.winterwell.gson.stream;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import com.winterwell.gson.JsonIOException;
+import com.winterwell.gson.RawJson;
+import com.winterwell.gson.internal.LazilyParsedNumber;
+
+/**
+ * Copy tokens from a {@link JsonReader} to a {@link JsonWriter}, rewriting as they go by:
+ * rename keys, drop or redact values, inject fields, map strings. No JsonElement tree is built.
+ * <p>
+ * Paths are dot-separated from the root, e.g. "user.address.city". Array elements are
+ * matched by index, e.g. "items.0.price". Use * for any one key or element, and ** for any
+ * number of levels (including none), e.g. "**.password". Rules match against the <i>input</i>
+ * path (before any renames), and are tried in the order they were added.
+ * <p>
+ * A pipeline is frozen by its first use ({@link #apply(String)} or {@link #copy(JsonReader, JsonWriter)}):
+ * adding rules after that throws an IllegalStateException. Once in use, it can be shared between threads.
+ *
+ * @author daniel
+ */
+public final class JsonPipeline {
+
+	private static final String ANY = "*";
+	private static final String ANY_DEPTH = "**";
+
+	private static enum KRule {DROP, RENAME, REDACT, INJECT, MAP_STRINGS}
+
+	private static final class Rule {
+		final KRule kind;
+		final String[] path;
+		final String name;
+		final Object value;
+		final UnaryOperator<String> fn;
+
+		Rule(KRule kind, String path, String name, Object value, UnaryOperator<String> fn) {
+			this.kind = kind;
+			this.path = parsePath(path);
+			this.name = name;
+			this.value = value;
+			this.fn = fn;
+		}
+	}
+
+	private final List<Rule> rules = new ArrayList<Rule>();
+	/** Quick checks so the common case (no rule of this kind) costs nothing */
+	private boolean hasKeyRules, hasValueRules, hasInjects, hasStringRules;
+	/** Set on first use. Volatile so other threads which see it also see the rules. */
+	private volatile boolean frozen;
+
+	static String[] parsePath(String path) {
+		if (path.startsWith("$")) path = path.substring(1);
+		if (path.startsWith(".")) path = path.substring(1);
+		if (path.isEmpty()) return new String[0];
+		return path.split("\\.");
+	}
+
+	/**
+	 * Remove the property (or array element) at path.
+	 */
+	public JsonPipeline drop(String path) {
+		return add(new Rule(KRule.DROP, path, null, null, null));
+	}
+
+	/**
+	 * Rename the property at path (which must not be an array element).
+	 */
+	public JsonPipeline rename(String path, String newName) {
+		return add(new Rule(KRule.RENAME, path, newName, null, null));
+	}
+
+	/**
+	 * Replace the whole value at path (object, array or primitive).
+	 * @param replacement String, Number, Boolean, {@link RawJson} or null
+	 */
+	public JsonPipeline redact(String path, Object replacement) {
+		checkValue(replacement);
+		return add(new Rule(KRule.REDACT, path, null, replacement, null));
+	}
+
+	/**
+	 * Add a property to the object(s) at path. It is written at the end of the object.
+	 * @param path "" for the root
+	 * @param value String, Number, Boolean, {@link RawJson} or null
+	 */
+	public JsonPipeline inject(String path, String name, Object value) {
+		checkValue(value);
+		return add(new Rule(KRule.INJECT, path, name, value, null));
+	}
+
+	/**
+	 * Transform the string values at path. Numbers, booleans and keys are left alone.
+	 */
+	public JsonPipeline mapStrings(String path, UnaryOperator<String> fn) {
+		return add(new Rule(KRule.MAP_STRINGS, path, null, null, fn));
+	}
+
+	private static void checkValue(Object v) {
+		if (v == null || v instanceof String || v instanceof Number || v instanceof Boolean || v instanceof RawJson) {
+			return;
+		}
+		throw new IllegalArgumentException("Not a json primitive: " + v.getClass());
+	}
+
+	private synchronized JsonPipeline add(Rule rule) {
+		if (frozen) {
+			throw new IllegalStateException("This JsonPipeline is in use -- rules cannot be added");
+		}
+		rules.add(rule);
+		switch (rule.kind) {
+		case DROP: case RENAME: hasKeyRules = true; break;
+		case REDACT: hasValueRules = true; break;
+		case INJECT: hasInjects = true; break;
+		case MAP_STRINGS: hasStringRules = true; break;
+		}
+		return this;
+	}
+
+	/**
+	 * Convenience for {@link #copy(JsonReader, JsonWriter)}
+	 */
+	public String apply(String json) {
+		StringWriter sw = new StringWriter(json.length());
+		try {
+			JsonReader in = new JsonReader(new StringReader(json));
+			JsonWriter out = new JsonWriter(sw);
+			out.setSerializeNulls(true);
+			copy(in, out);
+			out.flush();
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+		return sw.toString();
+	}
+
+	/**
+	 * Copy the next value from in to out, applying the rules.
+	 */
+	public void copy(JsonReader in, JsonWriter out) throws IOException {
+		if ( ! frozen) freeze();
+		copyValue(in, out, new Cursor());
+	}
+
+	private synchronized void freeze() {
+		frozen = true;
+	}
+
+	/**
+	 * The current input path. Array elements have a null key and an index.
+	 */
+	private static final class Cursor {
+		String[] keys = new String[16];
+		int[] indexes = new int[16];
+		int depth;
+
+		void push(String key, int index) {
+			if (depth == keys.length) {
+				keys = Arrays.copyOf(keys, depth * 2);
+				indexes = Arrays.copyOf(indexes, depth * 2);
+			}
+			keys[depth] = key;
+			indexes[depth] = index;
+			depth++;
+		}
+
+		void pop() {
+			depth--;
+		}
+
+		boolean matches(String[] path) {
+			return matches(path, 0, 0);
+		}
+
+		private boolean matches(String[] path, int pi, int di) {
+			while (pi < path.length) {
+				String p = path[pi];
+				if (ANY_DEPTH.equals(p)) {
+					for(int d = di; d <= depth; d++) {
+						if (matches(path, pi + 1, d)) return true;
+					}
+					return false;
+				}
+				if (di == depth) return false;
+				if ( ! ANY.equals(p)) {
+					String k = keys[di];
+					if (k == null ? ! p.equals(Integer.toString(indexes[di])) : ! p.equals(k)) {
+						return false;
+					}
+				}
+				pi++;
+				di++;
+			}
+			return di == depth;
+		}
+	}
+
+	/**
+	 * @return the first rule of this kind which matches, or null
+	 */
+	private Rule find(KRule kind, Cursor cursor) {
+		for(Rule rule : rules) {
+			if (rule.kind == kind && cursor.matches(rule.path)) return rule;
+		}
+		return null;
+	}
+
+	private void copyValue(JsonReader in, JsonWriter out, Cursor cursor) throws IOException {
+		if (hasValueRules) {
+			Rule redact = find(KRule.REDACT, cursor);
+			if (redact != null) {
+				in.skipValue();
+				writeValue(out, redact.value);
+				return;
+			}
+		}
+		switch (in.peek()) {
+		case BEGIN_OBJECT:
+			in.beginObject();
+			out.beginObject();
+			while (in.hasNext()) {
+				String name = in.nextName();
+				cursor.push(name, -1);
+				String outName = name;
+				if (hasKeyRules) {
+					Rule rule = find(KRule.DROP, cursor);
+					if (rule != null) {
+						in.skipValue();
+						cursor.pop();
+						continue;
+					}
+					rule = find(KRule.RENAME, cursor);
+					if (rule != null) outName = rule.name;
+				}
+				out.name(outName);
+				copyValue(in, out, cursor);
+				cursor.pop();
+			}
+			if (hasInjects) {
+				for(Rule rule : rules) {
+					if (rule.kind != KRule.INJECT || ! cursor.matches(rule.path)) continue;
+					out.name(rule.name);
+					writeValue(out, rule.value);
+				}
+			}
+			in.endObject();
+			out.endObject();
+			return;
+		case BEGIN_ARRAY:
+			in.beginArray();
+			out.beginArray();
+			for(int i=0; in.hasNext(); i++) {
+				cursor.push(null, i);
+				if (hasKeyRules && find(KRule.DROP, cursor) != null) {
+					in.skipValue();
+				} else {
+					copyValue(in, out, cursor);
+				}
+				cursor.pop();
+			}
+			in.endArray();
+			out.endArray();
+			return;
+		case STRING:
+			String s = in.nextString();
+			if (hasStringRules) {
+				Rule rule = find(KRule.MAP_STRINGS, cursor);
+				if (rule != null) s = rule.fn.apply(s);
+			}
+			out.value(s);
+			return;
+		case NUMBER:
+			// keep the number's text as-is
+			out.value(new LazilyParsedNumber(in.nextString()));
+			return;
+		case BOOLEAN:
+			out.value(in.nextBoolean());
+			return;
+		case NULL:
+			in.nextNull();
+			out.nullValue();
+			return;
+		default:
+			throw new IllegalStateException("Unexpected " + in.peek() + " at " + in.getPath());
+		}
+	}
+
+	private static void writeValue(JsonWriter out, Object v) throws IOException {
+		if (v == null) out.nullValue();
+		else if (v instanceof String) out.value((String) v);
+		else if (v instanceof Number) out.value((Number) v);
+		else if (v instanceof Boolean) out.value((Boolean) v);
+		else out.raw((RawJson) v);
+	}
+}
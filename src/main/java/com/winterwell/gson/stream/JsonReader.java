@@ -20,6 +20,7 @@ import java.io.Closeable;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
 import java.lang.reflect.Field;
 import java.math.BigInteger;
 import java.util.ArrayList;
@@ -27,10 +28,14 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
+import com.winterwell.gson.JsonPrimitive;
 import com.winterwell.gson.internal.JsonReaderInternalAccess;
+import com.winterwell.gson.internal.Streams;
+import com.winterwell.gson.internal.bind.FilteringJsonReader;
 import com.winterwell.gson.internal.bind.JsonTreeReader;
 import com.winterwell.gson.internal.bind.LBRow;
 import com.winterwell.gson.internal.bind.LateBinding;
+import com.winterwell.gson.internal.bind.TokenBufferReader;
 
 /**
  * Reads a JSON (<a href="http://www.ietf.org/rfc/rfc4627.txt">RFC 4627</a>)
@@ -1460,6 +1465,239 @@ public class JsonReader implements Closeable {
 		pathNames[stackSize - 1] = "null";
 	}
 
+	/**
+	 * Consumes the next value and returns its source text, exactly as written (e.g. for a
+	 * {@link com.winterwell.gson.RawJson}). Objects and arrays are captured by counting brackets
+	 * and quotes over the buffer -- their contents are not parsed, tokenised or checked.
+	 * <p>
+	 * In lenient mode, comments are dropped and single-quoted strings are re-quoted with ",
+	 * so the result is json. Other lenient-only syntax (e.g. unquoted names) means the value 
+	 * is parsed and re-written as json (so it loses its formatting).
+	 * In strict mode, comments and single quotes throw, as for the other methods.
+	 *
+	 * @return e.g. <code>{"a": [1, 2]}</code> or <code>"a b"</code> (with the quotes and escapes)
+	 * or <code>null</code> (the json literal, not a java null).
+	 * (Winterwell)
+	 */
+	public String nextRawValue() throws IOException {
+		int p = peeked;
+		if (p == PEEKED_NONE) {
+			p = doPeek();
+		}
+		String result;
+		if (p == PEEKED_BEGIN_OBJECT || p == PEEKED_BEGIN_ARRAY) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(p == PEEKED_BEGIN_OBJECT ? '{' : '[');
+			captureRaw(sb, (char) 0);
+			result = sb.toString();
+			if (lenient && hasBareWords(sb)) {
+				JsonReader r = new JsonReader(new StringReader(result));
+				r.setLenient(true);
+				result = Streams.parse(r).toString();
+			}
+		} else if (p == PEEKED_DOUBLE_QUOTED || p == PEEKED_SINGLE_QUOTED) {
+			char quote = p == PEEKED_DOUBLE_QUOTED ? '"' : '\'';
+			StringBuilder sb = new StringBuilder();
+			// NB: a '-quoted string is re-quoted as "
+			sb.append('"');
+			captureRaw(sb, quote);
+			result = sb.toString();
+		} else if (p == PEEKED_TRUE) {
+			result = "true";
+		} else if (p == PEEKED_FALSE) {
+			result = "false";
+		} else if (p == PEEKED_NULL) {
+			result = "null";
+		} else if (p == PEEKED_LONG) {
+			result = Long.toString(peekedLong);
+		} else if (p == PEEKED_NUMBER) {
+			result = new String(buffer, pos, peekedNumberLength);
+			pos += peekedNumberLength;
+		} else if (p == PEEKED_UNQUOTED) {
+			// quote it, as for PEEKED_BUFFERED
+			result = new JsonPrimitive(nextUnquotedValue()).toString();
+		} else if (p == PEEKED_BUFFERED) {
+			// the quotes are gone, so re-encode
+			result = new JsonPrimitive(peekedString).toString();
+			peekedString = null;
+		} else {
+			throw new IllegalStateException("Expected a value but was "
+					+ peek() + " at line " + getLineNumber() + " column "
+					+ getColumnNumber() + " path " + getPath());
+		}
+		peeked = PEEKED_NONE;
+		pathIndices[stackSize - 1]++;
+		return result;
+	}
+
+	/**
+	 * @param json Captured by captureRaw(), so comments are gone and strings are "-quoted
+	 * @return true if json has unquoted text, other than true, false, null and numbers -- e.g. an
+	 * unquoted name or value, or a ; or = separator (all lenient only).
+	 */
+	private static boolean hasBareWords(CharSequence json) {
+		int n = json.length();
+		int i = 0;
+		while (i < n) {
+			char c = json.charAt(i++);
+			if (c == '"') {
+				// skip the string
+				while (i < n) {
+					char sc = json.charAt(i++);
+					if (sc == '\\') i++;
+					else if (sc == '"') break;
+				}
+				continue;
+			}
+			switch (c) {
+			case '{': case '}': case '[': case ']': case ',': case ':':
+			case ' ': case '\t': case '\n': case '\r':
+				continue;
+			}
+			// a bare word: where does it end?
+			int start = i - 1;
+			while (i < n && "{}[],:\" \t\n\r".indexOf(json.charAt(i)) == -1) {
+				i++;
+			}
+			if ( ! isJsonLiteral(json, start, i)) return true;
+		}
+		return false;
+	}
+
+	private static boolean isJsonLiteral(CharSequence json, int start, int end) {
+		String word = json.subSequence(start, end).toString();
+		if (word.equals("true") || word.equals("false") || word.equals("null")) {
+			return true;
+		}
+		char c = word.charAt(0);
+		if (c != '-' && (c < '0' || c > '9')) return false;
+		for(int j=1; j<word.length(); j++) {
+			c = word.charAt(j);
+			if ((c < '0' || c > '9') && "+-.eE".indexOf(c) == -1) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Copy from pos up to and including the end of the current object/array or string.
+	 * Comments are skipped, and '-quoted strings are re-quoted with " (both lenient only).
+	 * @param quote 0 if in an object or array, otherwise the quote char of the string we are in
+	 */
+	private void captureRaw(StringBuilder sb, char quote) throws IOException {
+		// Like nextNonWhitespace, this uses locals 'p' and 'l' to save
+		// inner-loop field access.
+		char[] buffer = this.buffer;
+		// for strings, end when the quote is closed
+		int depth = quote == 0 ? 1 : 0;
+		boolean escaped = false;
+		do {
+			int start = pos;
+			int p = pos;
+			int l = limit;
+			while (p < l) {
+				char c = buffer[p++];
+				if (c == '\n') {
+					lineNumber++;
+					lineStart = p;
+				}
+				if (quote != 0) {
+					if (escaped) {
+						escaped = false;
+						if (c == '\'') {
+							// \' is not a json escape: drop the \ (which may already be in sb)
+							sb.append(buffer, start, p - 1 - start);
+							sb.setLength(sb.length() - 1);
+							start = p - 1;
+						}
+						continue;
+					}
+					if (c == '\\') {
+						escaped = true;
+						continue;
+					}
+					if (quote == '\'') {
+						if (c == '"') {
+							// must be escaped within "..."
+							sb.append(buffer, start, p - 1 - start).append('\\');
+							start = p - 1;
+							continue;
+						}
+						if (c == '\'') {
+							sb.append(buffer, start, p - 1 - start).append('"');
+							start = p;
+						}
+					}
+					if (c != quote) continue;
+					quote = 0;
+					if (depth != 0) continue;
+				} else if (c == '"') {
+					quote = c;
+					continue;
+				} else if (c == '\'') {
+					pos = p;
+					checkLenient();
+					sb.append(buffer, start, p - 1 - start).append('"');
+					start = p;
+					quote = c;
+					continue;
+				} else if (c == '/' || c == '#') {
+					// skip comments, as nextNonWhitespace does
+					sb.append(buffer, start, p - 1 - start);
+					pos = p;
+					if ( ! skipComment(c)) {
+						sb.append(c);
+					}
+					p = start = pos;
+					l = limit;
+					continue;
+				} else if (c == '{' || c == '[') {
+					depth++;
+					continue;
+				} else if (c != '}' && c != ']' || --depth != 0) {
+					continue;
+				}
+				// done
+				sb.append(buffer, start, p - start);
+				pos = p;
+				return;
+			}
+			sb.append(buffer, start, p - start);
+			pos = p;
+		} while (fillBuffer(1));
+		throw syntaxError(quote != 0 ? "Unterminated string" : "Unterminated object or array");
+	}
+
+	/**
+	 * Skip a comment (lenient only), if there is one. pos is just after c.
+	 * @param c '/' or '#'
+	 * @return false if c does not start a comment (e.g. a '/' in an unquoted lenient value)
+	 */
+	private boolean skipComment(char c) throws IOException {
+		checkLenient();
+		if (c == '#') {
+			skipToEndOfLine();
+			return true;
+		}
+		if (pos == limit && ! fillBuffer(1)) {
+			return false;
+		}
+		char peek = buffer[pos];
+		if (peek == '*') {
+			pos++;
+			if ( ! skipTo("*/")) {
+				throw syntaxError("Unterminated comment");
+			}
+			pos += 2;
+			return true;
+		}
+		if (peek == '/') {
+			pos++;
+			skipToEndOfLine();
+			return true;
+		}
+		return false;
+	}
+
 	private void push(int newTop) {
 		if (stackSize == stack.length) {
 			int[] newStack = new int[stackSize * 2];
@@ -1809,6 +2047,14 @@ public class JsonReader implements Closeable {
 					((JsonTreeReader) reader).promoteNameToValue();
 					return;
 				}
+				if (reader instanceof TokenBufferReader) {
+					((TokenBufferReader) reader).promoteNameToValue();
+					return;
+				}
+				if (reader instanceof FilteringJsonReader) {
+					((FilteringJsonReader) reader).promoteNameToValue();
+					return;
+				}
 				int p = reader.peeked;
 				if (p == PEEKED_NONE) {
 					p = reader.doPeek();
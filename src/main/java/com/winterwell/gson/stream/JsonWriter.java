@@ -234,6 +234,13 @@ public class JsonWriter implements Closeable, Flushable {
 		}
 	}
 
+	/**
+	 * @return the indent, or null if this writer is compact. (Winterwell)
+	 */
+	public final String getIndent() {
+		return indent;
+	}
+
 	/**
 	 * Configure this writer to relax its syntax rules. By default, this writer
 	 * only emits well-formed JSON as specified by <a
@@ -319,8 +326,14 @@ public class JsonWriter implements Closeable, Flushable {
 	 * @return this writer.
 	 */
 	public JsonWriter beginObject() throws IOException {
+		String[] label = takeNextObjectLabel();
 		writeDeferredName();
-		return open(EMPTY_OBJECT, "{");
+		open(EMPTY_OBJECT, "{");
+		if (label != null) {
+			name(label[0]);
+			value(label[1]);
+		}
+		return this;
 	}
 
 	/**
@@ -629,6 +642,8 @@ public class JsonWriter implements Closeable, Flushable {
 	 */
 	@SuppressWarnings("fallthrough")
 	private void beforeValue(boolean root) throws IOException {
+		// not an object (or already written by beginObject())
+		labelName = null;
 		switch (peek()) {
 		case NONEMPTY_DOCUMENT:
 			if (!lenient) {
@@ -726,5 +741,58 @@ public class JsonWriter implements Closeable, Flushable {
 			loopy.pop();
 	}
 
+	/**
+	 * The statically declared class of the next value (e.g. a field or list-element type), or null.
+	 * Lets an adapter skip the class property when it would say nothing new. 
+	 */
+	private Class declaredType;
+
+	/**
+	 * Set just before writing a value. See {@link #takeDeclaredType()}
+	 * @param declaredType
+	 */
+	public void setDeclaredType(Class declaredType) {
+		this.declaredType = declaredType;
+	}
+
+	/**
+	 * @return the declared type of the value being written, or null if unknown. This clears it, 
+	 * so it doesn't leak into nested values -- call it first thing in write().
+	 */
+	public Class takeDeclaredType() {
+		Class dt = declaredType;
+		declaredType = null;
+		return dt;
+	}
+
+	/**
+	 * A property to write first in the next value -- if that value is an object. E.g. a type label.
+	 */
+	private String labelName;
+	private String labelValue;
+
+	/**
+	 * Set just before writing a value: if the value is an object, this property will be written
+	 * first thing inside it. If the value is not an object, the label is dropped.
+	 * @param name e.g. "@class"
+	 * @param value
+	 */
+	public void setNextObjectLabel(String name, String value) {
+		this.labelName = name;
+		this.labelValue = value;
+	}
+
+	/**
+	 * For beginObject() implementations (call it first thing), or to clear an unused label.
+	 * @return {name, value} or null
+	 */
+	public final String[] takeNextObjectLabel() {
+		if (labelName == null) return null;
+		String[] label = new String[] {labelName, labelValue};
+		labelName = null;
+		labelValue = null;
+		return label;
+	}
+
 	
 }
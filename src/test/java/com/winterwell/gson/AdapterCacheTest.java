@@ -0,0 +1,279 @@
+package com.winterwell.gson;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.winterwell.gson.internal.$Gson$Types;
+import com.winterwell.gson.internal.bind.TypeAdapters;
+import com.winterwell.gson.reflect.TypeToken;
+import com.winterwell.gson.stream.JsonReader;
+import com.winterwell.gson.stream.JsonWriter;
+import com.winterwell.utils.time.TUnit;
+import com.winterwell.utils.time.Time;
+
+public class AdapterCacheTest {
+
+	static class Node {
+		String name;
+		Node next;
+		List<Node> kids;
+	}
+
+	@Test
+	public void testRecursiveType() {
+		Gson gson = new GsonBuilder().setClassProperty(null).create();
+		Node a = new Node();
+		a.name = "a";
+		a.next = new Node();
+		a.next.name = "b";
+		String json = gson.toJson(a);
+		Node a2 = gson.fromJson(json, Node.class);
+		assert a2.next.name.equals("b") : json;
+	}
+
+	@Test
+	public void testLateRegistrationInvalidatesDependents() {
+		Gson gson = new GsonBuilder().setClassProperty(null).create();
+		Node a = new Node();
+		a.name = "a";
+		a.next = new Node();
+		String json = gson.toJson(a);
+		assert json.contains("\"next\":{") : json;
+		// resolve (and cache) the dependent List<Node> adapter first
+		Type listType = new TypeToken<List<Node>>() {}.getType();
+		a.kids = new ArrayList();
+		a.kids.add(new Node());
+		String json1 = gson.toJson(a.kids, listType);
+		assert json1.startsWith("[{") : json1;
+		gson.registerTypeAdapter(Node.class, new TypeAdapter<Node>() {
+			@Override
+			public void write(JsonWriter out, Node value) throws IOException {
+				out.value("node");
+			}
+			@Override
+			public Node read(JsonReader in) throws IOException {
+				in.skipValue();
+				return new Node();
+			}
+		});
+		// the List<Node> adapter must not keep the old Node adapter
+		String json2 = gson.toJson(a.kids, listType);
+		assert json2.equals("[\"node\"]") : json2;
+	}
+
+	@Test
+	public void testSharedCacheForEquivalentBuilders() {
+		Gson a = GsonBuilder.safe().create();
+		Gson b = GsonBuilder.safe().create();
+		assert a != b;
+		assert a.getAdapter(Node.class) == b.getAdapter(Node.class);
+		// a late edit is private to that Gson
+		b.registerTypeAdapter(Node.class, new StandardAdapters.ToStringSerialiser());
+		assert a.getAdapter(Node.class) != b.getAdapter(Node.class);
+		Gson c = GsonBuilder.safe().create();
+		assert a.getAdapter(Node.class) == c.getAdapter(Node.class);
+		// different settings => different cache
+		Gson d = GsonBuilder.safe().serializeNulls().create();
+		assert a.getAdapter(Node.class) != d.getAdapter(Node.class);
+	}
+
+	@Test
+	public void testRegisteredAdaptersShareByIdentity() {
+		StandardAdapters.TimeTypeAdapter t = new StandardAdapters.TimeTypeAdapter();
+		// (an unusual setting, so a is the first of its kind)
+		Gson a = new GsonBuilder().setClassProperty("@mutated").registerTypeAdapter(Time.class, t).create();
+		Gson a2 = new GsonBuilder().setClassProperty("@mutated").registerTypeAdapter(Time.class, t).create();
+		assert a.getAdapter(Node.class) == a2.getAdapter(Node.class);
+		// an equal but different adapter => not shared, so mutating t cannot affect b
+		Gson b = new GsonBuilder().setClassProperty("@mutated").registerTypeAdapter(Time.class, new StandardAdapters.TimeTypeAdapter()).create();
+		assert a.getAdapter(Node.class) != b.getAdapter(Node.class);
+		assert a.getAdapter(Time.class) != b.getAdapter(Time.class);
+		t.setLevel(TUnit.DAY);
+		Time time = new Time(1577934245000L); // 2020-01-02T03:04:05Z
+		assert a.toJson(time).equals("\"2020-01-02\"") : a.toJson(time);
+		assert ! b.toJson(time).equals("\"2020-01-02\"") : b.toJson(time);
+	}
+
+	@Test
+	public void testClassMappingIsPerGson() {
+		Gson a = new GsonBuilder().create();
+		Gson b = new GsonBuilder().create();
+		assert a.getAdapter(Node.class) == b.getAdapter(Node.class);
+		b.classForClass.put("node", Node.class);
+		assert a.classForClass.isEmpty() : a.classForClass;
+		assert b.getClass("node") == Node.class;
+		// b's shared adapters resolved via the prototype's mapping, so b has moved onto its own
+		assert a.getAdapter(Node.class) != b.getAdapter(Node.class);
+		Object node = b.fromJson("{\"@class\":\"node\",\"name\":\"n\"}", Object.class);
+		assert node instanceof Node : node;
+		Gson c = new GsonBuilder().create();
+		assert c.classForClass.isEmpty() && a.getAdapter(Node.class) == c.getAdapter(Node.class);
+	}
+
+	@Test
+	public void testSameAdapterUnderContention() throws Exception {
+		final int n = 8;
+		final AtomicInteger made = new AtomicInteger();
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Gson gson = new GsonBuilder().registerTypeAdapterFactory(new TypeAdapterFactory() {
+			@Override
+			public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+				if (type.getRawType() != Node.class) return null;
+				made.incrementAndGet();
+				// slow, so the other threads arrive whilst this one is making the adapter
+				entered.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				return gson.getDelegateAdapter(this, type);
+			}
+		}).create();
+		final CyclicBarrier start = new CyclicBarrier(n);
+		ExecutorService pool = Executors.newFixedThreadPool(n);
+		try {
+			List<Future<TypeAdapter>> futures = new ArrayList();
+			for(int i=0; i<n; i++) {
+				futures.add(pool.submit(new Callable<TypeAdapter>() {
+					@Override
+					public TypeAdapter call() throws Exception {
+						start.await();
+						return gson.getAdapter(TypeToken.get(Node.class));
+					}
+				}));
+			}
+			entered.await();
+			// give the others time to queue up behind the maker
+			Thread.sleep(50);
+			release.countDown();
+			TypeAdapter first = futures.get(0).get();
+			for (Future<TypeAdapter> f : futures) {
+				assert f.get() == first;
+			}
+			assert made.get() == 1 : made;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	static class Parent {
+		String name;
+		Child child;
+	}
+
+	static class Child {
+		Parent parent;
+	}
+
+	@Test
+	public void testCreationFailsOnceThenSucceeds() {
+		final int[] calls = new int[1];
+		Gson gson = new GsonBuilder().setClassProperty(null)
+				.registerTypeAdapterFactory(new TypeAdapterFactory() {
+					@Override
+					public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+						if (type.getRawType() != Parent.class) return null;
+						// builds (and caches) the Child adapter, which holds a proxy for Parent
+						TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+						if (calls[0]++ == 0) {
+							throw new IllegalStateException("first time fails");
+						}
+						return delegate;
+					}
+				}).create();
+		try {
+			gson.getAdapter(Parent.class);
+			assert false;
+		} catch(IllegalStateException ex) {
+			// expected
+		}
+		// the cached Child adapter's proxy retries
+		Child c = gson.fromJson("{\"parent\":{\"name\":\"p\"}}", Child.class);
+		assert c.parent.name.equals("p") : c.parent;
+		assert calls[0] == 2 : calls[0];
+		assert gson.getAdapter(Parent.class) == gson.getAdapter(Parent.class);
+	}
+
+	@Test
+	public void testIndexedDispatchKeepsOrder() {
+		TypeAdapterFactory generic = new TypeAdapterFactory() {
+			public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+				return null;
+			}
+		};
+		TypeAdapterFactory str = TypeAdapters.newFactory(String.class, TypeAdapters.STRING);
+		TypeAdapterFactory chars = TypeAdapters.newTypeHierarchyFactory(CharSequence.class, (TypeAdapter) TypeAdapters.STRING);
+		TypeAdapterFactory ints = TypeAdapters.newFactory(int.class, Integer.class, TypeAdapters.INTEGER);
+		List<TypeAdapterFactory> fs = Arrays.asList(generic, chars, str, ints, generic);
+		FactoryChain chain = new FactoryChain(null, fs, 0, null);
+		assert chain.candidates(String.class).equals(Arrays.asList(generic, chars, str, generic)) : chain.candidates(String.class);
+		assert chain.candidates(StringBuilder.class).equals(Arrays.asList(generic, chars, generic));
+		assert chain.candidates(int.class).equals(Arrays.asList(generic, ints, generic));
+		assert chain.candidates(Node.class).equals(Arrays.asList(generic, generic));
+		// and via a Gson: an earlier hierarchy adapter still beats the built-in String one
+		Gson gson = new GsonBuilder().setClassProperty(null)
+				.registerTypeHierarchyAdapter(CharSequence.class, new JsonSerializer<CharSequence>() {
+					public JsonElement serialize(CharSequence src, java.lang.reflect.Type typeOfSrc, JsonSerializationContext context) {
+						return new JsonPrimitive("x");
+					}
+				}).create();
+		assert gson.toJson("hello").equals("\"x\"") : gson.toJson("hello");
+	}
+
+	static class NoDefault {
+		int x;
+		List<Node> nodes;
+		NoDefault(int x) {
+			this.x = x;
+		}
+	}
+
+	@Test
+	public void testWarmUp() {
+		Gson gson = new GsonBuilder().setShareAdapterCache(false).create();
+		WarmUpReport report = gson.warmUp(Arrays.asList(NoDefault.class), true);
+		assert report.isOk() : report;
+		assert report.getWarmed().contains(Node.class) : report.getWarmed();
+		assert report.getReflective().contains(Node.class);
+		assert report.getUnsafe().contains(NoDefault.class) : report;
+		assert ! report.getUnsafe().contains(Node.class) : report;
+	}
+
+	@Test
+	public void testBoundedCacheEvicts() {
+		Gson gson = new GsonBuilder().setShareAdapterCache(false)
+				.setAdapterCachePolicy(AdapterCachePolicy.lru(20).weakClassLoaders()).create();
+		// lots of distinct parameterized types
+		Class[] args = {String.class, Integer.class, Long.class, Double.class, Node.class, Boolean.class, Character.class};
+		for (Class k : args) {
+			for (Class v : args) {
+				gson.getAdapter(TypeToken.get($Gson$Types.newParameterizedTypeWithOwner(null, Map.class, k, v)));
+			}
+		}
+		AdapterCacheStats stats = gson.getAdapterCacheStats();
+		assert stats.size <= 21 : stats;
+		assert stats.evictions > 0 : stats;
+		assert stats.misses > 49 : stats;
+		// still works after eviction
+		TypeAdapter<Node> a = gson.getAdapter(Node.class);
+		assert gson.getAdapter(Node.class) == a;
+		assert gson.getAdapterCacheStats().hits > stats.hits;
+		// app classes are not "foreign"
+		assert AdapterCache.anchor(Node.class) == null;
+	}
+}
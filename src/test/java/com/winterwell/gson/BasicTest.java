@@ -1,7 +1,20 @@
 package com.winterwell.gson;
 
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.junit.Test;
 
+import com.winterwell.gson.reflect.TypeToken;
+import com.winterwell.gson.stream.JsonReader;
+import com.winterwell.gson.stream.JsonWriter;
+import com.winterwell.gson.stream.MalformedJsonException;
 import com.winterwell.utils.containers.ArrayMap;
 
 public class BasicTest {	
@@ -27,4 +40,264 @@ public class BasicTest {
 			// OK
 		}
 	}
+
+	@Test
+	public void testBadClassFailsEveryTime() {
+		// the failure is cached -- but should still be reported each time
+		Gson gson = new Gson();
+		Throwable first = null;
+		for(int i=0; i<2; i++) {
+			try {
+				gson.getClass("foo.bar.Nah");
+				assert false;
+			} catch(Exception ex) {
+				// OK -- but not the same (cached) exception
+				Throwable cnfe = ex instanceof ClassNotFoundException? ex : ex.getCause();
+				assert cnfe instanceof ClassNotFoundException : ex;
+				assert cnfe != first;
+				first = cnfe;
+			}
+		}
+		assert gson.getClass(ArrayMap.class.getName()) == ArrayMap.class;
+		assert gson.getAdapterForClassName(ArrayMap.class.getName()) == gson.getAdapter(ArrayMap.class);
+	}
+
+	@Test
+	public void testClassAllowlist() {
+		Gson gson = new GsonBuilder().setClassAllowlist("com.winterwell.").create();
+		String json = ("{'@class':'"+ArrayMap.class.getName()+"','a':1}").replace('\'', '"');
+		Object jobj = gson.fromJson(json);
+		assert jobj instanceof ArrayMap : jobj.getClass();
+		try {
+			jobj = gson.fromJson("{\"@class\":\"java.util.TreeMap\",\"a\":1}");
+			assert false : jobj;
+		} catch(Exception ex) {
+			// OK
+		}
+		// java.lang.Class values are checked too
+		try {
+			Class k = gson.fromJson("\"java.util.TreeMap\"", Class.class);
+			assert false : k;
+		} catch(Exception ex) {
+			// OK
+		}
+		assert gson.fromJson("\""+ArrayMap.class.getName()+"\"", Class.class) == ArrayMap.class;
+	}
+
+	@Test
+	public void testComplexMapKeys() {
+		Gson gson = new GsonBuilder().enableComplexMapKeySerialization().create();
+		// simple keys => an object
+		Map<Integer, String> simple = new LinkedHashMap();
+		simple.put(1, "a");
+		simple.put(2, "b");
+		String json = gson.toJson(simple, new TypeToken<Map<Integer, String>>(){}.getType());
+		assert json.equals("{\"1\":\"a\",\"2\":\"b\"}") : json;
+		// complex keys => an array of pairs
+		DummyObject k = new DummyObject();
+		k.a = "key";
+		Map<DummyObject, Integer> complex = new LinkedHashMap();
+		complex.put(k, 7);
+		Type type = new TypeToken<Map<DummyObject, Integer>>(){}.getType();
+		json = gson.toJson(complex, type);
+		assert json.startsWith("[[{") : json;
+		Map<DummyObject, Integer> complex2 = gson.fromJson(json, type);
+		assert complex2.get(k) == 7 : complex2;
+		// keys typed Object: checked one by one
+		Map<Object, Integer> mixed = new LinkedHashMap();
+		mixed.put("x", 1);
+		mixed.put(2.5, 2);
+		json = gson.toJson(mixed, new TypeToken<Map<Object, Integer>>(){}.getType());
+		assert json.equals("{\"x\":1,\"2.5\":2}") : json;
+		// a simple key type whose adapter writes complex keys => still the array form
+		Gson boxing = new GsonBuilder().enableComplexMapKeySerialization()
+				.registerTypeAdapter(String.class, new TypeAdapter<String>() {
+					@Override
+					public void write(JsonWriter out, String value) throws IOException {
+						out.beginArray().value(value).endArray();
+					}
+					@Override
+					public String read(JsonReader in) throws IOException {
+						in.beginArray();
+						String s = in.nextString();
+						in.endArray();
+						return s;
+					}
+				}).create();
+		Map<String, Integer> boxed = new LinkedHashMap();
+		boxed.put("a", 1);
+		json = boxing.toJson(boxed, new TypeToken<Map<String, Integer>>(){}.getType());
+		assert json.equals("[[[\"a\"],1]]") : json;
+	}
+
+	@Test
+	public void testPrimitiveArrays() {
+		Gson gson = new Gson();
+		String json = gson.toJson(new double[] {1.5, -2, 0.1});
+		assert json.equals("[1.5,-2.0,0.1]") : json;
+		double[] ds = gson.fromJson("[1.5,-2,0.1,3,4,5,6,7,8,9,10,11,12,13,14,15,16,17]", double[].class);
+		assert ds.length == 18 && ds[2] == 0.1 && ds[17] == 17 : Arrays.toString(ds);
+		assert gson.toJson(new float[] {0.1f}).equals("[0.1]");
+		byte[] bs = {1, -1, 127};
+		assert gson.toJson(bs).equals("[1,-1,127]");
+		assert Arrays.equals(gson.fromJson("[1,-1,127]", byte[].class), bs);
+		// a null element is an error, not a silent 0
+		try {
+			gson.fromJson("[1,null]", int[].class);
+			assert false;
+		} catch(JsonSyntaxException ex) {
+			// good
+		}
+		// base64
+		Gson gson64 = new GsonBuilder().setBase64Arrays(true).create();
+		String json64 = gson64.toJson(bs);
+		assert json64.equals("\"Af9/\"") : json64;
+		assert Arrays.equals(gson.fromJson(json64, byte[].class), bs);
+		long[] ls = new long[1000];
+		for(int i=0; i<ls.length; i++) ls[i] = i * 1234567891L;
+		json64 = gson64.toJson(ls);
+		// spans several encoding chunks
+		assert json64.equals("\""+Base64.getEncoder().withoutPadding().encodeToString(toBytes(ls))+"\"") : json64;
+		assert Arrays.equals(gson.fromJson(json64, long[].class), ls);
+		double[] nan = {Double.NaN, 1};
+		assert Arrays.equals(gson64.fromJson(gson64.toJson(nan), double[].class), nan);
+		// plain still reads into a base64 gson
+		assert Arrays.equals(gson64.fromJson("[1,2]", int[].class), new int[] {1,2});
+	}
+
+	private static byte[] toBytes(long[] ls) {
+		ByteBuffer bb = ByteBuffer.allocate(ls.length * 8);
+		bb.asLongBuffer().put(ls);
+		return bb.array();
+	}
+
+	@Test
+	public void testCompactJsonTree() {
+		String json = "{\"a\":[1,2,3],\"b\":[0.5,2,-3.25],\"c\":[1e5,2],\"d\":[9007199254740993,0.5],"
+				+"\"e\":[1.0,0,\"x\"],\"f\":[12345678901234567890],\"g\":{\"h\":[]}}";
+		JsonElement plain = new JsonParser().parse(json);
+		JsonElement compact = new JsonParser(true).parse(json);
+		assert compact.equals(plain) && plain.equals(compact);
+		assert compact.hashCode() == plain.hashCode();
+		// the json is unchanged
+		assert compact.toString().equals(plain.toString()) : compact;
+		assert compact.toString().equals(json) : compact;
+		JsonArray b = compact.getAsJsonObject().getAsJsonArray("b");
+		assert b.get(1).getAsInt() == 2 && b.get(2).getAsDouble() == -3.25;
+		assert b.contains(new JsonPrimitive(2)) && ! b.contains(new JsonPrimitive(3));
+		// edits switch to elements
+		Iterator<JsonElement> it = b.iterator();
+		it.next();
+		it.remove();
+		b.add(new JsonPrimitive("y"));
+		assert b.toString().equals("[2,-3.25,\"y\"]") : b;
+		JsonArray built = new JsonArray();
+		built.addNumber(1);
+		built.addNumber(2.5);
+		built.add(null);
+		assert built.toString().equals("[1,2.5,null]") : built;
+		try {
+			new JsonObject().add(null, new JsonPrimitive(1));
+			assert false;
+		} catch(NullPointerException ex) {
+			// good
+		}
+	}
+
+	@Test
+	public void testLazyJsonTree() {
+		String json = "{\"route\":\"a/b\",\"body\":{\"x\": [1, 2.5, {\"z\":null}], \"y\":\"\\u00e9\\\"\"},\"n\":[]}";
+		JsonObject lazy = (JsonObject) new JsonParser().parseLazy(json);
+		assert lazy.getUnparsedJson().equals(json);
+		assert lazy.get("route").getAsString().equals("a/b");
+		JsonObject body = lazy.getAsJsonObject("body");
+		assert body.getUnparsedJson() != null;
+		// spaces and escapes are normalised, as for the eager parse
+		JsonElement eager = new JsonParser().parse(json);
+		assert lazy.toString().equals(eager.toString()) : lazy;
+		// and it reads the same
+		assert lazy.equals(eager) && eager.equals(lazy);
+		assert body.getUnparsedJson() == null;
+		assert body.get("y").getAsString().equals("\u00e9\"") : body.get("y");
+		assert body.getAsJsonArray("x").get(2).getAsJsonObject().get("z").isJsonNull();
+		// primitives, and errors
+		assert new JsonParser().parseLazy(" 12 ").getAsInt() == 12;
+		for(String bad : new String[] {"{\"a\":[1}", "[\"x]", "[1] 2"}) {
+			try {
+				new JsonParser().parseLazy(bad);
+				assert false : bad;
+			} catch(JsonSyntaxException ex) {
+				// good
+			}
+		}
+		// a bad value inside an untouched subtree only fails on access
+		JsonArray arr = (JsonArray) new JsonParser().parseLazy("[[1 2]]");
+		try {
+			arr.get(0).getAsJsonArray().size();
+			assert false;
+		} catch(JsonSyntaxException ex) {
+			// good
+		}
+		// json numbers only (Double.parseDouble would allow these)
+		for(String bad : new String[] {"[1d]", "[0x1p3]", "[NaN]", "[-Infinity]", "[01]", "[.5]"}) {
+			JsonArray lazyBad = (JsonArray) new JsonParser().parseLazy(bad);
+			try {
+				new Gson().toJson(lazyBad);
+				assert false : bad;
+			} catch(JsonSyntaxException ex) {
+				assert ex.getCause() instanceof MalformedJsonException : ex;
+			}
+		}
+	}
+
+	@Test
+	public void testLazyJsonTreeWriterSettings() {
+		String[] jsons = {
+				"{\"x\":\"<b>&='\"}", "[1, 2]", "{\"a\":null,\"b\":[null]}", "{\"k\":1,\"k\":2}",
+				"{\"s\":\"\\/\\u0041\"}", "{\"a\":[1,2.5],\"s\":\"x\\n\"}"};
+		for(Gson gson : new Gson[] {new Gson(), new GsonBuilder().setPrettyPrinting().create(),
+				new GsonBuilder().serializeNulls().disableHtmlEscaping().create()}) 
+		{
+			for(String json : jsons) {
+				String eager = gson.toJson(new JsonParser().parse(json));
+				String lazy = gson.toJson(new JsonParser().parseLazy(json));
+				assert lazy.equals(eager) : json+" -> "+lazy+" vs "+eager;
+			}
+		}
+		// canonical text is forwarded without being parsed
+		JsonObject lazy = (JsonObject) new JsonParser().parseLazy("{\"a\":[1,2.5],\"s\":\"x\\n\"}");
+		assert new Gson().toJson(lazy).equals("{\"a\":[1,2.5],\"s\":\"x\\n\"}");
+		assert lazy.getUnparsedJson() != null;
+	}
+
+	@Test
+	public void testLazyJsonTreeConcurrentReads() throws Exception {
+		StringBuilder json = new StringBuilder("[");
+		for(int i=0; i<1000; i++) {
+			if (i!=0) json.append(',');
+			json.append("{\"i\":").append(i).append(",\"a\":[").append(i).append(",\"x\"]}");
+		}
+		json.append(']');
+		String eager = new JsonParser().parse(json.toString()).toString();
+		for(int round=0; round<20; round++) {
+			JsonArray lazy = (JsonArray) new JsonParser().parseLazy(json.toString());
+			String[] seen = new String[4];
+			Thread[] threads = new Thread[seen.length];
+			for(int t=0; t<threads.length; t++) {
+				final int ti = t;
+				threads[t] = new Thread(() -> {
+					StringBuilder sb = new StringBuilder();
+					for(JsonElement e : lazy) {
+						sb.append(e.getAsJsonObject().get("i").getAsInt())
+							.append(e.getAsJsonObject().getAsJsonArray("a").size());
+					}
+					seen[ti] = sb.toString();
+				});
+			}
+			for(Thread t : threads) t.start();
+			for(Thread t : threads) t.join();
+			for(String s : seen) assert s != null && s.equals(seen[0]) : s;
+			assert lazy.toString().equals(eager);
+		}
+	}
 }
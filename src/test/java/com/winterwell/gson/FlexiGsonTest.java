@@ -1,10 +1,22 @@
 package com.winterwell.gson;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 import org.junit.Test;
 
+import com.winterwell.gson.annotations.JsonRawValue;
+import com.winterwell.gson.internal.CompactList;
+import com.winterwell.gson.internal.CompactMap;
+import com.winterwell.gson.internal.bind.RuntimeTypeAdapterFactory;
+import com.winterwell.gson.internal.bind.TokenBufferWriter;
+import com.winterwell.gson.stream.JsonReader;
 import com.winterwell.utils.containers.ArrayMap;
 
 public class FlexiGsonTest {
@@ -40,6 +52,355 @@ public class FlexiGsonTest {
 		}
 	}
 	
+	@Test
+	public void testTypeId() {
+		Gson gson = new GsonBuilder().registerTypeId(DummyObject.class, 7).create();
+		DummyObject dummy1 = new DummyObject();
+		dummy1.a = "Hello";
+		ArrayMap map = new ArrayMap("x", dummy1);
+		String json = gson.toJson(map);
+		assert json.contains("\"@class\":\"7\"") : json;
+		assert ! json.contains("DummyObject") : json;
+		Map map2 = (Map) gson.fromJson(json);
+		assert dummy1.equals(map2.get("x")) : map2;
+		// unknown classes still use the name
+		assert gson.toJson(new ArrayMap("y", new ArrayList())).equals(new Gson().toJson(new ArrayMap("y", new ArrayList())));
+	}
+
+	@Test
+	public void testClassPropertyOnlyForSubtypes() {
+		Gson gson = new GsonBuilder().setClassPropertyOnlyForSubtypes(true).create();
+		DummyHolder h = new DummyHolder();
+		h.d = new DummyObject();
+		h.d.a = "field";
+		h.o = new DummyObject();
+		DummyObject e = new DummyObject();
+		e.a = "element";
+		h.ds.add(e);
+		String json = gson.toJson(h);
+		// top-level and the Object field only
+		assert json.split("\"@class\"").length == 3 : json;
+		DummyHolder h2 = gson.fromJson(json, DummyHolder.class);
+		assert h2.d.equals(h.d) : json;
+		assert h2.o.equals(h.o) : json;
+		assert h2.ds.equals(h.ds) : json;
+		// default is always-on
+		String json2 = new Gson().toJson(h);
+		assert json2.split("\"@class\"").length == 5 : json2;
+	}
+
+	@Test
+	public void testLateClassProperty() {
+		Gson gson = new GsonBuilder().create();
+		// @class is not the first key
+		String json = ("{'o':{'a':'x','b':3,'cs':['c'],'@class':'"+DummyObject.class.getName()+"'},"
+				+"'d':{'b':4,'@class':'"+DummyObject.class.getName()+"','a':'y'}}").replace('\'', '"');
+		DummyHolder h = gson.fromJson(json, DummyHolder.class);
+		assert h.o instanceof DummyObject : h.o;
+		DummyObject o = (DummyObject) h.o;
+		assert o.a.equals("x") && o.b == 3 && o.cs.get(0).equals("c") : o;
+		assert h.d.a.equals("y") && h.d.b == 4 : h.d;
+		// no @class => a map
+		h = gson.fromJson("{\"o\":{\"a\":\"x\",\"n\":{\"z\":1}}}", DummyHolder.class);
+		assert h.o instanceof Map : h.o;
+		assert ((Map)((Map) h.o).get("n")).get("z") != null : h.o;
+		// @class first but null => no look-ahead, still a map
+		h = gson.fromJson("{\"o\":{\"@class\":null,\"a\":\"x\"}}", DummyHolder.class);
+		assert h.o instanceof Map && ((Map) h.o).get("a").equals("x") : h.o;
+	}
+
+	@Test
+	public void testDeepCopyAndConvert() {
+		Gson gson = new GsonBuilder().create();
+		DummyHolder h = new DummyHolder();
+		h.d = new DummyObject();
+		h.d.a = "field";
+		h.d.cs.add("c");
+		h.o = new DummyObject();
+		h.ds.add(new DummyObject());
+		DummyHolder h2 = gson.deepCopy(h);
+		assert h2 != h && h2.d != h.d;
+		assert h2.d.equals(h.d) && h2.o.equals(h.o) && h2.ds.equals(h.ds) : gson.toJson(h2);
+		// to a plain map and back
+		Map map = gson.toJsonObject(h.d);
+		assert map.get("a").equals("field") : map;
+		assert map.get("cs") instanceof List : map;
+		DummyObject d2 = gson.convert(map, DummyObject.class);
+		assert d2.equals(h.d) : d2;
+	}
+
+	@Test
+	public void testTokenBufferWriterLenientDouble() throws IOException {
+		TokenBufferWriter w = new TokenBufferWriter();
+		w.setLenient(true);
+		w.beginArray().value(Double.NaN).value(Double.NEGATIVE_INFINITY).endArray();
+		JsonReader r = w.getBuffer().reader(null);
+		r.setLenient(true);
+		r.beginArray();
+		assert Double.isNaN(r.nextDouble());
+		assert r.nextDouble() == Double.NEGATIVE_INFINITY;
+		r.endArray();
+		// strict still rejects them
+		TokenBufferWriter strict = new TokenBufferWriter();
+		strict.beginArray();
+		try {
+			strict.value(Double.NaN);
+			assert false;
+		} catch(IllegalArgumentException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testRuntimeTypeAdapterFactory() {
+		Gson gson = new GsonBuilder().setClassProperty(null)
+				.registerTypeAdapterFactory(new RuntimeTypeAdapterFactory("type"))
+				.create();
+		DummyHolder h = new DummyHolder();
+		DummySub sub = new DummySub();
+		sub.a = "field";
+		sub.cs.add("c");
+		h.d = sub;
+		h.ds.add(new DummyObject());
+		String json = gson.toJson(h);
+		// the label comes first
+		assert json.startsWith("{\"type\":\"com.winterwell.gson.DummyHolder\"") : json;
+		assert json.contains("\"d\":{\"type\":\"com.winterwell.gson.DummySub\"") : json;
+		DummyHolder h2 = gson.fromJson(json, DummyHolder.class);
+		assert h2.d instanceof DummySub : h2.d;
+		assert h2.d.equals(sub) && h2.ds.equals(h.ds) : json;
+		// the label need not be first
+		DummyObject d2 = gson.fromJson("{\"b\":2,\"type\":\"com.winterwell.gson.DummySub\",\"a\":\"x\"}", DummyObject.class);
+		assert d2 instanceof DummySub && d2.b == 2 && d2.a.equals("x") : d2;
+	}
+
+	static class Typed {
+		String type;
+	}
+
+	@Test
+	public void testRuntimeTypeAdapterFactoryTypeIds() {
+		Gson gson = new GsonBuilder().setClassProperty(null)
+				.registerTypeAdapterFactory(new RuntimeTypeAdapterFactory("type"))
+				.registerTypeId(DummySub.class, "sub")
+				.registerTypeId(Typed.class, "typed")
+				.create();
+		DummySub sub = new DummySub();
+		sub.a = "field";
+		String json = gson.toJson(sub, DummyObject.class);
+		assert json.startsWith("{\"type\":\"sub\"") : json;
+		DummyObject d2 = gson.fromJson(json, DummyObject.class);
+		assert d2 instanceof DummySub && d2.equals(sub) : d2;
+		// the label would clash with a field
+		Typed t = new Typed();
+		t.type = "x";
+		try {
+			gson.toJson(t);
+			assert false;
+		} catch(JsonParseException ex) {
+			assert ex.getMessage().contains("already defines a field named type") : ex;
+		}
+	}
+
+	static enum KMetric {
+		CLICKS, VIEWS {
+			// a constant with a body is a sub-class
+			@Override public String toString() { return "views!"; }
+		}, SPEND
+	}
+
+	static class MetricHolder {
+		EnumMap<KMetric,Long> counts;
+	}
+
+	@Test
+	public void testEnumMap() {
+		Gson gson = new GsonBuilder().create();
+		MetricHolder h = new MetricHolder();
+		h.counts = new EnumMap(KMetric.class);
+		h.counts.put(KMetric.VIEWS, 10L);
+		h.counts.put(KMetric.SPEND, 3L);
+		String json = gson.toJson(h);
+		// keys use name() not toString()
+		assert json.contains("\"VIEWS\":10") : json;
+		MetricHolder h2 = gson.fromJson(json, MetricHolder.class);
+		assert h2.counts.equals(h.counts) : h2.counts;
+		// declared value type: a Long, not a Double
+		assert h2.counts.get(KMetric.SPEND) instanceof Long : h2.counts;
+		// untyped, with the enum class after the entries
+		String json2 = "{\"SPEND\":2,\"@class\":\"java.util.EnumMap\",\"@class.enum\":\""+KMetric.class.getName()+"\"}";
+		EnumMap m = (EnumMap) gson.fromJson(json2);
+		assert m.containsKey(KMetric.SPEND) : m;
+		// unknown names fail
+		try {
+			gson.fromJson("{\"counts\":{\"LIKES\":1}}", MetricHolder.class);
+			assert false;
+		} catch(JsonSyntaxException ex) {
+			// good
+		}
+	}
+
+	@Test
+	public void testCompactUntypedReads() {
+		String json = "{\"a\":1,\"b\":[1,2.5,3],\"c\":[\"x\",{\"d\":true}],\"e\":{}}";
+		for(Gson gson : new Gson[] {
+				new GsonBuilder().setCompactUntypedReads(true).create(),
+				new GsonBuilder().setClassProperty(null).setCompactUntypedReads(true).create()}) 
+		{
+			Map map = (Map) gson.fromJson(json, Object.class);
+			assert map instanceof CompactMap : map.getClass();
+			assert ((CompactList) map.get("b")).isNumeric() : map;
+			assert ! ((CompactList) map.get("c")).isNumeric() : map;
+			// same content as the default
+			Object plain = new GsonBuilder().setClassProperty(null).create().fromJson(json, Object.class);
+			assert map.equals(plain) : map;
+			assert gson.toJson(map).equals(gson.toJson(plain)) : gson.toJson(map);
+		}
+	}
+
+	static class Envelope {
+		String id;
+		RawJson payload;
+		@JsonRawValue String extra;
+		JsonElement tree;
+	}
+
+	@Test
+	public void testRawJsonCapture() {
+		// big enough to span several buffer fills, with brackets and quotes inside strings
+		StringBuilder sb = new StringBuilder("{\"xs\": [");
+		for(int i=0; i<300; i++) {
+			sb.append("{\"s\":\"a]}\\\"'[\", \"n\":"+i+"},\n");
+		}
+		sb.append("null]}");
+		String payload = sb.toString();
+		String json = "{\"id\":\"e1\",\"payload\":"+payload+",\"extra\":[1, 2.50],\"tree\":{\"b\": [true]}}";
+		Gson gson = new GsonBuilder().setClassProperty(null).create();
+		Envelope e = gson.fromJson(json, Envelope.class);
+		// the exact source text, whitespace and all
+		assert e.payload.json.equals(payload) : e.payload;
+		assert e.extra.equals("[1, 2.50]") : e.extra;
+		assert e.id.equals("e1") && e.tree.getAsJsonObject().getUnparsedJson() == null;
+		// ...RawJson is written back as-is, @JsonRawValue as the writer would write it
+		String json2 = gson.toJson(e);
+		assert json2.contains(payload) && json2.contains("\"extra\":[1,2.50]") : json2;
+		e.extra = "[3,\"x\"]";
+		assert gson.toJson(e).contains("\"extra\":[3,\"x\"]");
+		// @JsonRawValue is checked before it is written
+		for(String bad : new String[] {"1,\"admin\":true", "{\"a\":", "[1]]", ""}) {
+			e.extra = bad;
+			try {
+				gson.toJson(e);
+				assert false : bad;
+			} catch(JsonSyntaxException ex) {
+				// good
+			}
+		}
+		// null stays null
+		Envelope e2 = gson.fromJson("{\"payload\":null,\"extra\":null}", Envelope.class);
+		assert e2.payload == null && e2.extra == null;
+		// lenient-only syntax is converted to json
+		Envelope e5 = gson.fromJson("{payload: {a: b}, extra: x, tree: [1, 'c', true]}", Envelope.class);
+		assert e5.payload.json.equals("{\"a\":\"b\"}") : e5.payload;
+		assert e5.extra.equals("\"x\"") : e5.extra;
+		assert e5.tree.getAsJsonArray().size() == 3 : e5.tree;
+		// lazy JsonElements
+		Gson lazy = new GsonBuilder().setClassProperty(null).setLazyJsonElements(true).create();
+		Envelope e3 = lazy.fromJson(json, Envelope.class);
+		assert "{\"b\": [true]}".equals(e3.tree.getAsJsonObject().getUnparsedJson()) : e3.tree;
+		// written as the eager tree would be
+		assert lazy.toJson(e3).endsWith("\"tree\":{\"b\":[true]}}") : lazy.toJson(e3);
+		Gson lazyPretty = new GsonBuilder().setClassProperty(null).setLazyJsonElements(true).setPrettyPrinting().create();
+		Gson eagerPretty = new GsonBuilder().setClassProperty(null).setPrettyPrinting().create();
+		Envelope e4 = lazyPretty.fromJson("{\"tree\":{\"b\":[true,\"<\"]}}", Envelope.class);
+		assert e4.tree.getAsJsonObject().getUnparsedJson() != null;
+		assert lazyPretty.toJson(e4).equals(eagerPretty.toJson(eagerPretty.fromJson("{\"tree\":{\"b\":[true,\"<\"]}}", Envelope.class)))
+			: lazyPretty.toJson(e4);
+		// (access parses it)
+		assert e3.tree.equals(e.tree);
+		// broken json is caught
+		try {
+			gson.fromJson("{\"payload\":{\"a\":[1}", Envelope.class);
+			assert false;
+		} catch(JsonSyntaxException ex) {
+			// good
+		}
+	}
+
+	@Test
+	public void testRawJsonCaptureLenient() {
+		// comments and single quotes are lenient-only, and must not upset the bracket counting
+		String json = "{'id':'e', 'payload':{'k':'it\\'s \"q\" ]' /* ] */, // }\n 'n':1}, 'extra':'[\"x\"]'}";
+		Gson gson = new GsonBuilder().setClassProperty(null).create();
+		Envelope e = gson.fromJson(json, Envelope.class);
+		// comments dropped, re-quoted as json
+		assert e.payload.json.equals("{\"k\":\"it's \\\"q\\\" ]\" ,  \"n\":1}") : e.payload;
+		assert e.extra.equals("\"[\\\"x\\\"]\"") : e.extra;
+		assert new JsonParser().parse(e.payload.json).getAsJsonObject().get("n").getAsInt() == 1;
+	}
+
+	@Test
+	public void testStreamPreprocessor() {
+		Gson gson = new GsonBuilder()
+				.registerStreamPreprocessor(StreamPreprocessor.replaceAll(Pattern.compile("NaN"), "null", 3))
+				.registerStringPreprocessor(s -> s.replace("null", "0"))
+				.create();
+		// long enough to span several chunks
+		StringBuilder sb = new StringBuilder("[");
+		for(int i=0; i<5000; i++) {
+			sb.append(i%2==0? "NaN," : "1,");
+		}
+		sb.append("NaN]");
+		List<Double> xs = gson.fromJson(sb.toString(), List.class);
+		assert xs.size() == 5001 : xs.size();
+		// in order: NaN -> null -> 0
+		for(Double x : xs) {
+			assert x==0 || x==1 : x;
+		}
+	}
+
+	@Test
+	public void testStreamPreprocessorBoundaries() throws IOException {
+		String text = "cat concat cat.\nxab ab\ncatalog x\nab cat";
+		String[][] cases = {
+				{"\\bcat\\b", "dog"}, {"(?<=a)b", "B"}, {"(?m)^x", "Y"}, {"^c", "C"},
+				{"(?<![a-z])ab", "AB"}, {"x*", "-"}, {"(\\w)\\.", "$1!"}};
+		for(String[] c : cases) {
+			String expected = text.replaceAll(c[0], c[1]);
+			// a source which gives 2 chars at a time, so matches straddle every boundary
+			Reader trickle = new StringReader(text) {
+				@Override
+				public int read(char[] cbuf, int off, int len) throws IOException {
+					return super.read(cbuf, off, Math.min(len, 2));
+				}
+			};
+			Reader r = StreamPreprocessor.replaceAll(Pattern.compile(c[0]), c[1], 3).wrap(trickle);
+			StringBuilder got = new StringBuilder();
+			char[] buf = new char[3];
+			for(int n; (n = r.read(buf, 0, buf.length)) != -1; ) {
+				got.append(buf, 0, n);
+			}
+			assert got.toString().equals(expected) : c[0]+" -> "+got+" vs "+expected;
+		}
+	}
+
+	@Test
+	public void testWriterForReaderFor() {
+		Gson gson = new GsonBuilder().create();
+		DummyObject dummy1 = new DummyObject();
+		dummy1.a = "Hello";
+		dummy1.b = 7;
+		dummy1.cs.add("C");
+		TypedWriter<DummyObject> w = gson.writerFor(DummyObject.class);
+		TypedReader<DummyObject> r = gson.readerFor(DummyObject.class);
+		String json = w.write(dummy1);
+		assert json.equals(gson.toJson(dummy1)) : json;
+		byte[] bytes = w.writeBytes(dummy1);
+		DummyObject dummy2 = r.read(bytes);
+		assert dummy2.equals(dummy1) : dummy2;
+		assert r.read("") == null;
+	}
+	
 	@Test
 	public void testConvert() {
 		Gson gson = new GsonBuilder().create();
@@ -104,4 +465,13 @@ class DummyObject {
 	String a;
 	int b;
 	List<String> cs = new ArrayList();
-}
\ No newline at end of file
+}
+
+class DummyHolder {
+	DummyObject d;
+	Object o;
+	List<DummyObject> ds = new ArrayList();
+}
+
+class DummySub extends DummyObject {
+}
@@ -24,4 +24,22 @@ public class RegexFirstAdapterTest {
 		assert p2.name.equals("foo") : p2;
 	}
 	
-}
\ No newline at end of file
+	@Test
+	public void testKeyStreaming() {
+		RegexFirstAdapter rfa = new RegexFirstAdapter<>(Key.class, "^k$", "name")
+				.setTarget(RegexFirstAdapter.KTarget.NAMES)
+				.eg("k", "name");
+		Gson gsonWith = new GsonBuilder()
+						.registerTypeAdapterFactory(rfa)
+						.create();
+		Key p2 = gsonWith.fromJson("{\"@class\":\"com.winterwell.utils.Key\",\"k\":\"foo\"}", Key.class);
+		assert p2.name.equals("foo") : p2;
+		// string values only
+		RegexFirstAdapter rfa2 = new RegexFirstAdapter<>(Key.class, "^old-", "new-")
+				.setTarget(RegexFirstAdapter.KTarget.STRINGS);
+		Gson gson2 = new GsonBuilder().registerTypeAdapterFactory(rfa2).create();
+		Key p3 = gson2.fromJson("{\"@class\":\"com.winterwell.utils.Key\",\"name\":\"old-foo\"}", Key.class);
+		assert p3.name.equals("new-foo") : p3;
+	}
+
+}
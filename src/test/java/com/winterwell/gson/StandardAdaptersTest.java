@@ -1,6 +1,9 @@
 package com.winterwell.gson;
 
 import java.lang.reflect.Type;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
 import java.util.Date;
 import java.util.Map;
 
@@ -202,6 +205,57 @@ public class StandardAdaptersTest {
 		assert n3.a == 17;
 	}
 	
+	@Test
+	public void testLenientLongOtherReaders() {
+		Gson gsonWith = new GsonBuilder()
+						.registerTypeAdapter(Long.class, new StandardAdapters.LenientLongAdapter())
+						.create();
+		// a tree reader: rounds, as the stream reader does
+		NumLongs t = gsonWith.fromJson(new JsonParser().parse("{\"a\":1.5,\"b\":7}"), NumLongs.class);
+		assert t.a == 2 && t.b == 7 : t.a+" "+t.b;
+		// a late @class: the object is replayed from a token buffer
+		String json = "{\"o\":{\"a\":1.5,\"b\":7,\"@class\":\""+NumLongs.class.getName()+"\"}}";
+		Holder h = gsonWith.fromJson(json, Holder.class);
+		NumLongs r = (NumLongs) h.o;
+		assert r.a == 2 && r.b == 7 : r.a+" "+r.b;
+	}
+	
+	@Test
+	public void testStreamingReads() {
+		Gson gsonWith = new GsonBuilder()
+						.registerTypeAdapter(Time.class, new StandardAdapters.TimeTypeAdapter())
+						.registerTypeAdapter(Long.class, new StandardAdapters.LenientLongAdapter())
+						.registerTypeAdapter(StringBuilder.class, new StandardAdapters.CharSequenceTypeAdapter(StringBuilder.class))
+						.create();
+		// a vanilla Gson Time
+		Time t = gsonWith.fromJson("{\"ut\":1500000000000,\"@class\":\"com.winterwell.utils.time.Time\"}", Time.class);
+		assert t.getTime() == 1500000000000L : t;
+		assert gsonWith.fromJson("\"\"", Time.class) == null;
+		// lenient longs: whole, fractional, quoted
+		assert gsonWith.fromJson("{\"a\":17}", NumLong.class).a == 17;
+		assert gsonWith.fromJson("{\"a\":16.9999}", NumLong.class).a == 17;
+		assert gsonWith.fromJson("{\"a\":\"12\"}", NumLong.class).a == 12;
+		assert gsonWith.fromJson("{\"a\":null}", NumLong.class).a == null;
+		StringBuilder sb = gsonWith.fromJson("\"foo\"", StringBuilder.class);
+		assert sb.toString().equals("foo");
+		assert gsonWith.toJson(sb).equals("\"foo\"");
+	}
+	
+	@Test
+	public void testJavaTime() {
+		Gson gson = new GsonBuilder().create();
+		Instant i = Instant.ofEpochMilli(1500000000123L);
+		assert gson.toJson(i).equals("\"2017-07-14T02:40:00.123Z\"") : gson.toJson(i);
+		assert gson.fromJson(gson.toJson(i), Instant.class).equals(i);
+		LocalDate d = LocalDate.of(2020, 2, 29);
+		assert gson.fromJson(gson.toJson(d), LocalDate.class).equals(d);
+		OffsetDateTime odt = OffsetDateTime.parse("2017-09-13T11:55:26+05:30");
+		assert gson.fromJson(gson.toJson(odt), OffsetDateTime.class).equals(odt);
+		// Dates read ISO
+		Date date = gson.fromJson("\"2017-09-13T11:55:26Z\"", Date.class);
+		assert date.getTime() == Instant.parse("2017-09-13T11:55:26Z").toEpochMilli();
+	}
+	
 	@Test
 	public void testISOTime() {
 		{
@@ -297,6 +351,15 @@ class NumLong {
 	public Long a;
 }
 
+class NumLongs {
+	public Long a;
+	public Long b;
+}
+
+class Holder {
+	public Object o;
+}
+
 class MyObj {
 
 	private Class klass;
@@ -0,0 +1,68 @@
+package com.winterwell.gson.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class CompactMapTest {
+
+	@Test
+	public void testMapAgainstLinkedHashMap() {
+		CompactMap<String, Object> map = new CompactMap<String, Object>();
+		Map<String, Object> ref = new LinkedHashMap<String, Object>();
+		// past the scan limit, so the index kicks in
+		for(int i=0; i<50; i++) {
+			map.put("k"+i, i);
+			ref.put("k"+i, i);
+		}
+		map.put("k3", "x");
+		ref.put("k3", "x");
+		map.put(null, null);
+		ref.put(null, null);
+		assert map.equals(ref) && ref.equals(map);
+		assert map.hashCode() == ref.hashCode();
+		assert map.containsKey(null) && ! map.containsKey("nope");
+		// remove shifts the positions
+		for(int i=0; i<50; i+=2) {
+			assert map.remove("k"+i).equals(ref.remove("k"+i));
+		}
+		assert map.get("k49").equals(49) && map.get("k48") == null;
+		assert new ArrayList(map.keySet()).equals(new ArrayList(ref.keySet())) : map.keySet();
+		// iterator remove, back down to a scanned map
+		Iterator<Map.Entry<String, Object>> it = map.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<String, Object> e = it.next();
+			if (e.getKey() != null && ! e.getKey().equals("k7")) it.remove();
+			else e.setValue("y");
+		}
+		assert map.size() == 2 && map.get("k7").equals("y") && map.containsKey(null) : map;
+		map.trimToSize();
+		map.put("z", 1);
+		assert map.toString().equals("{k7=y, null=y, z=1}") : map;
+	}
+
+	@Test
+	public void testList() {
+		CompactList list = new CompactList();
+		list.add(1.0);
+		list.add(2.5);
+		list.add(0, -1.0);
+		assert list.isNumeric();
+		assert list.equals(Arrays.asList(-1.0, 1.0, 2.5)) : list;
+		assert list.getDouble(2) == 2.5;
+		list.trimToSize();
+		list.add("x");
+		assert ! list.isNumeric();
+		assert list.equals(Arrays.asList(-1.0, 1.0, 2.5, "x")) : list;
+		assert list.remove(0).equals(-1.0);
+		List<Object> strings = new CompactList();
+		strings.add("a");
+		strings.add(null);
+		assert strings.equals(Arrays.asList("a", null)) : strings;
+	}
+}
@@ -0,0 +1,49 @@
+package com.winterwell.gson.internal;
+
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class ISO8601Test {
+
+	@Test
+	public void testFormatMatchesDateFormat() {
+		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
+		SimpleDateFormat sdfMs = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss:S'Z'");
+		sdfMs.setTimeZone(TimeZone.getTimeZone("GMT"));
+		Random r = new Random(42);
+		for(int i=0; i<1000; i++) {
+			long ms = r.nextLong() % 4000000000000L; // 1843 to 2096
+			assert ISO8601.format(ms, false).equals(sdf.format(new Date(ms))) : ms;
+			assert ISO8601.formatWithMillisCount(ms).equals(sdfMs.format(new Date(ms))) : ms;
+			assert ISO8601.format(ms, true).equals(Instant.ofEpochMilli(ms).toString()) : ms;
+			// and back
+			assert ISO8601.parseMillis(ISO8601.format(ms, true)) == ms : ms;
+			assert ISO8601.parseMillis(ISO8601.formatWithMillisCount(ms)) == ms : ms;
+		}
+	}
+
+	@Test
+	public void testParse() {
+		for(String s : new String[] {
+				"2017-09-13T11:55:26Z", "2017-09-13T11:55:26.5Z", "2017-09-13T11:55:26.123456789+01:00",
+				"2017-09-13T11:55-0530", "2000-02-29T00:00:00+02", "1969-12-31T23:59:59.999Z"}) 
+		{
+			int[] nanos = new int[1];
+			long secs = ISO8601.parse(s, nanos);
+			Instant expected = OffsetDateTime.parse(s.replace("-0530", "-05:30").replace("+02", "+02:00")).toInstant();
+			assert Instant.ofEpochSecond(secs, nanos[0]).equals(expected) : s;
+		}
+		assert ISO8601.parseMillis("2017-09-13") == Instant.parse("2017-09-13T00:00:00Z").toEpochMilli();
+		// not handled => fall back
+		for(String s : new String[] {"tomorrow", "2017-09-13T11:55:26", "2017-02-30", "2017-9-13T11:55Z", "2017-09-13T25:00Z", ""}) {
+			assert ISO8601.parseMillis(s) == ISO8601.NOT_HANDLED : s;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package com.winterwell.gson.internal.bind;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.winterwell.gson.Gson;
+import com.winterwell.gson.GsonBuilder;
+import com.winterwell.gson.stream.JsonReader;
+
+public class TokenBufferTest {
+
+	static class Leaf {
+		int b;
+	}
+
+	@Test
+	public void testNestedUntypedIsBufferedOnce() throws Exception {
+		// deep, untyped, and no @class until the bottom -- so every level is Object and buffered
+		int depth = 50;
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<depth; i++) {
+			sb.append("{\"n\":"+i+",\"xs\":[{\"y\":true}],\"a\":");
+		}
+		sb.append("{\"b\":2,\"@class\":\""+Leaf.class.getName()+"\"}");
+		for(int i=0; i<depth; i++) {
+			sb.append("}");
+		}
+		String json = sb.toString();
+		TokenBuffer all = new TokenBuffer();
+		all.copyValue(new JsonReader(new StringReader(json)));
+
+		Gson gson = new GsonBuilder().create();
+		long before = TokenBuffer.replayed.sum();
+		Object obj = gson.fromJson(json, Object.class);
+		long copied = TokenBuffer.replayed.sum() - before;
+		// each token once (not once per level)
+		assert copied == all.size() : copied+" vs "+all.size();
+
+		Map m = (Map) obj;
+		for(int i=0; i<depth-1; i++) {
+			assert ((List) m.get("xs")).get(0) instanceof Map : m;
+			m = (Map) m.get("a");
+		}
+		// the late @class is still found
+		Object bottom = m.get("a");
+		assert bottom instanceof Leaf && ((Leaf) bottom).b == 2 : bottom;
+	}
+}
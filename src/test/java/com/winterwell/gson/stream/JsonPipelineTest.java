@@ -0,0 +1,42 @@
+package com.winterwell.gson.stream;
+
+import org.junit.Test;
+
+public class JsonPipelineTest {
+
+	@Test
+	public void testRules() {
+		JsonPipeline p = new JsonPipeline()
+				.drop("**.password")
+				.rename("user.nm", "name")
+				.redact("card", "***")
+				.inject("user", "source", "gateway")
+				.mapStrings("tags.*", String::toUpperCase)
+				.drop("tags.1");
+		String json = "{'user':{'nm':'Alice','password':'x','age':30.50},"
+				+ "'card':{'number':1234},'tags':['a','b','c'],'ok':true,'n':null}";
+		String out = p.apply(json.replace('\'', '"'));
+		String expected = "{'user':{'name':'Alice','age':30.50,'source':'gateway'},"
+				+ "'card':'***','tags':['A','C'],'ok':true,'n':null}";
+		assert out.equals(expected.replace('\'', '"')) : out;
+	}
+
+	@Test
+	public void testFrozenOnceInUse() {
+		JsonPipeline p = new JsonPipeline().drop("a");
+		assert p.apply("{\"a\":1,\"b\":2}").equals("{\"b\":2}");
+		try {
+			p.drop("b");
+			assert false;
+		} catch(IllegalStateException ex) {
+			// good
+		}
+		assert p.apply("{\"a\":1,\"b\":2}").equals("{\"b\":2}");
+	}
+
+	@Test
+	public void testNoRules() {
+		String json = "[1,{\"a\":[]},\"x\",-2e5]";
+		assert new JsonPipeline().apply(json).equals(json);
+	}
+}